@@ -59,6 +59,8 @@ import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.io.IOUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Represents an XML data file that Jenkins uses as a data file.
@@ -189,17 +191,48 @@ public final class XmlFile {
         AtomicFileWriter w = new AtomicFileWriter(file);
         try {
             w.write("<?xml version='1.1' encoding='UTF-8'?>\n");
-            beingWritten.put(o, null);
-            writing.set(file);
-            try {
-                xs.toXML(o, w);
-            } finally {
-                beingWritten.remove(o);
-                writing.set(null);
-            }
+            toXML(o, w);
             w.commit();
+        } finally {
+            w.abort();
+        }
+    }
+
+    /**
+     * Serializes an object the way {@link #write} would, but into memory.
+     * Lets a caller hold its lock only while the object is read, and write the result later with {@link #writeRaw}.
+     */
+    @Restricted(NoExternalUse.class)
+    public String toXML(Object o) throws IOException {
+        StringWriter w = new StringWriter();
+        w.write("<?xml version='1.1' encoding='UTF-8'?>\n");
+        toXML(o, w);
+        return w.toString();
+    }
+
+    private void toXML(Object o, Writer w) throws IOException {
+        beingWritten.put(o, null);
+        writing.set(file);
+        try {
+            xs.toXML(o, w);
         } catch(RuntimeException e) {
             throw new IOException(e);
+        } finally {
+            beingWritten.remove(o);
+            writing.set(null);
+        }
+    }
+
+    /**
+     * Atomically replaces the file with XML produced by {@link #toXML(Object)}.
+     */
+    @Restricted(NoExternalUse.class)
+    public void writeRaw(String xml) throws IOException {
+        mkdirs();
+        AtomicFileWriter w = new AtomicFileWriter(file);
+        try {
+            w.write(xml);
+            w.commit();
         } finally {
             w.abort();
         }
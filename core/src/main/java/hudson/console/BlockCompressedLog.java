@@ -0,0 +1,617 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Console log compressed in independent blocks, so that any part of it can be read
+ * without decompressing what comes before.
+ *
+ * <p>
+ * Each block is a complete gzip member holding up to {@link #BLOCK_SIZE} bytes of the log,
+ * so the file as a whole is an ordinary gzip file which {@code zcat} or {@link java.util.zip.GZIPInputStream} can read.
+ * The header of each member carries a {@code BC} extra field with the size of the member,
+ * as in the BGZF format, so the blocks can be found by hopping from one header to the next.
+ * To avoid even that, the writer also keeps a table of blocks in a separate file:
+ * for each block, the offsets of its end in the log and in the compressed file, as big-endian longs.
+ * The table may lag behind the log or be missing, in which case the headers make up for it.
+ *
+ * <p>
+ * While a log is being written, the end of it not yet compressed is kept in memory,
+ * and readers in this JVM see it through {@link #open}, so tailing a running build works as with a plain log.
+ * A block is compressed when it is full, or when its oldest byte is {@link #FLUSH_INTERVAL} old,
+ * so that a crash loses little of the log.
+ *
+ * <p>
+ * An instance is a snapshot of the log at the time it was opened.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class BlockCompressedLog {
+
+    private static final int HEADER_SIZE = 20;
+    private static final int TRAILER_SIZE = 8;
+    private static final int TABLE_ENTRY_SIZE = 16;
+
+    /**
+     * Logs being written, by file.
+     */
+    private static final Map<File, Writer> LIVE = new ConcurrentHashMap<>();
+
+    private final File file;
+    /**
+     * Offset in the log of the start of each block, followed by the end of the last one.
+     */
+    private final long[] starts;
+    /**
+     * Offset in the file of the start of each block, followed by the end of the last one.
+     */
+    private final long[] offsets;
+    private final int blocks;
+    /**
+     * Data following the last block, not yet compressed.
+     */
+    private final byte[] pending;
+
+    private BlockCompressedLog(File file, long[] starts, long[] offsets, int blocks, byte[] pending) {
+        this.file = file;
+        this.starts = starts;
+        this.offsets = offsets;
+        this.blocks = blocks;
+        this.pending = pending;
+    }
+
+    /**
+     * Checks whether a file is in this format, rather than for example a log compressed as a whole.
+     * An empty file counts, as it is what a writer starts from.
+     */
+    public static boolean isBlockCompressed(@Nonnull File file) {
+        if (LIVE.containsKey(file.getAbsoluteFile())) {
+            return true;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() == 0) {
+                return true;
+            }
+            byte[] header = new byte[HEADER_SIZE];
+            raf.readFully(header);
+            return memberSize(header) > 0;
+        } catch (IOException x) {
+            return false;
+        }
+    }
+
+    /**
+     * Takes a snapshot of a log, including what is being written to it right now.
+     *
+     * @param table the table of blocks, which may be missing or incomplete
+     */
+    public static @Nonnull BlockCompressedLog open(@Nonnull File file, @Nonnull File table) throws IOException {
+        Writer w = LIVE.get(file.getAbsoluteFile());
+        if (w != null) {
+            return w.snapshot();
+        }
+        Table t = new Table();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            t.load(raf, table);
+        }
+        return new BlockCompressedLog(file, t.starts, t.offsets, t.size, new byte[0]);
+    }
+
+    /**
+     * Opens a log for writing, appending to it if it exists.
+     *
+     * @param table the table of blocks, rewritten as needed
+     */
+    public static @Nonnull OutputStream write(@Nonnull File file, @Nonnull File table) throws IOException {
+        Writer w = new Writer(file.getAbsoluteFile(), table);
+        LIVE.put(w.file, w);
+        return w;
+    }
+
+    /**
+     * Length of the log, uncompressed.
+     */
+    public long length() {
+        return starts[blocks] + pending.length;
+    }
+
+    /**
+     * Reads the log from some offset.
+     */
+    public @Nonnull InputStream open(long offset) {
+        return new Reader(offset);
+    }
+
+    /**
+     * Finds where the last lines of the log start, decompressing only the blocks they are in.
+     *
+     * @see ConsoleLineIndex#findTail
+     */
+    public long findTail(long lines) throws IOException {
+        long end = length();
+        if (lines <= 0) {
+            return end;
+        }
+        long seen = 0;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            for (int i = blocks; i >= 0; i--) {
+                byte[] data = i == blocks ? pending : readBlock(raf, i);
+                long base = starts[i];
+                for (int j = data.length - 1; j >= 0; j--) {
+                    if (data[j] == '\n' && base + j != end - 1 && ++seen == lines) {
+                        return base + j + 1;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Presents the log as a buffer, which is how {@link AnnotatedLargeText} can be made to read it.
+     * The buffer is read-only.
+     */
+    public @Nonnull org.kohsuke.stapler.framework.io.ByteBuffer asByteBuffer() {
+        return new org.kohsuke.stapler.framework.io.ByteBuffer() {
+            @Override
+            public void write(byte[] b, int off, int len) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void write(int b) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long length() {
+                return BlockCompressedLog.this.length();
+            }
+
+            @Override
+            public InputStream newInputStream() {
+                return open(0);
+            }
+        };
+    }
+
+    private byte[] readBlock(RandomAccessFile raf, int i) throws IOException {
+        byte[] member = new byte[(int) (offsets[i + 1] - offsets[i])];
+        raf.seek(offsets[i]);
+        raf.readFully(member);
+        byte[] data = new byte[(int) (starts[i + 1] - starts[i])];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member, HEADER_SIZE, member.length - HEADER_SIZE - TRAILER_SIZE);
+            int n = 0;
+            while (n < data.length) {
+                int r = inflater.inflate(data, n, data.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                n += r;
+            }
+            if (n != data.length) {
+                throw new IOException("truncated block at " + offsets[i] + " in " + file);
+            }
+        } catch (DataFormatException x) {
+            throw new IOException("corrupt block at " + offsets[i] + " in " + file, x);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        if ((int) crc.getValue() != readIntLE(member, member.length - TRAILER_SIZE)) {
+            throw new IOException("corrupt block at " + offsets[i] + " in " + file);
+        }
+        return data;
+    }
+
+    /**
+     * Reads the log sequentially from some offset, decompressing one block at a time.
+     */
+    private final class Reader extends InputStream {
+        private long pos;
+        private @CheckForNull RandomAccessFile raf;
+        private int block = -1;
+        private byte[] data;
+
+        Reader(long pos) {
+            this.pos = pos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= length()) {
+                return -1;
+            }
+            byte[] src;
+            long base;
+            if (pos >= starts[blocks]) {
+                src = pending;
+                base = starts[blocks];
+            } else {
+                int i = Arrays.binarySearch(starts, 0, blocks + 1, pos);
+                if (i < 0) {
+                    i = -i - 2;
+                }
+                if (i != block) {
+                    if (raf == null) {
+                        raf = new RandomAccessFile(file, "r");
+                    }
+                    data = readBlock(raf, i);
+                    block = i;
+                }
+                src = data;
+                base = starts[i];
+            }
+            int start = (int) (pos - base);
+            int n = Math.min(len, src.length - start);
+            System.arraycopy(src, start, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            // like FileInputStream, allows skipping past the end
+            if (n <= 0) {
+                return 0;
+            }
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.max(0, Math.min(Integer.MAX_VALUE, length() - pos));
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raf != null) {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Offsets of the blocks found in a file.
+     */
+    private static final class Table {
+        long[] starts = new long[16];
+        long[] offsets = new long[16];
+        int size;
+
+        void add(long start, long offset) {
+            if (size + 1 == starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            size++;
+            starts[size] = start;
+            offsets[size] = offset;
+        }
+
+        /**
+         * Reads the table as far as it goes, then the headers of any remaining blocks.
+         * Stops at the first block cut short, which may be getting written or may have been left by a crash.
+         */
+        void load(RandomAccessFile raf, File table) throws IOException {
+            long length = raf.length();
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(table.toPath()))) {
+                while (true) {
+                    long start = in.readLong();
+                    long offset = in.readLong();
+                    if (start <= starts[size] || offset <= offsets[size] || offset > length) {
+                        break;
+                    }
+                    add(start, offset);
+                }
+            } catch (EOFException | NoSuchFileException x) {
+                // read what there was
+            }
+            byte[] header = new byte[HEADER_SIZE];
+            byte[] trailer = new byte[TRAILER_SIZE];
+            while (offsets[size] + HEADER_SIZE + TRAILER_SIZE <= length) {
+                raf.seek(offsets[size]);
+                raf.readFully(header);
+                int memberSize = memberSize(header);
+                if (memberSize <= 0 || offsets[size] + memberSize > length) {
+                    break;
+                }
+                raf.seek(offsets[size] + memberSize - TRAILER_SIZE);
+                raf.readFully(trailer);
+                add(starts[size] + (readIntLE(trailer, 4) & 0xFFFFFFFFL), offsets[size] + memberSize);
+            }
+        }
+    }
+
+    /**
+     * Writes a log, compressing a block at a time.
+     */
+    private static final class Writer extends OutputStream {
+        private final File file;
+        private final File tableFile;
+        private final Table table = new Table();
+        private final FileChannel channel;
+        private final OutputStream tableOut;
+        private final Deflater deflater = new Deflater(LEVEL, true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[BLOCK_SIZE];
+        private int count;
+        private long pendingSince;
+        private boolean closed;
+
+        Writer(File file, File tableFile) throws IOException {
+            this.file = file;
+            this.tableFile = tableFile;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    table.load(raf, tableFile);
+                }
+                // drop any block cut short by a crash
+                channel.truncate(table.offsets[table.size]);
+                channel.position(table.offsets[table.size]);
+                tableOut = Files.newOutputStream(tableFile.toPath());
+                ByteBuffer entries = ByteBuffer.allocate(table.size * TABLE_ENTRY_SIZE);
+                for (int i = 1; i <= table.size; i++) {
+                    entries.putLong(table.starts[i]).putLong(table.offsets[i]);
+                }
+                tableOut.write(entries.array());
+            } catch (IOException | RuntimeException x) {
+                channel.close();
+                deflater.end();
+                throw x;
+            }
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException(file + " is closed");
+            }
+            while (len > 0) {
+                if (count == 0) {
+                    pendingSince = System.currentTimeMillis();
+                }
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count == buf.length) {
+                    seal();
+                }
+            }
+        }
+
+        /**
+         * Compresses what is pending if it has been pending for long enough.
+         * Flushing every time would make for tiny blocks, as build output tends to be flushed at every line.
+         */
+        @Override
+        public synchronized void flush() throws IOException {
+            if (!closed && count > 0 && System.currentTimeMillis() - pendingSince >= FLUSH_INTERVAL) {
+                seal();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                seal();
+            } finally {
+                closed = true;
+                LIVE.remove(file, this);
+                deflater.end();
+                try {
+                    channel.close();
+                } finally {
+                    tableOut.close();
+                }
+            }
+        }
+
+        synchronized BlockCompressedLog snapshot() {
+            return new BlockCompressedLog(file, Arrays.copyOf(table.starts, table.size + 1), Arrays.copyOf(table.offsets, table.size + 1),
+                    table.size, Arrays.copyOf(buf, count));
+        }
+
+        private void seal() throws IOException {
+            assert Thread.holdsLock(this);
+            if (count == 0) {
+                return;
+            }
+            deflater.reset();
+            deflater.setInput(buf, 0, count);
+            deflater.finish();
+            byte[] member = new byte[HEADER_SIZE + count + count / 8 + 64 + TRAILER_SIZE];
+            int size = HEADER_SIZE;
+            while (!deflater.finished()) {
+                if (size == member.length - TRAILER_SIZE) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - TRAILER_SIZE - size);
+            }
+            crc.reset();
+            crc.update(buf, 0, count);
+            writeIntLE(member, size, (int) crc.getValue());
+            writeIntLE(member, size + 4, count);
+            size += TRAILER_SIZE;
+            writeHeader(member, size);
+
+            ByteBuffer bb = ByteBuffer.wrap(member, 0, size);
+            while (bb.hasRemaining()) {
+                channel.write(bb);
+            }
+            table.add(table.starts[table.size] + count, table.offsets[table.size] + size);
+            count = 0;
+            try {
+                tableOut.write(ByteBuffer.allocate(TABLE_ENTRY_SIZE).putLong(table.starts[table.size]).putLong(table.offsets[table.size]).array());
+            } catch (IOException x) {
+                // the headers in the log are enough to find the blocks
+                LOGGER.log(Level.FINE, "could not update " + tableFile, x);
+            }
+        }
+
+        synchronized void sealIfStale() {
+            try {
+                flush();
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "could not write " + file, x);
+            }
+        }
+    }
+
+    /**
+     * Writes a gzip member header with a {@code BC} extra field holding the size of the member.
+     */
+    private static void writeHeader(byte[] b, int memberSize) {
+        b[0] = 0x1f;
+        b[1] = (byte) 0x8b;
+        b[2] = 8; // deflate
+        b[3] = 4; // FEXTRA
+        // no modification time
+        b[4] = b[5] = b[6] = b[7] = 0;
+        b[8] = 0;
+        b[9] = (byte) 0xff; // unknown OS
+        b[10] = 8; // XLEN
+        b[11] = 0;
+        b[12] = 'B';
+        b[13] = 'C';
+        b[14] = 4; // SLEN
+        b[15] = 0;
+        writeIntLE(b, 16, memberSize);
+    }
+
+    /**
+     * Reads the size of a gzip member from a header written by {@link #writeHeader}.
+     *
+     * @return the size, or -1 if this is not such a header
+     */
+    private static int memberSize(byte[] b) {
+        if (b[0] != 0x1f || b[1] != (byte) 0x8b || b[2] != 8 || (b[3] & 4) == 0
+                || b[10] != 8 || b[11] != 0 || b[12] != 'B' || b[13] != 'C' || b[14] != 4 || b[15] != 0) {
+            return -1;
+        }
+        int size = readIntLE(b, 16);
+        return size >= HEADER_SIZE + TRAILER_SIZE ? size : -1;
+    }
+
+    private static void writeIntLE(byte[] b, int off, int v) {
+        b[off] = (byte) v;
+        b[off + 1] = (byte) (v >>> 8);
+        b[off + 2] = (byte) (v >>> 16);
+        b[off + 3] = (byte) (v >>> 24);
+    }
+
+    private static int readIntLE(byte[] b, int off) {
+        return (b[off] & 0xFF) | (b[off + 1] & 0xFF) << 8 | (b[off + 2] & 0xFF) << 16 | (b[off + 3] & 0xFF) << 24;
+    }
+
+    /**
+     * Compresses blocks of running builds that have been pending for a while, in case their builds have gone quiet.
+     */
+    @Extension
+    public static final class Sealer extends PeriodicWork {
+        @Override
+        public long getRecurrencePeriod() {
+            return Math.max(FLUSH_INTERVAL, 1000);
+        }
+
+        @Override
+        protected void doRun() {
+            for (Writer w : LIVE.values()) {
+                w.sealIfStale();
+            }
+        }
+    }
+
+    /**
+     * Size of the blocks, uncompressed.
+     */
+    public static /* non-final for Groovy */ int BLOCK_SIZE = SystemProperties.getInteger(BlockCompressedLog.class.getName() + ".blockSize", 64 * 1024);
+
+    /**
+     * Milliseconds after which output is compressed even though its block is not full.
+     */
+    public static /* non-final for Groovy */ long FLUSH_INTERVAL = SystemProperties.getLong(BlockCompressedLog.class.getName() + ".flushInterval", TimeUnit.SECONDS.toMillis(10));
+
+    /**
+     * Deflate compression level.
+     */
+    public static /* non-final for Groovy */ int LEVEL = SystemProperties.getInteger(BlockCompressedLog.class.getName() + ".level", Deflater.DEFAULT_COMPRESSION);
+
+    private static final Logger LOGGER = Logger.getLogger(BlockCompressedLog.class.getName());
+}
@@ -24,8 +24,6 @@
 package hudson.console;
 
 import hudson.MarkupText;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
@@ -104,11 +102,13 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
                 // character position of this annotation in this line
                 final int charPos = strBuf.length();
 
-                int rest = sz - next;
-                ByteArrayInputStream b = new ByteArrayInputStream(in, next, rest);
+                // the note runs to its postamble; a note cut short hides the rest of the line
+                int end = ConsoleNote.findNoteEnd(in,next,sz);
+                if (end<0)
+                    end = sz;
 
                 try {
-                    final ConsoleNote a = ConsoleNote.readFrom(new DataInputStream(b));
+                    final ConsoleNote a = ConsoleNote.readFrom(in, next, end);
                     if (a!=null) {
                         if (annotators==null)
                             annotators = new ArrayList<>();
@@ -121,11 +121,10 @@ public class ConsoleAnnotationOutputStream<T> extends LineTransformationOutputSt
                     }
                 } catch (IOException | ClassNotFoundException e) {
                     // if we failed to resurrect an annotation, ignore it.
-                    LOGGER.log(Level.FINE, "Failed to resurrect annotation from \"" + StringEscapeUtils.escapeJava(new String(in, next, rest)) + "\"", e);
+                    LOGGER.log(Level.FINE, "Failed to resurrect annotation from \"" + StringEscapeUtils.escapeJava(new String(in, next, end - next)) + "\"", e);
                 }
 
-                int bytesUsed = rest - b.available(); // bytes consumed by annotations
-                written += bytesUsed;
+                written = end;
 
 
                 next = ConsoleNote.findPreamble(in,written,sz-written);
@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Sparse index from line numbers to byte offsets in a console log,
+ * so that a given line can be found without reading the log from the start.
+ *
+ * <p>
+ * The index is written alongside the log while it is being written, by {@link #record}.
+ * It is a sequence of pairs of big-endian longs, each giving the number of a line (counting from 0)
+ * and the offset in the log at which that line starts, taken every {@link #LINES} lines
+ * or {@link #BYTES} bytes, whichever comes first.
+ * Lines are terminated by {@code \n}, like {@link LineTransformationOutputStream} assumes.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class ConsoleLineIndex {
+
+    private static final int ENTRY_SIZE = 16;
+
+    private ConsoleLineIndex() {}
+
+    /**
+     * Wraps the stream writing a log so that the line index gets written as well.
+     *
+     * @param out stream writing to the end of the log
+     * @param logLength current length of the log; lines already in it cannot be indexed, so then the index is not written
+     * @param index file to write the index to
+     */
+    public static @Nonnull OutputStream record(@Nonnull OutputStream out, long logLength, @Nonnull File index) {
+        if (logLength > 0 || !ENABLED) {
+            // appending to an existing log whose lines we did not count, or not indexing at all;
+            // either way an existing index would no longer match the log
+            if (index.exists() && !index.delete()) {
+                LOGGER.log(Level.WARNING, "could not delete {0}", index);
+            }
+            return out;
+        }
+        return new Recorder(out, index);
+    }
+
+    /**
+     * Finds where a line starts.
+     *
+     * @param log the log
+     * @param index its index, which may be missing or incomplete
+     * @param line the line number, counting from 0
+     * @return the offset of the start of that line, or -1 if the log has fewer lines
+     */
+    public static long findLine(@Nonnull File log, @CheckForNull File index, long line) throws IOException {
+        if (line < 0) {
+            throw new IllegalArgumentException("negative line number: " + line);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            long length = raf.length();
+            long currentLine = 0;
+            long offset = 0;
+            if (index != null) {
+                long[] entry = floorEntry(index, line, length);
+                currentLine = entry[0];
+                offset = entry[1];
+            }
+            raf.seek(offset);
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (currentLine < line) {
+                int n = raf.read(buf);
+                if (n < 0) {
+                    return -1;
+                }
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] == '\n' && ++currentLine == line) {
+                        long start = offset + i + 1;
+                        return start < length ? start : -1;
+                    }
+                }
+                offset += n;
+            }
+            return offset < length || line == 0 ? offset : -1;
+        }
+    }
+
+    /**
+     * Finds where the last lines of a log start, reading it backwards so that the cost does not depend on the size of the log.
+     *
+     * @param lines how many lines to keep; a final line without a terminating newline counts as one
+     * @return the offset of the first of those lines, 0 if the log does not have more lines than that
+     */
+    public static long findTail(@Nonnull File log, long lines) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            long end = raf.length();
+            if (lines <= 0) {
+                return end;
+            }
+            byte[] buf = new byte[BUFFER_SIZE];
+            long seen = 0;
+            long pos = end;
+            boolean first = true;
+            while (pos > 0) {
+                int n = (int) Math.min(buf.length, pos);
+                pos -= n;
+                raf.seek(pos);
+                raf.readFully(buf, 0, n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (buf[i] == '\n') {
+                        if (first && pos + i == end - 1) {
+                            // the newline ending the last line
+                            continue;
+                        }
+                        if (++seen == lines) {
+                            return pos + i + 1;
+                        }
+                    }
+                }
+                first = false;
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Copies a range of lines.
+     *
+     * @param in stream positioned at the start of a line
+     * @param skip number of lines to skip first
+     * @param lines maximum number of lines to copy after that
+     */
+    public static void copyLines(@Nonnull InputStream in, long skip, long lines, @Nonnull OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long toSkip = skip;
+        long toCopy = lines;
+        int n;
+        while (toCopy > 0 && (n = in.read(buf)) >= 0) {
+            int start = 0;
+            int end = n;
+            for (int i = 0; i < n; i++) {
+                if (buf[i] != '\n') {
+                    continue;
+                }
+                if (toSkip > 0) {
+                    if (--toSkip == 0) {
+                        start = i + 1;
+                    }
+                } else if (--toCopy == 0) {
+                    end = i + 1;
+                    break;
+                }
+            }
+            if (toSkip == 0 && end > start) {
+                out.write(buf, start, end - start);
+            }
+        }
+    }
+
+    /**
+     * Counts the lines in a stream; a final line without a terminating newline counts as one.
+     */
+    public static long countLines(@Nonnull InputStream in) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long lines = 0;
+        byte last = '\n';
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            for (int i = 0; i < n; i++) {
+                if (buf[i] == '\n') {
+                    lines++;
+                }
+            }
+            if (n > 0) {
+                last = buf[n - 1];
+            }
+        }
+        return last == '\n' ? lines : lines + 1;
+    }
+
+    /**
+     * Finds the last index entry at or before the given line, ignoring any entry past the end of the log.
+     * Useful to read a log which cannot be read by {@link #findLine}, such as a {@link BlockCompressedLog}.
+     *
+     * @return the line and offset of that entry, or of the start of the log if there is none
+     */
+    public static @Nonnull long[] floorEntry(@Nonnull File index, long line, long logLength) {
+        long[] result = {0, 0};
+        if (!index.isFile()) {
+            return result;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(index, "r")) {
+            // a trailing partial entry may be getting written right now
+            long lo = 0;
+            long hi = raf.length() / ENTRY_SIZE - 1;
+            while (lo <= hi) {
+                long mid = (lo + hi) >>> 1;
+                raf.seek(mid * ENTRY_SIZE);
+                long entryLine = raf.readLong();
+                long entryOffset = raf.readLong();
+                if (entryLine <= line && entryOffset <= logLength) {
+                    result[0] = entryLine;
+                    result[1] = entryOffset;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.FINE, "could not read " + index, x);
+        }
+        return result;
+    }
+
+    /**
+     * Passes through the log, adding an index entry every so often.
+     */
+    private static final class Recorder extends FilterOutputStream {
+        private final File index;
+        private @CheckForNull OutputStream indexOut;
+        private boolean failed;
+        private long offset;
+        private long line;
+        private long lastLine;
+        private long lastOffset;
+
+        Recorder(OutputStream out, File index) {
+            super(out);
+            this.index = index;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            offset++;
+            if (b == '\n') {
+                line++;
+                mark(offset);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            for (int i = 0; i < len; i++) {
+                if (b[off + i] == '\n') {
+                    line++;
+                    mark(offset + i + 1);
+                }
+            }
+            offset += len;
+        }
+
+        private void mark(long lineStart) {
+            if (failed || (line - lastLine < LINES && lineStart - lastOffset < BYTES)) {
+                return;
+            }
+            try {
+                if (indexOut == null) {
+                    indexOut = Files.newOutputStream(index.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                }
+                // one write per entry so that readers never see half of one, except at the very end
+                indexOut.write(ByteBuffer.allocate(ENTRY_SIZE).putLong(line).putLong(lineStart).array());
+                lastLine = line;
+                lastOffset = lineStart;
+            } catch (IOException x) {
+                // the index is only an optimization; what was written so far remains valid
+                LOGGER.log(Level.WARNING, "could not write " + index, x);
+                failed = true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (indexOut != null) {
+                    indexOut.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether build logs get a line index as they are written.
+     * Without it, line ranges are found by reading the log from the start.
+     */
+    public static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(ConsoleLineIndex.class.getName() + ".enabled", true);
+
+    /**
+     * Number of lines between index entries.
+     */
+    public static /* non-final for Groovy */ int LINES = SystemProperties.getInteger(ConsoleLineIndex.class.getName() + ".lines", 1000);
+
+    /**
+     * Maximum number of bytes between index entries, as long as lines are shorter than that.
+     */
+    public static /* non-final for Groovy */ int BYTES = SystemProperties.getInteger(ConsoleLineIndex.class.getName() + ".bytes", 1024 * 1024);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Logger LOGGER = Logger.getLogger(ConsoleLineIndex.class.getName());
+}
@@ -23,6 +23,8 @@
  */
 package hudson.console;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.ExtensionPoint;
 import hudson.Functions;
@@ -45,11 +47,16 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.UTFDataFormatException;
 import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
+import javax.annotation.CheckForNull;
 import com.jcraft.jzlib.GZIPInputStream;
 import com.jcraft.jzlib.GZIPOutputStream;
 import hudson.remoting.ClassFilter;
@@ -106,6 +113,11 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
  * if this output is observed by a human being directly.
  *
  * <p>
+ * The most common notes, the {@link HyperlinkNote}s, are instead written in a compact form which
+ * is quicker to write and to read back. Notes of a few core types known to be immutable are
+ * cached once read back, so that a note repeated throughout a log is only decoded once.
+ *
+ * <p>
  * Because of this persistence mechanism, {@link ConsoleNote}s need to be serializable, and care should be taken
  * to reduce footprint of the notes, if you are putting a lot of notes. Serialization format compatibility
  * is also important, although {@link ConsoleNote}s that failed to deserialize will be simply ignored, so the
@@ -197,9 +209,11 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
 
     private ByteArrayOutputStream encodeToBytes() throws IOException {
         ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        try (OutputStream gzos = new GZIPOutputStream(buf);
-             ObjectOutputStream oos = JenkinsJVM.isJenkinsJVM() ? AnonymousClassWarnings.checkingObjectOutputStream(gzos) : new ObjectOutputStream(gzos)) {
-            oos.writeObject(this);
+        if (!writeCompactForm(buf)) {
+            try (OutputStream gzos = new GZIPOutputStream(buf);
+                 ObjectOutputStream oos = JenkinsJVM.isJenkinsJVM() ? AnonymousClassWarnings.checkingObjectOutputStream(gzos) : new ObjectOutputStream(gzos)) {
+                oos.writeObject(this);
+            }
         }
 
         ByteArrayOutputStream buf2 = new ByteArrayOutputStream();
@@ -263,26 +277,140 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
             if (!Arrays.equals(postamble,POSTAMBLE))
                 return null;    // not a valid postamble
 
-            if (!INSECURE) {
-                if (mac == null) {
-                    throw new IOException("Refusing to deserialize unsigned note from an old log.");
-                } else if (!MAC.checkMac(buf, mac)) {
-                    throw new IOException("MAC mismatch");
+            return readPayload(mac, buf);
+        } catch (Error e) {
+            // for example, bogus 'sz' can result in OutOfMemoryError.
+            // package that up as IOException so that the caller won't fatally die.
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads a note back from its encoded form in a buffer, like {@link #readFrom} but without the overhead of streams.
+     * Notes of types known to be immutable are cached, keyed by their encoded form.
+     *
+     * @param start
+     *      Position of the preamble.
+     * @param end
+     *      Position right after the postamble, as returned by {@link #findNoteEnd}.
+     * @return null if the encoded form is malformed.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public static @CheckForNull ConsoleNote readFrom(byte[] in, int start, int end) throws IOException, ClassNotFoundException {
+        int from = start + PREAMBLE.length;
+        int to = end - POSTAMBLE.length;
+        if (to < from) {
+            return null;
+        }
+        // the key refers to the buffer only for the lookup; what gets cached is a copy
+        ByteBuffer key = ByteBuffer.wrap(in, from, to - from);
+        ConsoleNote note = DECODED.getIfPresent(key);
+        if (note != null) {
+            return note;
+        }
+        try {
+            ByteBuffer decoded = Base64.getDecoder().decode(key.duplicate());
+            int macSz = - decoded.getInt();
+            byte[] mac;
+            int sz;
+            if (macSz > 0) { // new format
+                mac = new byte[macSz];
+                decoded.get(mac);
+                sz = decoded.getInt();
+                if (sz < 0) {
+                    throw new IOException("Corrupt stream");
                 }
+            } else {
+                mac = null;
+                sz = - macSz;
             }
-
-            Jenkins jenkins = Jenkins.getInstanceOrNull();
-
-            try (ObjectInputStream ois = new ObjectInputStreamEx(new GZIPInputStream(new ByteArrayInputStream(buf)),
-                    jenkins != null ? jenkins.pluginManager.uberClassLoader : ConsoleNote.class.getClassLoader(),
-                    ClassFilter.DEFAULT)) {
-                return getConsoleNote(ois);
+            if (sz > decoded.remaining()) {
+                throw new IOException("Corrupt stream");
             }
+            byte[] buf = new byte[sz];
+            decoded.get(buf);
+            note = readPayload(mac, buf);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupt stream", e);
         } catch (Error e) {
-            // for example, bogus 'sz' can result in OutOfMemoryError.
-            // package that up as IOException so that the caller won't fatally die.
             throw new IOException(e);
         }
+        if (note != null && note.getClass().isAnnotationPresent(ImmutableNote.class)) {
+            DECODED.put(ByteBuffer.wrap(Arrays.copyOfRange(in, from, to)), note);
+        }
+        return note;
+    }
+
+    /**
+     * Checks the signature of a note and reads it from its compact or serialized form.
+     */
+    private static ConsoleNote readPayload(@CheckForNull byte[] mac, byte[] buf) throws IOException, ClassNotFoundException {
+        if (!INSECURE) {
+            if (mac == null) {
+                throw new IOException("Refusing to deserialize unsigned note from an old log.");
+            } else if (!MAC.checkMac(buf, mac)) {
+                throw new IOException("MAC mismatch");
+            }
+        }
+
+        if (buf.length > 0 && buf[0] == COMPACT_FORM) {
+            return readCompactForm(buf);
+        }
+
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+
+        try (ObjectInputStream ois = new ObjectInputStreamEx(new GZIPInputStream(new ByteArrayInputStream(buf)),
+                jenkins != null ? jenkins.pluginManager.uberClassLoader : ConsoleNote.class.getClassLoader(),
+                ClassFilter.DEFAULT)) {
+            return getConsoleNote(ois);
+        }
+    }
+
+    /**
+     * Writes the compact form of this note, if it has one.
+     * Only the exact types are covered, as subclasses may have more fields.
+     *
+     * @return false if this note needs to be serialized instead
+     */
+    private boolean writeCompactForm(ByteArrayOutputStream buf) throws IOException {
+        byte type;
+        if (getClass() == HyperlinkNote.class) {
+            type = COMPACT_HYPERLINK;
+        } else if (getClass() == ModelHyperlinkNote.class) {
+            type = COMPACT_MODEL_HYPERLINK;
+        } else {
+            return false;
+        }
+        if (!COMPACT) {
+            return false;
+        }
+        HyperlinkNote n = (HyperlinkNote) this;
+        DataOutputStream dos = new DataOutputStream(buf);
+        try {
+            dos.writeByte(COMPACT_FORM);
+            dos.writeByte(type);
+            dos.writeUTF(n.getUrl());
+            dos.writeInt(n.getLength());
+        } catch (UTFDataFormatException e) {
+            // URL too long for the compact form
+            buf.reset();
+            return false;
+        }
+        return true;
+    }
+
+    private static ConsoleNote readCompactForm(byte[] buf) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf, 1, buf.length - 1));
+        byte type = in.readByte();
+        switch (type) {
+        case COMPACT_HYPERLINK:
+            return new HyperlinkNote(in.readUTF(), in.readInt());
+        case COMPACT_MODEL_HYPERLINK:
+            return new ModelHyperlinkNote(in.readUTF(), in.readInt());
+        default:
+            throw new IOException("Unknown compact note type " + type);
+        }
     }
 
     @SuppressFBWarnings(value = "OBJECT_DESERIALIZATION", justification = "Deserialization is protected by logic.")
@@ -316,6 +444,26 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
 
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Whether {@link HyperlinkNote}s are written in their compact form, which older versions cannot read.
+     * Off by default, so that logs stay readable after a downgrade.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* nonfinal for tests & script console */ boolean COMPACT = SystemProperties.getBoolean(ConsoleNote.class.getName() + ".COMPACT");
+
+    /**
+     * First byte of the compact form, which cannot start a serialized note as those are gzipped.
+     */
+    private static final byte COMPACT_FORM = 0;
+    private static final byte COMPACT_HYPERLINK = 1;
+    private static final byte COMPACT_MODEL_HYPERLINK = 2;
+
+    /**
+     * Notes read back by {@link #readFrom(byte[], int, int)}, by their base64 encoded form.
+     */
+    private static final Cache<ByteBuffer, ConsoleNote> DECODED = CacheBuilder.newBuilder()
+            .maximumSize(SystemProperties.getInteger(ConsoleNote.class.getName() + ".cacheSize", 1024)).build();
+
     public static final String PREAMBLE_STR = "\u001B[8mha:";
     public static final String POSTAMBLE_STR = "\u001B[0m";
 
@@ -329,6 +477,30 @@ public abstract class ConsoleNote<T> implements Serializable, Describable<Consol
      */
     public static final byte[] POSTAMBLE = POSTAMBLE_STR.getBytes();
 
+    /**
+     * Locates the end of the note whose preamble is at the given position,
+     * which is the end of its postamble as the base64 encoded note in between cannot contain one.
+     *
+     * @return the position right after the postamble, or -1 if it is not in the buffer.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public static int findNoteEnd(byte[] buf, int start, int end) {
+        int e = end - POSTAMBLE.length + 1;
+
+        OUTER:
+        for (int i=start+PREAMBLE.length; i<e; i++) {
+            if (buf[i]==POSTAMBLE[0]) {
+                for (int j=1; j<POSTAMBLE.length; j++) {
+                    if (buf[i+j]!=POSTAMBLE[j])
+                        continue OUTER;
+                }
+                return i+POSTAMBLE.length;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Locates the preamble in the given buffer.
      */
@@ -0,0 +1,429 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Searches a console log for lines matching a string or a regular expression, like {@code grep -n},
+ * ignoring {@link ConsoleNote}s.
+ *
+ * <p>
+ * Matching lines are written as {@code number:text}, lines of context as {@code number-text},
+ * and non-adjacent groups of lines are separated by {@code --}.
+ * The search stops after a number of matches or after {@link #TIMEOUT} milliseconds,
+ * in which case a last line in brackets says so.
+ * It also stops if the output cannot be written, as happens when the client goes away.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class ConsoleSearch {
+
+    private static final int MAX_LINE = 1024 * 1024;
+
+    private final @CheckForNull Pattern pattern;
+    private final String literal;
+    /**
+     * {@link #literal} as bytes, when lines can be searched without decoding them.
+     */
+    private final @CheckForNull byte[] literalBytes;
+    private final int context;
+    private final int maxMatches;
+    private final Charset charset;
+    private long deadline;
+
+    private Writer out;
+    private int matches;
+    private boolean stopped;
+    /**
+     * Characters read by the regular expression, so that {@link Bounded} checks the deadline every so often.
+     */
+    private int reads;
+    /**
+     * Number of the current line, counting from 1.
+     */
+    private long lineNumber;
+    /**
+     * Number of the last line written, or 0.
+     */
+    private long lastWritten;
+    /**
+     * How many lines of context remain to be written after the last match.
+     */
+    private int contextAfter;
+
+    /**
+     * The current line, with console notes removed.
+     */
+    private byte[] line = new byte[256];
+    private int lineLength;
+
+    /**
+     * Lines before the current one, kept for context: line {@code n} is in slot {@code n % context}.
+     */
+    private final byte[][] before;
+    private final int[] beforeLengths;
+
+    /**
+     * @param query the string to look for
+     * @param regex whether the query is a regular expression
+     * @param context number of lines to show before and after each match
+     * @param maxMatches number of matches after which to stop
+     * @param charset encoding of the log
+     * @throws java.util.regex.PatternSyntaxException if the query is not a valid regular expression
+     */
+    public ConsoleSearch(@Nonnull String query, boolean regex, int context, int maxMatches, @Nonnull Charset charset) {
+        if (context < 0 || context > MAX_CONTEXT) {
+            throw new IllegalArgumentException("context must be between 0 and " + MAX_CONTEXT);
+        }
+        if (maxMatches <= 0) {
+            throw new IllegalArgumentException("the number of matches must be positive");
+        }
+        this.pattern = regex ? Pattern.compile(query) : null;
+        this.literal = query;
+        this.literalBytes = !regex && isAsciiCompatible(charset) && isAscii(query) ? query.getBytes(StandardCharsets.US_ASCII) : null;
+        this.context = context;
+        this.maxMatches = maxMatches;
+        this.charset = charset;
+        this.before = new byte[context][];
+        this.beforeLengths = new int[context];
+    }
+
+    /**
+     * Searches an uncompressed log file, reading it a large chunk at a time into a single buffer.
+     *
+     * @return the number of matches
+     */
+    public int search(@Nonnull File log, @Nonnull Writer out) throws IOException {
+        start(out);
+        byte[] buf = new byte[CHUNK];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        try (FileChannel ch = FileChannel.open(log.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            long pos = 0;
+            while (pos < size && !stopped) {
+                int wanted = (int) Math.min(buf.length, size - pos);
+                bb.clear();
+                bb.limit(wanted);
+                while (bb.hasRemaining() && ch.read(bb, pos + bb.position()) >= 0) {
+                    // read the whole chunk
+                }
+                int limit = bb.position();
+                if (limit == 0) {
+                    // truncated meanwhile
+                    break;
+                }
+                boolean last = limit < wanted || pos + limit == size;
+                int lineStart = 0;
+                for (int i = 0; i < limit && !stopped; i++) {
+                    if (buf[i] == '\n') {
+                        setLine(buf, lineStart, i);
+                        lineStart = i + 1;
+                        line(true);
+                    }
+                }
+                if (stopped) {
+                    break;
+                }
+                if (last || lineStart == 0) {
+                    // the last line, without a newline, or a line longer than the chunk
+                    if (lineStart < limit) {
+                        setLine(buf, lineStart, limit);
+                        line(last);
+                    }
+                    if (last) {
+                        break;
+                    }
+                    pos += limit;
+                } else {
+                    pos += lineStart;
+                }
+            }
+        }
+        return finish();
+    }
+
+    /**
+     * Searches a log read from a stream, such as a compressed log.
+     *
+     * @return the number of matches
+     */
+    public int search(@Nonnull InputStream in, @Nonnull Writer out) throws IOException {
+        start(out);
+        byte[] buf = new byte[8192];
+        byte[] pending = new byte[256];
+        int pendingLength = 0;
+        int n;
+        while (!stopped && (n = in.read(buf)) >= 0) {
+            int lineStart = 0;
+            for (int i = 0; i < n && !stopped; i++) {
+                if (buf[i] == '\n' || pendingLength + i - lineStart == MAX_LINE) {
+                    boolean complete = buf[i] == '\n';
+                    pending = append(pending, pendingLength, buf, lineStart, i);
+                    pendingLength += i - lineStart;
+                    setLine(pending, 0, pendingLength);
+                    pendingLength = 0;
+                    lineStart = complete ? i + 1 : i;
+                    line(complete);
+                }
+            }
+            if (n > lineStart) {
+                pending = append(pending, pendingLength, buf, lineStart, n);
+                pendingLength += n - lineStart;
+            }
+        }
+        if (!stopped && pendingLength > 0) {
+            setLine(pending, 0, pendingLength);
+            line(true);
+        }
+        return finish();
+    }
+
+    private void start(Writer out) {
+        this.out = out;
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT);
+    }
+
+    private int finish() throws IOException {
+        if (stopped) {
+            out.write(matches >= maxMatches ? "[stopped after " + matches + " matches]\n" : "[search timed out]\n");
+        }
+        out.flush();
+        return matches;
+    }
+
+    /**
+     * Sets the current line, removing console notes.
+     */
+    private void setLine(byte[] raw, int from, int to) {
+        line = ensureCapacity(line, to - from);
+        lineLength = 0;
+        int written = from;
+        int next = ConsoleNote.findPreamble(raw, from, to - from);
+        while (next >= 0) {
+            System.arraycopy(raw, written, line, lineLength, next - written);
+            lineLength += next - written;
+            int end = ConsoleNote.findNoteEnd(raw, next, to);
+            written = end < 0 ? to : end;
+            next = ConsoleNote.findPreamble(raw, written, to - written);
+        }
+        System.arraycopy(raw, written, line, lineLength, to - written);
+        lineLength += to - written;
+        if (lineLength > 0 && line[lineLength - 1] == '\r') {
+            lineLength--;
+        }
+    }
+
+    /**
+     * Processes the current line.
+     *
+     * @param complete false if the line goes on, in which case the next part is treated as the same line
+     */
+    private void line(boolean complete) throws IOException {
+        if (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted()) {
+            stopped = true;
+            return;
+        }
+        long number = lineNumber + 1;
+        if (matches()) {
+            if (lastWritten > 0 && number - context > lastWritten + 1) {
+                out.write("--\n");
+            }
+            for (long n = Math.max(Math.max(1, number - context), lastWritten + 1); n < number; n++) {
+                int slot = (int) (n % context);
+                write(n, '-', before[slot], beforeLengths[slot]);
+            }
+            write(number, ':', line, lineLength);
+            // let the client see matches as they come
+            out.flush();
+            contextAfter = context;
+            if (++matches >= maxMatches) {
+                stopped = true;
+            }
+        } else if (contextAfter > 0) {
+            write(number, '-', line, lineLength);
+            contextAfter--;
+        }
+        if (context > 0) {
+            int slot = (int) (number % context);
+            before[slot] = ensureCapacity(before[slot], lineLength);
+            System.arraycopy(line, 0, before[slot], 0, lineLength);
+            beforeLengths[slot] = lineLength;
+        }
+        if (complete) {
+            lineNumber = number;
+        }
+    }
+
+    private boolean matches() {
+        if (literalBytes != null) {
+            return indexOf(line, lineLength, literalBytes) >= 0;
+        }
+        String s = new String(line, 0, lineLength, charset);
+        if (pattern != null) {
+            try {
+                return pattern.matcher(new Bounded(s)).find();
+            } catch (TimeoutException x) {
+                return false;
+            }
+        }
+        return s.contains(literal);
+    }
+
+    private void write(long number, char separator, byte[] b, int len) throws IOException {
+        if (number == lastWritten) {
+            // a part of a long line already written
+            return;
+        }
+        out.write(Long.toString(number));
+        out.write(separator);
+        out.write(new String(b, 0, len, charset));
+        out.write('\n');
+        lastWritten = number;
+    }
+
+    private static int indexOf(byte[] b, int len, byte[] s) {
+        int e = len - s.length + 1;
+        OUTER:
+        for (int i = 0; i < e; i++) {
+            for (int j = 0; j < s.length; j++) {
+                if (b[i + j] != s[j]) {
+                    continue OUTER;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static byte[] append(byte[] dst, int dstLength, byte[] src, int from, int to) {
+        byte[] r = ensureCapacity(dst, dstLength + to - from);
+        if (r != dst) {
+            System.arraycopy(dst, 0, r, 0, dstLength);
+        }
+        System.arraycopy(src, from, r, dstLength, to - from);
+        return r;
+    }
+
+    private static byte[] ensureCapacity(@CheckForNull byte[] b, int len) {
+        if (b == null || b.length < len) {
+            return new byte[Math.max(len, b == null ? 256 : b.length * 2)];
+        }
+        return b;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiCompatible(Charset cs) {
+        return cs.equals(StandardCharsets.UTF_8) || cs.equals(StandardCharsets.US_ASCII) || cs.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Text which stops a regular expression match once the search is out of time,
+     * as some expressions can take very long to match a single line.
+     */
+    private final class Bounded implements CharSequence {
+        private final CharSequence s;
+
+        Bounded(CharSequence s) {
+            this.s = s;
+        }
+
+        @Override
+        public int length() {
+            return s.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            // count reads rather than look at the index: backtracking can read the same few characters forever
+            if ((++reads & 0xFFF) == 0 && System.nanoTime() - deadline > 0) {
+                stopped = true;
+                // ends the match: nothing can follow the end of the text
+                throw new TimeoutException();
+            }
+            return s.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Bounded(s.subSequence(start, end));
+        }
+
+        @Override
+        public String toString() {
+            return s.toString();
+        }
+    }
+
+    private static final class TimeoutException extends RuntimeException {
+        TimeoutException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Milliseconds a search may run for, as measured by the clock rather than in CPU time,
+     * so that time spent waiting to write the output counts as well.
+     */
+    public static /* non-final for Groovy */ long TIMEOUT = SystemProperties.getLong(ConsoleSearch.class.getName() + ".timeout", TimeUnit.SECONDS.toMillis(10));
+
+    /**
+     * Largest number of matches a search may ask for.
+     */
+    public static /* non-final for Groovy */ int MAX_MATCHES = SystemProperties.getInteger(ConsoleSearch.class.getName() + ".maxMatches", 1000);
+
+    /**
+     * Largest number of lines of context a search may ask for.
+     */
+    public static /* non-final for Groovy */ int MAX_CONTEXT = SystemProperties.getInteger(ConsoleSearch.class.getName() + ".maxContext", 10);
+
+    /**
+     * How much of an uncompressed log is read at once.
+     */
+    private static final int CHUNK = 1024 * 1024;
+}
@@ -39,6 +39,7 @@ import java.util.logging.Logger;
  * @author Kohsuke Kawaguchi
  * @since 1.395
  */
+@ImmutableNote
 public class ExpandableDetailsNote extends ConsoleNote {
     private final String caption;
     private final String html;
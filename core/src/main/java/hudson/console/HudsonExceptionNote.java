@@ -45,6 +45,7 @@ import org.jenkinsci.Symbol;
  *             {@code http://stacktrace.jenkins-ci.org/} service, which is dead now (JENKINS-42861).
  *             This console note does nothing right now.
  */
+@ImmutableNote
 @Deprecated
 public class HudsonExceptionNote extends ConsoleNote<Object> {
 
@@ -44,6 +44,7 @@ import java.util.logging.Logger;
  * @since 1.362
  * @see ModelHyperlinkNote
  */
+@ImmutableNote
 public class HyperlinkNote extends ConsoleNote {
     /**
      * If this starts with '/', it's interpreted as a path within the context path.
@@ -77,6 +78,14 @@ public class HyperlinkNote extends ConsoleNote {
         return "";
     }
 
+    String getUrl() {
+        return url;
+    }
+
+    int getLength() {
+        return length;
+    }
+
     public static String encodeTo(String url, String text) {
         return encodeTo(url, text, HyperlinkNote::new);
     }
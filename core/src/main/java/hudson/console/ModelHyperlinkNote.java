@@ -15,6 +15,7 @@ import javax.annotation.Nonnull;
  * @author Kohsuke Kawaguchi
  * @since 1.464
  */
+@ImmutableNote
 public class ModelHyperlinkNote extends HyperlinkNote {
     public ModelHyperlinkNote(String url, int length) {
         super(url, length);
@@ -24,8 +24,6 @@
 
 package hudson.console;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -60,14 +58,9 @@ public class PlainTextConsoleOutputStream extends LineTransformationOutputStream
                 assert next==written;
             }
 
-            int rest = sz - next;
-            ByteArrayInputStream b = new ByteArrayInputStream(in, next, rest);
-
-            ConsoleNote.skip(new DataInputStream(b));
-
-            int bytesUsed = rest - b.available(); // bytes consumed by annotations
-            written += bytesUsed;
-
+            // the note runs to its postamble; a note cut short hides the rest of the line
+            int end = ConsoleNote.findNoteEnd(in,next,sz);
+            written = end<0 ? sz : end;
 
             next = ConsoleNote.findPreamble(in,written,sz-written);
         }
@@ -31,6 +31,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.text.Collator;
 import java.util.ArrayList;
@@ -57,6 +58,7 @@ import jenkins.security.MasterToSlaveCallable;
 import jenkins.security.ResourceDomainConfiguration;
 import jenkins.security.ResourceDomainRootAction;
 import jenkins.util.SystemProperties;
+import jenkins.util.FileDownload;
 import jenkins.util.VirtualFile;
 import org.apache.commons.io.IOUtils;
 import org.apache.tools.zip.ZipEntry;
@@ -351,7 +353,7 @@ public final class DirectoryBrowserSupport implements HttpResponse {
             rsp.setHeader("Content-Disposition", "inline; filename=" + baseFile.getName());
 
             // pseudo file name to let the Stapler set text/plain
-            rsp.serveFile(req, baseFile.open(), lastModified, -1, length, "plain.txt");
+            sendFile(req, rsp, baseFile, lastModified, length, "plain.txt");
         } else {
             if (resourceToken != null) {
                 // redirect to second domain
@@ -367,11 +369,23 @@ public final class DirectoryBrowserSupport implements HttpResponse {
                         }
                     }
                 }
-                rsp.serveFile(req, baseFile.open(), lastModified, -1, length, baseFile.getName());
+                sendFile(req, rsp, baseFile, lastModified, length, baseFile.getName());
             }
         }
     }
 
+    /**
+     * Sends a file, through {@link FileDownload} if it is on the local disk.
+     */
+    private static void sendFile(StaplerRequest req, StaplerResponse rsp, VirtualFile file, long lastModified, long length, String fileName) throws IOException, ServletException {
+        FileChannel ch = file.openChannel();
+        if (ch != null) {
+            FileDownload.serve(req, rsp, ch, lastModified, fileName);
+        } else {
+            rsp.serveFile(req, file.open(), lastModified, -1, length, fileName);
+        }
+    }
+
     private List<List<Path>> keepReadabilityOnlyOnDescendants(VirtualFile root, boolean patternUsed, List<List<Path>> pathFragmentsList){
         Stream<List<Path>> pathFragmentsStream = pathFragmentsList.stream().map((List<Path> pathFragments) -> {
             List<Path> mappedFragments = new ArrayList<>(pathFragments.size());
@@ -46,17 +46,26 @@ import hudson.util.Iterators;
 import hudson.util.PersistedList;
 import hudson.util.RunList;
 import hudson.util.XStream2;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
+import jenkins.fingerprints.FileFingerprintStorage;
+import jenkins.fingerprints.FingerprintStorage;
 import jenkins.model.FingerprintFacet;
 import jenkins.model.Jenkins;
 import jenkins.model.TransientFingerprintFacetFactory;
 import org.apache.commons.lang.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -64,10 +73,12 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -881,10 +892,14 @@ public class Fingerprint implements ModelObject, Saveable {
     }
 
     Fingerprint(@CheckForNull BuildPtr original, @Nonnull String fileName, @Nonnull byte[] md5sum) {
+        this(original, fileName, md5sum, new Date());
+    }
+
+    private Fingerprint(@CheckForNull BuildPtr original, @Nonnull String fileName, @Nonnull byte[] md5sum, @Nonnull Date timestamp) {
         this.original = original;
         this.md5sum = md5sum;
         this.fileName = fileName;
-        this.timestamp = new Date();
+        this.timestamp = timestamp;
     }
 
     /**
@@ -1239,20 +1254,86 @@ public class Fingerprint implements ModelObject, Saveable {
      */
     public synchronized void save() throws IOException {
         if(BulkChange.contains(this))   return;
+        Set<Fingerprint> batch = BATCH.get();
+        if (batch != null) {
+            batch.add(this);
+            return;
+        }
 
         long start=0;
         if(logger.isLoggable(Level.FINE))
             start = System.currentTimeMillis();
 
-        File file = getFingerprintFile(md5sum);
-        save(file);
-        SaveableListener.fireOnChange(this, getConfigFile(file));
+        FingerprintStorage.get().save(this);
+        SaveableListener.fireOnChange(this, getConfigFile(getFingerprintFile(md5sum)));
 
         if(logger.isLoggable(Level.FINE))
-            logger.fine("Saving fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
+            logger.fine("Saving fingerprint "+getHashString()+" took "+(System.currentTimeMillis()-start)+"ms");
+    }
+
+    /**
+     * Defers saving fingerprints on this thread until the returned batch is closed,
+     * at which point all the fingerprints that were changed are saved in one go.
+     * This is much cheaper than saving each of many fingerprints as it changes.
+     * <pre>
+     * try (Fingerprint.Batch batch = Fingerprint.batch()) {
+     *     for (...) {
+     *         map.getOrCreate(...).addFor(build);
+     *     }
+     * }
+     * </pre>
+     * Batches may be nested, in which case the outermost one does the saving.
+     * @since TODO
+     */
+    public static @Nonnull Batch batch() {
+        if (BATCH.get() != null) {
+            return new Batch(null);
+        }
+        Set<Fingerprint> pending = Collections.newSetFromMap(new IdentityHashMap<>());
+        BATCH.set(pending);
+        return new Batch(pending);
     }
 
-    void save(File file) throws IOException {
+    /**
+     * @see #batch
+     * @since TODO
+     */
+    public static final class Batch implements AutoCloseable {
+        private final Set<Fingerprint> pending;
+
+        private Batch(Set<Fingerprint> pending) {
+            this.pending = pending;
+        }
+
+        /**
+         * Saves the fingerprints changed during this batch.
+         */
+        @Override
+        public void close() throws IOException {
+            if (pending == null) {
+                return;
+            }
+            BATCH.remove();
+            if (pending.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            FingerprintStorage.get().save(pending);
+            for (Fingerprint fp : pending) {
+                SaveableListener.fireOnChange(fp, getConfigFile(getFingerprintFile(fp.md5sum)));
+            }
+            logger.log(Level.FINE, "Saving {0} fingerprints took {1}ms", new Object[] {pending.size(), (System.nanoTime() - start) / 1_000_000});
+        }
+    }
+
+    private static final ThreadLocal<Set<Fingerprint>> BATCH = new ThreadLocal<>();
+
+    /**
+     * Saves this fingerprint as XML, as {@link FileFingerprintStorage} does.
+     * Synchronized like {@link #encode}, since a {@link Batch} saves fingerprints other threads may be changing.
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized void save(File file) throws IOException {
         if (facets.isEmpty()) {
             file.getParentFile().mkdirs();
             // JENKINS-16301: fast path for the common case.
@@ -1359,19 +1440,34 @@ public class Fingerprint implements ModelObject, Saveable {
      */
     private static @Nonnull File getFingerprintFile(@Nonnull byte[] md5sum) {
         assert md5sum.length==16;
+        return getFingerprintFile(Util.toHexString(md5sum));
+    }
+
+    /**
+     * Determines the XML file of a fingerprint, as used by {@link FileFingerprintStorage}.
+     */
+    @Restricted(NoExternalUse.class)
+    public static @Nonnull File getFingerprintFile(@Nonnull String id) {
         return new File( Jenkins.get().getRootDir(),
-            "fingerprints/"+ Util.toHexString(md5sum,0,1)+'/'+Util.toHexString(md5sum,1,1)+'/'+Util.toHexString(md5sum,2,md5sum.length-2)+".xml");
+            "fingerprints/"+ id.substring(0,2)+'/'+id.substring(2,4)+'/'+id.substring(4)+".xml");
     }
 
     /**
-     * Loads a {@link Fingerprint} from a file in the image.
-     * @return Loaded {@link Fingerprint}. Null if the config file does not exist or
+     * Loads a {@link Fingerprint} from the {@link FingerprintStorage}.
+     * @return Loaded {@link Fingerprint}. Null if there is no such record or it is
      * malformed.
      */
     /*package*/ static @CheckForNull Fingerprint load(@Nonnull byte[] md5sum) throws IOException {
-        return load(getFingerprintFile(md5sum));
+        return FingerprintStorage.get().load(Util.toHexString(md5sum));
     }
-    /*package*/ static @CheckForNull Fingerprint load(@Nonnull File file) throws IOException {
+
+    /**
+     * Loads a {@link Fingerprint} from an XML file, as written by {@link #save(File)}.
+     * @return Loaded {@link Fingerprint}. Null if the config file does not exist or
+     * malformed.
+     */
+    @Restricted(NoExternalUse.class)
+    public static @CheckForNull Fingerprint load(@Nonnull File file) throws IOException {
         XmlFile configFile = getConfigFile(file);
         if(!configFile.exists())
             return null;
@@ -1389,10 +1485,7 @@ public class Fingerprint implements ModelObject, Saveable {
             Fingerprint f = (Fingerprint) loaded;
             if(logger.isLoggable(Level.FINE))
                 logger.fine("Loading fingerprint "+file+" took "+(System.currentTimeMillis()-start)+"ms");
-            if (f.facets==null)
-                f.facets = new PersistedList<>(f);
-            for (FingerprintFacet facet : f.facets)
-                facet._setOwner(f);
+            f.initFacets();
             return f;
         } catch (IOException e) {
             if(file.exists() && file.length()==0) {
@@ -1416,6 +1509,108 @@ public class Fingerprint implements ModelObject, Saveable {
             throw e;
         }
     }
+    private void initFacets() {
+        if (facets==null)
+            facets = new PersistedList<>(this);
+        for (FingerprintFacet facet : facets)
+            facet._setOwner(this);
+    }
+
+    /**
+     * Encodes this fingerprint for a {@link FingerprintStorage} that does not keep XML files.
+     * Fingerprints with facets are written as XML, since only XStream knows how to persist those;
+     * others are written in a compact binary form, with build ranges as pairs of numbers, that can be read back without XStream.
+     * @see #decode
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized @Nonnull byte[] encode() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(128);
+        if (!facets.isEmpty()) {
+            buf.write(ENCODING_XML);
+            XSTREAM.toXMLUTF8(this, buf);
+            return buf.toByteArray();
+        }
+        DataOutputStream out = new DataOutputStream(buf);
+        out.write(ENCODING_BINARY);
+        out.write(md5sum);
+        out.writeLong(timestamp.getTime());
+        out.writeBoolean(original != null);
+        if (original != null) {
+            writeString(out, original.name);
+            out.writeInt(original.number);
+        }
+        writeString(out, fileName);
+        out.writeInt(usages.size());
+        for (Map.Entry<String,RangeSet> e : usages.entrySet()) {
+            writeString(out, e.getKey());
+            List<Range> ranges = e.getValue().getRanges();
+            out.writeInt(ranges.size());
+            for (Range r : ranges) {
+                out.writeInt(r.start);
+                out.writeInt(r.end);
+            }
+        }
+        out.flush();
+        return buf.toByteArray();
+    }
+
+    /**
+     * Reads back a fingerprint written by {@link #encode}.
+     */
+    @Restricted(NoExternalUse.class)
+    public static @Nonnull Fingerprint decode(@Nonnull byte[] data, int off, int len) throws IOException {
+        if (len > 0 && data[off] == ENCODING_XML) {
+            Object loaded;
+            try {
+                loaded = XSTREAM.fromXML(new ByteArrayInputStream(data, off + 1, len - 1));
+            } catch (RuntimeException x) {
+                throw new IOException("Malformed fingerprint", x);
+            }
+            if (!(loaded instanceof Fingerprint)) {
+                throw new IOException("Unexpected Fingerprint type. Expected " + Fingerprint.class + " or subclass but got "
+                        + (loaded != null ? loaded.getClass() : "null"));
+            }
+            Fingerprint f = (Fingerprint) loaded;
+            f.initFacets();
+            return f;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, off, len));
+        if (in.read() != ENCODING_BINARY) {
+            throw new IOException("Unknown fingerprint encoding");
+        }
+        byte[] md5sum = new byte[16];
+        in.readFully(md5sum);
+        Date timestamp = new Date(in.readLong());
+        BuildPtr original = in.readBoolean() ? new BuildPtr(readString(in), in.readInt()) : null;
+        Fingerprint f = new Fingerprint(original, readString(in), md5sum, timestamp);
+        for (int i = in.readInt(); i > 0; i--) {
+            String job = readString(in);
+            int count = in.readInt();
+            List<Range> ranges = new ArrayList<>(count);
+            for (int j = 0; j < count; j++) {
+                ranges.add(new Range(in.readInt(), in.readInt()));
+            }
+            f.usages.put(job, new RangeSet(ranges));
+        }
+        return f;
+    }
+
+    // unlike DataOutput.writeUTF, not limited to 64K
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] b = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static final int ENCODING_BINARY = 1;
+    private static final int ENCODING_XML = 2;
+
     private static String messageOfParseException(Throwable t) {
         if (t instanceof XmlPullParserException || t instanceof EOFException) {
             return t.getMessage();
@@ -27,6 +27,8 @@ import com.thoughtworks.xstream.converters.basic.DateConverter;
 import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Functions;
+import jenkins.fingerprints.FileFingerprintStorage;
+import jenkins.fingerprints.FingerprintStorage;
 import jenkins.model.FingerprintFacet;
 import jenkins.model.Jenkins;
 import org.jenkinsci.Symbol;
@@ -36,6 +38,7 @@ import org.kohsuke.accmod.restrictions.NoExternalUse;
 import java.io.File;
 import java.io.IOException;
 import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
 
 /**
  * Scans the fingerprint database and remove old records
@@ -92,9 +95,46 @@ public class FingerprintCleanupThread extends AsyncPeriodicWork {
             }
         }
 
+        // other storages keep their records elsewhere, though they may still read XML files as above
+        FingerprintStorage storage = getStorage();
+        if (storage != null && !(storage instanceof FileFingerprintStorage)) {
+            try {
+                for (String id : storage.getIds()) {
+                    if (check(storage, id, listener))
+                        numFiles++;
+                }
+            } catch (IOException e) {
+                Functions.printStackTrace(e, listener.error("Failed to list fingerprints"));
+            }
+        }
+
         listener.getLogger().println("Cleaned up "+numFiles+" records");
     }
 
+    /**
+     * Examines a record of the storage and returns true if it was deleted or trimmed.
+     */
+    private boolean check(FingerprintStorage storage, String id, TaskListener listener) {
+        try {
+            Fingerprint fp = storage.load(id);
+            if (fp == null || (!fp.isAlive() && fp.getFacetBlockingDeletion() == null) ) {
+                listener.getLogger().println("deleting obsolete fingerprint " + id);
+                storage.delete(id);
+                return true;
+            } else {
+                if (!fp.isAlive()) {
+                    FingerprintFacet deletionBlockerFacet = fp.getFacetBlockingDeletion();
+                    listener.getLogger().println(deletionBlockerFacet.getClass().getName() + " created on " + DATE_CONVERTER.toString(deletionBlockerFacet.getTimestamp()) + " blocked deletion of fingerprint " + id);
+                }
+                fp = getFingerprint(fp);
+                return fp.trim();
+            }
+        } catch (IOException e) {
+            Functions.printStackTrace(e, listener.error("Failed to process fingerprint " + id));
+            return false;
+        }
+    }
+
     /**
      * Deletes a directory if it's empty.
      */
@@ -143,4 +183,11 @@ public class FingerprintCleanupThread extends AsyncPeriodicWork {
         return Jenkins.get().getRootDir();
     }
 
+    /**
+     * @return null when not running in Jenkins
+     */
+    protected @CheckForNull FingerprintStorage getStorage() {
+        return Jenkins.getInstanceOrNull() == null ? null : FingerprintStorage.get();
+    }
+
 }
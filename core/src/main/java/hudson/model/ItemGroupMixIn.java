@@ -23,18 +23,25 @@
  */
 package hudson.model;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import hudson.Util;
 import hudson.XmlFile;
 import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.security.AccessControlled;
 import hudson.util.CopyOnWriteMap;
+import hudson.util.DaemonThreadFactory;
 import hudson.util.Function1;
+import hudson.util.NamingThreadFactory;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import jenkins.util.xml.XMLUtils;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
+import javax.annotation.CheckForNull;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.transform.TransformerException;
@@ -47,11 +54,20 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import jenkins.security.NotReallyRoleSensitiveCallable;
 import org.acegisecurity.AccessDeniedException;
+import org.acegisecurity.Authentication;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.xml.sax.SAXException;
 
 /**
@@ -106,31 +122,121 @@ public abstract class ItemGroupMixIn {
                 return child.isDirectory();
             }
         });
+        long start = System.currentTimeMillis();
+        Object[] items = new Object[subdirs.length];
+        loadChildren(parent, subdirs, items);
+
+        // regardless of the order in which children got loaded, add them in the order of the directory listing
         CopyOnWriteMap.Tree<K,V> configurations = new CopyOnWriteMap.Tree<>();
-        for (File subdir : subdirs) {
+        for (int i = 0; i < subdirs.length; i++) {
+            V item = (V) items[i];
+            if (item == null) {
+                continue;
+            }
             try {
-                // Try to retain the identity of an existing child object if we can.
-                V item = (V) parent.getItem(subdir.getName());
-                if (item == null) {
-                    XmlFile xmlFile = Items.getConfigFile(subdir);
-                    if (xmlFile.exists()) {
-                        item = (V) Items.load(parent, subdir);
-                    } else {
-                        Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not find file " + xmlFile.getFile());
-                        continue;
-                    }
-                } else {
-                    item.onLoad(parent, subdir.getName());
-                }
                 configurations.put(key.call(item), item);
             } catch (Exception e) {
-                Logger.getLogger(ItemGroupMixIn.class.getName()).log(Level.WARNING, "could not load " + subdir, e);
+                LOGGER.log(Level.WARNING, "could not load " + subdirs[i], e);
             }
         }
+        LOGGER.log(Level.FINE, "Loaded {0} of {1} children of {2} in {3}ms",
+                new Object[] {configurations.size(), subdirs.length, parent.getFullName(), System.currentTimeMillis() - start});
 
         return configurations;
     }
 
+    /**
+     * Loads the children in the given directories into {@code items}, in parallel if there are several of them.
+     *
+     * <p>
+     * The calling thread takes part in the loading, and pooled threads only help with children nobody took yet,
+     * so nested {@link ItemGroup}s loading their own children from pooled threads can never exhaust the pool.
+     */
+    private static void loadChildren(final ItemGroup parent, final File[] subdirs, final Object[] items) {
+        int helpers = Jenkins.PARALLEL_LOAD ? Math.min(LOAD_CHILDREN_THREADS, subdirs.length - 1) : 0;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(subdirs.length);
+        final Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < subdirs.length) {
+                try {
+                    items[i] = loadChild(parent, subdirs[i]);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+
+        if (helpers > 0) {
+            final Authentication auth = Jenkins.getAuthentication();
+            final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            ExecutorService pool = getLoadChildrenPool();
+            for (int h = 0; h < helpers; h++) {
+                pool.execute(() -> {
+                    Thread t = Thread.currentThread();
+                    ClassLoader orig = t.getContextClassLoader();
+                    t.setContextClassLoader(contextClassLoader);
+                    try (ACLContext ctx = ACL.as(auth)) {
+                        worker.run();
+                    } finally {
+                        t.setContextClassLoader(orig);
+                    }
+                });
+            }
+        }
+        worker.run();
+        // wait for the children that helpers are still loading
+        Uninterruptibles.awaitUninterruptibly(done);
+    }
+
+    /**
+     * Loads one child, or reloads it if it already exists.
+     *
+     * @return null if it could not be loaded
+     */
+    private static @CheckForNull Item loadChild(ItemGroup parent, File subdir) {
+        try {
+            // Try to retain the identity of an existing child object if we can.
+            Item item = parent.getItem(subdir.getName());
+            if (item == null) {
+                XmlFile xmlFile = Items.getConfigFile(subdir);
+                if (xmlFile.exists()) {
+                    item = Items.load(parent, subdir);
+                } else {
+                    LOGGER.log(Level.WARNING, "could not find file " + xmlFile.getFile());
+                    return null;
+                }
+            } else {
+                item.onLoad(parent, subdir.getName());
+            }
+            return item;
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "could not load " + subdir, e);
+            return null;
+        }
+    }
+
+    private static synchronized ExecutorService getLoadChildrenPool() {
+        if (loadChildrenPool == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(LOAD_CHILDREN_THREADS, LOAD_CHILDREN_THREADS,
+                    5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "ItemGroupMixIn.loadChildren"));
+            pool.allowCoreThreadTimeOut(true);
+            loadChildrenPool = pool;
+        }
+        return loadChildrenPool;
+    }
+
+    private static ExecutorService loadChildrenPool;
+
+    /**
+     * Number of pooled threads helping a thread that loads the children of an {@link ItemGroup}, such as a folder.
+     * Has no effect unless {@link Jenkins#PARALLEL_LOAD} is set.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ int LOAD_CHILDREN_THREADS = SystemProperties.getInteger(ItemGroupMixIn.class.getName() + ".loadChildrenThreads",
+            Runtime.getRuntime().availableProcessors());
+
     /**
      * {@link Item} → name function.
      */
@@ -324,4 +430,5 @@ public abstract class ItemGroupMixIn {
         return item;
     }
 
+    private static final Logger LOGGER = Logger.getLogger(ItemGroupMixIn.class.getName());
 }
@@ -89,6 +89,7 @@ import jenkins.model.ModelObjectWithChildren;
 import jenkins.model.ProjectNamingStrategy;
 import jenkins.model.RunIdMigrator;
 import jenkins.model.lazy.LazyBuildMixIn;
+import jenkins.model.lazy.RunSummary;
 import jenkins.scm.RunWithSCM;
 import jenkins.security.HexStringConfidentialKey;
 import jenkins.triggers.SCMTriggerItem;
@@ -739,6 +740,27 @@ public abstract class Job<JobT extends Job<JobT, RunT>, RunT extends Run<JobT, R
         return getBuilds().limit(100);
     }
 
+    /**
+     * Gets a summary of each build, newest first.
+     * Unlike {@link #getBuilds()} this does not usually need to load the builds,
+     * so it is the better choice to list many of them,
+     * for example with {@code api/json?tree=buildSummaries[number,result,duration]}.
+     *
+     * @since TODO
+     */
+    @Exported(visibility=-2)
+    public List<RunSummary> getBuildSummaries() {
+        SortedMap<Integer, ? extends RunT> runs = _getRuns();
+        if (runs instanceof RunMap) {
+            return ((RunMap<?>) runs).getSummaries(Integer.MAX_VALUE);
+        }
+        List<RunSummary> summaries = new ArrayList<>();
+        for (RunT r : getBuilds()) {
+            summaries.add(RunSummary.of(r));
+        }
+        return summaries;
+    }
+
     /**
      * Obtains all the {@link Run}s whose build numbers matches the given {@link RangeSet}.
      */
@@ -24,6 +24,7 @@
 package hudson.model;
 
 import jenkins.model.PeepholePermalink;
+import jenkins.model.lazy.RunSummary;
 
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -120,6 +121,11 @@ public interface PermalinkProjectAction extends Action {
             public boolean apply(Run<?, ?> run) {
                 return !run.isBuilding() && run.getResult()==Result.SUCCESS;
             }
+
+            @Override
+            protected boolean couldApply(RunSummary entry) {
+                return entry.isBuilding() || entry.getResult()==Result.SUCCESS;
+            }
         };
         public static final Permalink LAST_SUCCESSFUL_BUILD = new PeepholePermalink() {
             public String getDisplayName() {
@@ -134,6 +140,11 @@ public interface PermalinkProjectAction extends Action {
             public boolean apply(Run<?, ?> run) {
                 return !run.isBuilding() && run.getResult().isBetterOrEqualTo(Result.UNSTABLE);
             }
+
+            @Override
+            protected boolean couldApply(RunSummary entry) {
+                return entry.isBuilding() || entry.getResult() != null && entry.getResult().isBetterOrEqualTo(Result.UNSTABLE);
+            }
         };
         public static final Permalink LAST_FAILED_BUILD = new PeepholePermalink() {
             public String getDisplayName() {
@@ -148,6 +159,11 @@ public interface PermalinkProjectAction extends Action {
             public boolean apply(Run<?, ?> run) {
                 return !run.isBuilding() && run.getResult()==Result.FAILURE;
             }
+
+            @Override
+            protected boolean couldApply(RunSummary entry) {
+                return entry.isBuilding() || entry.getResult()==Result.FAILURE;
+            }
         };
 
         public static final Permalink LAST_UNSTABLE_BUILD = new PeepholePermalink() {
@@ -163,6 +179,11 @@ public interface PermalinkProjectAction extends Action {
             public boolean apply(Run<?, ?> run) {
                 return !run.isBuilding() && run.getResult()==Result.UNSTABLE;
             }
+
+            @Override
+            protected boolean couldApply(RunSummary entry) {
+                return entry.isBuilding() || entry.getResult()==Result.UNSTABLE;
+            }
         };
 
         public static final Permalink LAST_UNSUCCESSFUL_BUILD = new PeepholePermalink() {
@@ -178,6 +199,11 @@ public interface PermalinkProjectAction extends Action {
             public boolean apply(Run<?, ?> run) {
                 return !run.isBuilding() && run.getResult()!=Result.SUCCESS;
             }
+
+            @Override
+            protected boolean couldApply(RunSummary entry) {
+                return entry.isBuilding() || entry.getResult()!=Result.SUCCESS;
+            }
         };
         public static final Permalink LAST_COMPLETED_BUILD = new PeepholePermalink() {
             public String getDisplayName() {
@@ -27,6 +27,7 @@ package hudson.model;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
 import com.infradna.tool.bridge_method_injector.WithBridgeMethods;
 import hudson.BulkChange;
 import hudson.Extension;
@@ -44,6 +45,7 @@ import hudson.model.labels.LabelAssignmentAction;
 import hudson.model.queue.AbstractQueueTask;
 import hudson.model.queue.Executables;
 import hudson.model.queue.QueueListener;
+import hudson.model.queue.QueueMetrics;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.model.queue.ScheduleResult;
 import hudson.model.queue.ScheduleResult.Created;
@@ -92,7 +94,6 @@ import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -102,9 +103,12 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -238,8 +242,14 @@ public class Queue extends ResourceController implements Saveable {
          */
         private WorkUnit workUnit;
 
-        private JobOffer(Executor executor) {
+        /**
+         * Where to record the cost of {@link QueueTaskDispatcher}s, if anywhere.
+         */
+        private final @CheckForNull QueueMetrics metrics;
+
+        private JobOffer(Executor executor, @CheckForNull QueueMetrics metrics) {
             this.executor = executor;
+            this.metrics = metrics;
         }
 
         @Override
@@ -279,6 +289,7 @@ public class Queue extends ResourceController implements Saveable {
                 return reason;
             }
             for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+                long start = System.nanoTime();
                 try {
                     reason = d.canTake(node, item);
                 } catch (Throwable t) {
@@ -286,6 +297,9 @@ public class Queue extends ResourceController implements Saveable {
                     LOGGER.log(Level.WARNING, t, () -> String.format("Exception evaluating if the node '%s' can take the task '%s'", node.getNodeName(), item.task.getName()));
                     reason = CauseOfBlockage.fromMessage(Messages._Queue_ExceptionCanTake());
                 }
+                if (metrics != null) {
+                    metrics.recordDispatcher(d, System.nanoTime() - start, reason != null);
+                }
 
                 if (reason != null) {
                     return reason;
@@ -326,6 +340,55 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Index of the {@link JobOffer}s collected by a single {@link #maintain()} call by the {@link Label} they can serve,
+     * so that matching each buildable item does not require asking every parked executor.
+     *
+     * <p>
+     * Only the checks {@link Node#canTake(BuildableItem)} starts with are applied here, i.e. label membership
+     * (itself cached by {@link Label#getNodes()} and reset whenever nodes change) and {@link Mode#EXCLUSIVE}.
+     * The remaining checks are still done by {@link JobOffer#getCauseOfBlockage(BuildableItem)}.
+     */
+    private static final class JobOfferIndex {
+        private final Collection<JobOffer> offers;
+        private final Map<Label, List<JobOffer>> byLabel = new HashMap<>();
+        private List<JobOffer> unlabeled;
+
+        JobOfferIndex(Collection<JobOffer> offers) {
+            this.offers = offers;
+        }
+
+        /**
+         * Gets the offers that may be able to take the given item.
+         */
+        Collection<JobOffer> candidatesFor(BuildableItem item) {
+            if (!LABEL_INDEXED_OFFERS) {
+                return offers;
+            }
+            Label label = item.getAssignedLabel();
+            if (label == null) {
+                if (unlabeled == null) {
+                    unlabeled = filter(null);
+                }
+                return unlabeled;
+            }
+            return byLabel.computeIfAbsent(label, this::filter);
+        }
+
+        private List<JobOffer> filter(@CheckForNull Label label) {
+            List<JobOffer> r = new ArrayList<>();
+            for (JobOffer o : offers) {
+                Node n = o.getNode();
+                if (n == null) {
+                    r.add(o); // let getCauseOfBlockage report the removed node
+                } else if (label == null ? n.getMode() == Mode.NORMAL : label.contains(n)) {
+                    r.add(o);
+                }
+            }
+            return r;
+        }
+    }
+
     private volatile transient LoadBalancer loadBalancer;
 
     private volatile transient QueueSorter sorter;
@@ -347,6 +410,35 @@ public class Queue extends ResourceController implements Saveable {
 
     private transient final Condition condition = lock.newCondition();
 
+    /**
+     * Set whenever something that can affect the scheduling has happened (see {@link #scheduleMaintenance()}),
+     * and consumed by {@link #maintain()}. Only consulted when {@link #INCREMENTAL_MAINTENANCE} is enabled.
+     */
+    private transient final AtomicBoolean maintenanceRequested = new AtomicBoolean(true);
+
+    private transient final QueueMetrics metrics = new QueueMetrics();
+
+    /**
+     * Serializes concurrent {@link #save()} calls, which do not hold {@link #lock} while writing.
+     */
+    private transient final Object saveLock = new Object();
+
+    /**
+     * Incremented under {@link #lock} for every state serialized by {@link #save()}.
+     */
+    private transient long saveSequence;
+
+    /**
+     * The {@link #saveSequence} of the state last written to disk, guarded by {@link #saveLock}.
+     */
+    private transient long savedSequence;
+
+    /**
+     * {@link System#nanoTime()} of the last maintenance that re-evaluated every item in the queue.
+     */
+    @GuardedBy("lock")
+    private transient long lastFullMaintenance;
+
     public Queue(@Nonnull LoadBalancer loadBalancer) {
         this.loadBalancer =  loadBalancer.sanitize();
         // if all the executors are busy doing something, then the queue won't be maintained in
@@ -363,6 +455,17 @@ public class Queue extends ResourceController implements Saveable {
         this.loadBalancer = loadBalancer.sanitize();
     }
 
+    /**
+     * Gets the timings of the queue scheduling, for diagnosing why items stay in the queue.
+     * Available at {@code /queue/metrics/api/json}.
+     *
+     * @since TODO
+     */
+    public QueueMetrics getMetrics() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        return metrics;
+    }
+
     public QueueSorter getSorter() {
         return sorter;
     }
@@ -476,26 +579,50 @@ public class Queue extends ResourceController implements Saveable {
         }
 
         XmlFile queueFile = new XmlFile(XSTREAM, getXMLQueueFile());
+        // actions of queued items are changed in place under the lock (see FoldableAction), so the queue
+        // goes through XStream with the lock held; only the slower disk write happens without it
+        String xml;
+        long sequence;
         lock.lock();
         try {
+            Snapshot s = this.snapshot;
+
             // write out the queue state we want to save
             State state = new State();
+            // read after the snapshot, so that the counter is never behind the IDs of the items we write
             state.counter = WaitingItem.COUNTER.longValue();
 
-            // write out the tasks on the queue
-            for (Item item: getItems()) {
+            // write out the tasks on the queue, in the order of getItems() but regardless of the permissions
+            // of the current thread
+            List<Item> items = new ArrayList<>(s.waitingList);
+            items.addAll(s.blockedProjects);
+            items.addAll(Lists.reverse(s.buildables));
+            items.addAll(Lists.reverse(s.pendings));
+            for (Item item : items) {
                 if(item.task instanceof TransientTask)  continue;
                 state.items.add(item);
             }
 
-            try {
-                queueFile.write(state);
-            } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Failed to write out the queue file " + getXMLQueueFile(), e);
-            }
+            xml = queueFile.toXML(state);
+            sequence = ++saveSequence;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to write out the queue file " + getXMLQueueFile(), e);
+            return;
         } finally {
             lock.unlock();
         }
+
+        synchronized (saveLock) {
+            // a concurrent save may already have written a newer state
+            if (sequence > savedSequence) {
+                try {
+                    queueFile.writeRaw(xml);
+                    savedSequence = sequence;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to write out the queue file " + getXMLQueueFile(), e);
+                }
+            }
+        }
         SaveableListener.fireOnChange(this, queueFile);
     }
 
@@ -593,11 +720,12 @@ public class Queue extends ResourceController implements Saveable {
         actions = new ArrayList<>(actions);
         actions.removeIf(Objects::isNull);
 
+        long waitStart = System.nanoTime();
         lock.lock();
+        metrics.recordScheduleLockWait(System.nanoTime() - waitStart);
         try { try {
-            for (QueueDecisionHandler h : QueueDecisionHandler.all())
-                if (!h.shouldSchedule(p, actions))
-                    return ScheduleResult.refused();    // veto
+            if (!shouldSchedule(p, actions))
+                return ScheduleResult.refused();    // veto
 
             return scheduleInternal(p, quietPeriod, actions);
         } finally { updateSnapshot(); } } finally {
@@ -605,6 +733,56 @@ public class Queue extends ResourceController implements Saveable {
         }
     }
 
+    /**
+     * Schedules executions of many tasks at once, for example when a single event triggers many jobs.
+     *
+     * <p>
+     * This behaves like calling {@link #schedule2(Task, int, List)} for each task, except that all of them
+     * enter the queue in a single critical section, so the queue lock is taken and the snapshot
+     * used by {@link #getItems()} is rebuilt only once for the whole batch.
+     * Persisting the queue is already coalesced by {@link Saver}.
+     *
+     * @param tasks
+     *      The tasks to schedule, each with the actions to associate with it as in {@link #schedule2(Task, int, List)}.
+     * @param quietPeriod
+     *      The quiet period applied to every task.
+     * @return
+     *      The result of scheduling each task, in the iteration order of {@code tasks}.
+     * @since TODO
+     */
+    public @Nonnull List<ScheduleResult> schedule2(@Nonnull Map<? extends Task, ? extends List<Action>> tasks, int quietPeriod) {
+        List<ScheduleResult> results = new ArrayList<>(tasks.size());
+        long waitStart = System.nanoTime();
+        lock.lock();
+        metrics.recordScheduleLockWait(System.nanoTime() - waitStart);
+        try { try {
+            for (Map.Entry<? extends Task, ? extends List<Action>> e : tasks.entrySet()) {
+                // remove nulls
+                List<Action> a = new ArrayList<>(e.getValue());
+                a.removeIf(Objects::isNull);
+                if (shouldSchedule(e.getKey(), a)) {
+                    results.add(scheduleInternal(e.getKey(), quietPeriod, a));
+                } else {
+                    results.add(ScheduleResult.refused());    // veto
+                }
+            }
+        } finally { updateSnapshot(); } } finally {
+            lock.unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Asks {@link QueueDecisionHandler}s whether the task should be scheduled.
+     * Called with the lock held, since handlers may look at the queue, for example to deduplicate.
+     */
+    private static boolean shouldSchedule(Task p, List<Action> actions) {
+        for (QueueDecisionHandler h : QueueDecisionHandler.all())
+            if (!h.shouldSchedule(p, actions))
+                return false;
+        return true;
+    }
+
     /**
      * Schedules an execution of a task.
      *
@@ -618,71 +796,67 @@ public class Queue extends ResourceController implements Saveable {
      *
      *      That said, one can still look at {@link WaitingItem#future}, {@link WaitingItem#getId()}, etc.
      */
+    @GuardedBy("lock")
     private @Nonnull ScheduleResult scheduleInternal(Task p, int quietPeriod, List<Action> actions) {
-        lock.lock();
-        try { try {
-            Calendar due = new GregorianCalendar();
-            due.add(Calendar.SECOND, quietPeriod);
-
-            // Do we already have this task in the queue? Because if so, we won't schedule a new one.
-            List<Item> duplicatesInQueue = new ArrayList<>();
-            for (Item item : liveGetItems(p)) {
-                boolean shouldScheduleItem = false;
-                for (QueueAction action : item.getActions(QueueAction.class)) {
-                    shouldScheduleItem |= action.shouldSchedule(actions);
-                }
-                for (QueueAction action : Util.filter(actions, QueueAction.class)) {
-                    shouldScheduleItem |= action.shouldSchedule((new ArrayList<>(item.getAllActions())));
-                }
-                if (!shouldScheduleItem) {
-                    duplicatesInQueue.add(item);
-                }
+        Calendar due = new GregorianCalendar();
+        due.add(Calendar.SECOND, quietPeriod);
+
+        // Do we already have this task in the queue? Because if so, we won't schedule a new one.
+        List<Item> duplicatesInQueue = new ArrayList<>();
+        for (Item item : liveGetItems(p)) {
+            boolean shouldScheduleItem = false;
+            for (QueueAction action : item.getActions(QueueAction.class)) {
+                shouldScheduleItem |= action.shouldSchedule(actions);
             }
-            if (duplicatesInQueue.isEmpty()) {
-                LOGGER.log(Level.FINE, "{0} added to queue", p);
-
-                // put the item in the queue
-                WaitingItem added = new WaitingItem(due, p, actions);
-                added.enter(this);
-                scheduleMaintenance();   // let an executor know that a new item is in the queue.
-                return ScheduleResult.created(added);
+            for (QueueAction action : Util.filter(actions, QueueAction.class)) {
+                shouldScheduleItem |= action.shouldSchedule((new ArrayList<>(item.getAllActions())));
             }
+            if (!shouldScheduleItem) {
+                duplicatesInQueue.add(item);
+            }
+        }
+        if (duplicatesInQueue.isEmpty()) {
+            LOGGER.log(Level.FINE, "{0} added to queue", p);
+
+            // put the item in the queue
+            WaitingItem added = new WaitingItem(due, p, actions);
+            added.enter(this);
+            scheduleMaintenance();   // let an executor know that a new item is in the queue.
+            return ScheduleResult.created(added);
+        }
 
-            LOGGER.log(Level.FINE, "{0} is already in the queue", p);
+        LOGGER.log(Level.FINE, "{0} is already in the queue", p);
 
-            // but let the actions affect the existing stuff.
-            for (Item item : duplicatesInQueue) {
-                for (FoldableAction a : Util.filter(actions, FoldableAction.class)) {
-                    a.foldIntoExisting(item, p, actions);
-                    if (LOGGER.isLoggable(Level.FINE)) {
-                        LOGGER.log(Level.FINE, "after folding {0}, {1} includes {2}", new Object[] {a, item, item.getAllActions()});
-                    }
+        // but let the actions affect the existing stuff.
+        for (Item item : duplicatesInQueue) {
+            for (FoldableAction a : Util.filter(actions, FoldableAction.class)) {
+                a.foldIntoExisting(item, p, actions);
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "after folding {0}, {1} includes {2}", new Object[] {a, item, item.getAllActions()});
                 }
             }
+        }
 
-            boolean queueUpdated = false;
-            for (WaitingItem wi : Util.filter(duplicatesInQueue, WaitingItem.class)) {
-                // make sure to always use the shorter of the available due times
-                if (wi.timestamp.before(due))
-                    continue;
+        boolean queueUpdated = false;
+        for (WaitingItem wi : Util.filter(duplicatesInQueue, WaitingItem.class)) {
+            // make sure to always use the shorter of the available due times
+            if (wi.timestamp.before(due))
+                continue;
 
-                // waitingList is sorted, so when we change a timestamp we need to maintain order
-                wi.leave(this);
-                wi.timestamp = due;
-                wi.enter(this);
-                queueUpdated = true;
-            }
+            // waitingList is sorted, so when we change a timestamp we need to maintain order
+            wi.leave(this);
+            wi.timestamp = due;
+            wi.enter(this);
+            queueUpdated = true;
+        }
 
-            if (queueUpdated) scheduleMaintenance();
+        if (queueUpdated) scheduleMaintenance();
 
-            // REVISIT: when there are multiple existing items in the queue that matches the incoming one,
-            // whether the new one should affect all existing ones or not is debatable. I for myself
-            // thought this would only affect one, so the code was bit of surprise, but I'm keeping the current
-            // behaviour.
-            return ScheduleResult.existing(duplicatesInQueue.get(0));
-        } finally { updateSnapshot(); } } finally {
-            lock.unlock();
-        }
+        // REVISIT: when there are multiple existing items in the queue that matches the incoming one,
+        // whether the new one should affect all existing ones or not is debatable. I for myself
+        // thought this would only affect one, so the code was bit of surprise, but I'm keeping the current
+        // behaviour.
+        return ScheduleResult.existing(duplicatesInQueue.get(0));
     }
 
 
@@ -1170,6 +1344,7 @@ public class Queue extends ResourceController implements Saveable {
         try { try {
             final WorkUnit wu = exec.getCurrentWorkUnit();
             pendings.remove(wu.context.item);
+            metrics.recordStart(wu.context.item.getInQueueSince(), wu.context.item.buildableStartMilliseconds);
 
             LeftItem li = new LeftItem(wu.context);
             li.enter(this);
@@ -1189,9 +1364,24 @@ public class Queue extends ResourceController implements Saveable {
     @WithBridgeMethods(void.class)
     public Future<?> scheduleMaintenance() {
         // LOGGER.info("Scheduling maintenance");
+        maintenanceRequested.set(true);
         return maintainerThread.submit();
     }
 
+    /**
+     * Decides whether the current {@link #maintain()} call needs to re-evaluate every blocked and buildable item,
+     * or whether it can restrict itself to the items affected by changes since the last call.
+     */
+    @GuardedBy("lock")
+    private boolean isFullMaintenanceDue() {
+        boolean requested = maintenanceRequested.getAndSet(false);
+        if (!INCREMENTAL_MAINTENANCE || requested) {
+            return true;
+        }
+        // dispatchers and tasks may change their mind without telling us, so do not trust the change tracking forever
+        return System.nanoTime() - lastFullMaintenance >= TimeUnit.MILLISECONDS.toNanos(FULL_MAINTENANCE_INTERVAL);
+    }
+
     /**
      * Checks if the given item should be prevented from entering into the {@link #buildables} state
      * and instead stay in the {@link #blockedProjects} state.
@@ -1206,6 +1396,7 @@ public class Queue extends ResourceController implements Saveable {
         }
 
         for (QueueTaskDispatcher d : QueueTaskDispatcher.all()) {
+            long start = System.nanoTime();
             try {
                 causeOfBlockage = d.canRun(i);
             } catch (Throwable t) {
@@ -1213,6 +1404,7 @@ public class Queue extends ResourceController implements Saveable {
                 LOGGER.log(Level.WARNING, t, () -> String.format("Exception evaluating if the queue can run the task '%s'", i.task.getName()));
                 causeOfBlockage = CauseOfBlockage.fromMessage(Messages._Queue_ExceptionCanRun());
             }
+            metrics.recordDispatcher(d, System.nanoTime() - start, causeOfBlockage != null);
             if (causeOfBlockage != null)
                 return causeOfBlockage;
         }
@@ -1478,11 +1670,21 @@ public class Queue extends ResourceController implements Saveable {
         if (jenkins == null) {
             return;
         }
+        long waitStart = System.nanoTime();
         lock.lock();
+        long lockStart = System.nanoTime();
         try { try {
 
             LOGGER.log(Level.FINE, "Queue maintenance started on {0} with {1}", new Object[] {this, snapshot});
 
+            // unless something changed since the last maintenance, blocked and buildable items are not re-evaluated
+            final boolean fullMaintenance = isFullMaintenanceDue();
+            if (fullMaintenance) {
+                lastFullMaintenance = System.nanoTime();
+            }
+            // whether any item moved into buildables during this maintenance
+            boolean buildablesChanged = false;
+
             // The executors that are currently waiting for a job to run.
             Map<Executor, JobOffer> parked = new HashMap<>();
 
@@ -1502,7 +1704,7 @@ public class Queue extends ResourceController implements Saveable {
                         }
                         if (e.isParking()) {
                             LOGGER.log(Level.FINEST, "{0} is parking and is waiting for a job to execute.", e.getDisplayName());
-                            parked.put(e, new JobOffer(e));
+                            parked.put(e, new JobOffer(e, metrics));
                         }
                         final WorkUnit workUnit = e.getCurrentWorkUnit();
                         if (workUnit != null) {
@@ -1525,7 +1727,7 @@ public class Queue extends ResourceController implements Saveable {
 
             final QueueSorter s = sorter;
 
-            {// blocked -> buildable
+            if (fullMaintenance) {// blocked -> buildable
                 // copy as we'll mutate the list and we want to process in a potentially different order
                 List<BlockedItem> blockedItems = new ArrayList<>(blockedProjects.values());
                 // if facing a cycle of blocked tasks, ensure we process in the desired sort order
@@ -1548,6 +1750,7 @@ public class Queue extends ResourceController implements Saveable {
                         if (r != null) {
                             p.leave(this);
                             r.run();
+                            buildablesChanged = true;
                             // JENKINS-28926 we have removed a task from the blocked projects and added to building
                             // thus we should update the snapshot so that subsequent blocked projects can correctly
                             // determine if they are blocked by the lucky winner
@@ -1577,6 +1780,7 @@ public class Queue extends ResourceController implements Saveable {
                     if (r != null) {
                         LOGGER.log(Level.FINEST, "Executing runnable {0}", topTaskDisplayName);
                         r.run();
+                        buildablesChanged = true;
                     } else {
                         LOGGER.log(Level.FINEST, "Item {0} was unable to be made a buildable and is now a blocked item.", topTaskDisplayName);
                         new BlockedItem(top, CauseOfBlockage.fromMessage(Messages._Queue_HudsonIsAboutToShutDown())).enter(this);
@@ -1588,9 +1792,18 @@ public class Queue extends ResourceController implements Saveable {
                 }
             }
 
+            if (!fullMaintenance && !buildablesChanged) {
+                LOGGER.log(Level.FINE, "Nothing changed since the last queue maintenance, not re-evaluating {0} buildable items", buildables.size());
+                return;
+            }
+
             if (s != null) {
                 try {
-                    s.sortBuildableItems(buildables);
+                    // sort a copy so that the sorter cannot bypass the per-task counts of ItemList
+                    List<BuildableItem> sorted = new ArrayList<>(buildables);
+                    s.sortBuildableItems(sorted);
+                    buildables.clear();
+                    buildables.addAll(sorted);
                 } catch (Throwable e) {
                     // We don't really care if the sort doesn't sort anything, we still should
                     // continue to do our job. We'll complain about it and continue.
@@ -1600,7 +1813,9 @@ public class Queue extends ResourceController implements Saveable {
             
             // Ensure that identification of blocked tasks is using the live state: JENKINS-27708 & JENKINS-27871
             updateSnapshot();
-            
+
+            JobOfferIndex offerIndex = new JobOfferIndex(parked.values());
+
             // allocate buildable jobs to executors
             for (BuildableItem p : new ArrayList<>(
                     buildables)) {// copy as we'll mutate the list in the loop
@@ -1628,9 +1843,10 @@ public class Queue extends ResourceController implements Saveable {
                     }
                 } else {
 
-                    List<JobOffer> candidates = new ArrayList<>(parked.size());
-                    List<CauseOfBlockage> reasons = new ArrayList<>(parked.size());
-                    for (JobOffer j : parked.values()) {
+                    Collection<JobOffer> offers = offerIndex.candidatesFor(p);
+                    List<JobOffer> candidates = new ArrayList<>(offers.size());
+                    List<CauseOfBlockage> reasons = new ArrayList<>(offers.size());
+                    for (JobOffer j : offers) {
                         CauseOfBlockage reason = j.getCauseOfBlockage(p);
                         if (reason == null) {
                             LOGGER.log(Level.FINEST,
@@ -1683,6 +1899,7 @@ public class Queue extends ResourceController implements Saveable {
             }
         } finally { updateSnapshot(); } } finally {
             lock.unlock();
+            metrics.recordMaintenance(lockStart - waitStart, System.nanoTime() - lockStart);
         }
     }
 
@@ -2809,6 +3026,30 @@ public class Queue extends ResourceController implements Saveable {
 
     private static final Logger LOGGER = Logger.getLogger(Queue.class.getName());
 
+    /**
+     * If true, {@link #maintain()} only re-evaluates blocked and buildable items when something that can affect the
+     * scheduling has changed since the last maintenance (see {@link #scheduleMaintenance()}), rather than on every
+     * call. Items that only became due in the waiting list are still processed on every call.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ boolean INCREMENTAL_MAINTENANCE = SystemProperties.getBoolean(Queue.class.getName() + ".incrementalMaintenance");
+
+    /**
+     * Upper bound in milliseconds on the time between two maintenances re-evaluating every item, when
+     * {@link #INCREMENTAL_MAINTENANCE} is enabled. {@link QueueTaskDispatcher}s and {@link Task#getCauseOfBlockage()}
+     * may change their verdict without notifying the queue, so this bounds how stale such a verdict can get.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ long FULL_MAINTENANCE_INTERVAL = SystemProperties.getLong(Queue.class.getName() + ".fullMaintenanceInterval", TimeUnit.SECONDS.toMillis(30));
+
+    /**
+     * If true, {@link #maintain()} only asks the parked executors whose node is in the assigned {@link Label} of
+     * a buildable item whether they can take it. Set to false if some {@link Node} implementation accepts
+     * tasks outside of its labels by overriding {@link Node#canTake(BuildableItem)}.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ boolean LABEL_INDEXED_OFFERS = SystemProperties.getBoolean(Queue.class.getName() + ".labelIndexedOffers", true);
+
     /**
      * This {@link XStream} instance is used to persist {@link Task}s.
      */
@@ -2912,7 +3153,128 @@ public class Queue extends ResourceController implements Saveable {
      * {@link ArrayList} of {@link Item} with more convenience methods.
      */
     private class ItemList<T extends Item> extends ArrayList<T> {
+        /**
+         * Number of items in this list per {@link Task}, so that lookups by task, which {@link #maintain()} does
+         * for every blocked item, do not scan the whole list when the task is not in it.
+         */
+        private final Map<Task, Integer> taskCounts = new HashMap<>();
+
+        @Override
+        public boolean add(T item) {
+            super.add(item);
+            taskCounts.merge(item.task, 1, Integer::sum);
+            return true;
+        }
+
+        @Override
+        public void add(int index, T item) {
+            super.add(index, item);
+            taskCounts.merge(item.task, 1, Integer::sum);
+        }
+
+        @Override
+        public boolean addAll(Collection<? extends T> items) {
+            for (T item : items) {
+                add(item);
+            }
+            return !items.isEmpty();
+        }
+
+        @Override
+        public boolean addAll(int index, Collection<? extends T> items) {
+            boolean r = super.addAll(index, items);
+            for (T item : items) {
+                taskCounts.merge(item.task, 1, Integer::sum);
+            }
+            return r;
+        }
+
+        @Override
+        public T set(int index, T item) {
+            T old = super.set(index, item);
+            uncount(old.task);
+            taskCounts.merge(item.task, 1, Integer::sum);
+            return old;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean r = super.remove(o);
+            if (r) {
+                uncount(((Item) o).task);
+            }
+            return r;
+        }
+
+        @Override
+        public T remove(int index) {
+            T item = super.remove(index);
+            uncount(item.task);
+            return item;
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super T> filter) {
+            return recount(super.removeIf(filter));
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            return recount(super.removeAll(c));
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            return recount(super.retainAll(c));
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            super.removeRange(fromIndex, toIndex);
+            recount(true);
+        }
+
+        @Override
+        public void replaceAll(UnaryOperator<T> operator) {
+            super.replaceAll(operator);
+            recount(true);
+        }
+
+        /**
+         * Read-only, since changes through a view would bypass {@link #taskCounts}.
+         */
+        @Override
+        public List<T> subList(int fromIndex, int toIndex) {
+            return Collections.unmodifiableList(super.subList(fromIndex, toIndex));
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            taskCounts.clear();
+        }
+
+        private void uncount(Task task) {
+            taskCounts.computeIfPresent(task, (t, n) -> n == 1 ? null : n - 1);
+        }
+
+        /**
+         * Rebuilds {@link #taskCounts} after a bulk removal that {@link ArrayList} does not route through {@link #remove(int)}.
+         */
+        private boolean recount(boolean changed) {
+            if (changed) {
+                taskCounts.clear();
+                for (T item : this) {
+                    taskCounts.merge(item.task, 1, Integer::sum);
+                }
+            }
+            return changed;
+        }
+
     	public T get(Task task) {
+    		if (!taskCounts.containsKey(task)) {
+    			return null;
+    		}
     		for (T item: this) {
     			if (item.task.equals(task)) {
     				return item;
@@ -2923,6 +3285,9 @@ public class Queue extends ResourceController implements Saveable {
 
     	public List<T> getAll(Task task) {
     		List<T> result = new ArrayList<>();
+    		if (!taskCounts.containsKey(task)) {
+    			return result;
+    		}
     		for (T item: this) {
     			if (item.task.equals(task)) {
     				result.add(item);
@@ -2936,15 +3301,11 @@ public class Queue extends ResourceController implements Saveable {
     	}
 
     	public T remove(Task task) {
-    		Iterator<T> it = iterator();
-    		while (it.hasNext()) {
-    			T t = it.next();
-    			if (t.task.equals(task)) {
-    				it.remove();
-    				return t;
-    			}
+    		T t = get(task);
+    		if (t != null) {
+    			remove(t);
     		}
-    		return null;
+    		return t;
     	}
 
     	public void put(Task task, T item) {
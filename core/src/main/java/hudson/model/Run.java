@@ -37,10 +37,15 @@ import hudson.ExtensionPoint;
 import hudson.FeedAdapter;
 import hudson.Functions;
 import hudson.console.AnnotatedLargeText;
+import hudson.console.BlockCompressedLog;
+import hudson.console.ConsoleLineIndex;
 import hudson.console.ConsoleLogFilter;
+import hudson.console.ConsoleSearch;
 import hudson.console.ConsoleNote;
 import hudson.console.ModelHyperlinkNote;
 import hudson.console.PlainTextConsoleOutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.StandardOpenOption;
@@ -65,19 +70,23 @@ import hudson.util.LogTaskListener;
 import hudson.util.ProcessTree;
 import hudson.util.XStream2;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.lang.UnsupportedOperationException;
 import java.lang.SecurityException;
 import java.io.Serializable;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardCopyOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -107,6 +116,8 @@ import javax.servlet.http.HttpServletResponse;
 import jenkins.model.ArtifactManager;
 import jenkins.model.ArtifactManagerConfiguration;
 import jenkins.model.ArtifactManagerFactory;
+import jenkins.model.ArtifactStore;
+import jenkins.model.BuildDirectoryRemover;
 import jenkins.model.BuildDiscarder;
 import jenkins.model.Jenkins;
 import jenkins.model.JenkinsLocationConfiguration;
@@ -166,6 +177,15 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     private static /* non-final for Groovy */ int TRUNCATED_DESCRIPTION_LIMIT = SystemProperties.getInteger("historyWidget.descriptionLimit", 100);
 
+    /**
+     * Whether new builds write their log compressed, as {@code log.gz} in the format of {@link BlockCompressedLog}.
+     * Code reading {@link #getLogFile} directly rather than through {@link #getLogInputStream} or {@link #getLogText}
+     * needs to cope with such logs.
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ boolean COMPRESS_LOG = SystemProperties.getBoolean(Run.class.getName() + ".compressLog");
+
     protected transient final @Nonnull JobT project;
 
     /**
@@ -1502,6 +1522,10 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @since 1.349
      */
     public @Nonnull InputStream getLogInputStream() throws IOException {
+        BlockCompressedLog blocks = openBlockCompressedLog();
+        if (blocks != null) {
+            return blocks.open(0);
+        }
     	File logFile = getLogFile();
     	
     	if (logFile.exists() ) {
@@ -1564,9 +1588,37 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      * @return A {@link Run} log with annotations
      */   
     public @Nonnull AnnotatedLargeText getLogText() {
+        try {
+            BlockCompressedLog blocks = openBlockCompressedLog();
+            if (blocks != null) {
+                return new AnnotatedLargeText(blocks.asByteBuffer(), getCharset(), !isLogUpdated(), this);
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to read the log of " + this, x);
+        }
         return new AnnotatedLargeText(getLogFile(),getCharset(),!isLogUpdated(),this);
     }
 
+    /**
+     * Opens the log if it is a {@link BlockCompressedLog}, which needs to be read through it.
+     *
+     * @return null if the log is in some other format
+     */
+    private @CheckForNull BlockCompressedLog openBlockCompressedLog() throws IOException {
+        File logFile = getLogFile();
+        if (logFile.getName().equals("log.gz") && BlockCompressedLog.isBlockCompressed(logFile)) {
+            return BlockCompressedLog.open(logFile, getLogBlocksFile());
+        }
+        return null;
+    }
+
+    /**
+     * The table of blocks of a {@link BlockCompressedLog}.
+     */
+    private @Nonnull File getLogBlocksFile() {
+        return new File(getRootDir(), "log-blocks");
+    }
+
     @Override
     protected @Nonnull SearchIndexBuilder makeSearchIndex() {
         SearchIndexBuilder builder = super.makeSearchIndex()
@@ -1634,9 +1686,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         if (artifactManager != null) {
             deleteArtifacts();
         } // for StandardArtifactManager, deleting the whole build dir suffices
+        // other than releasing files it shared with other builds, once they are gone
+        Set<String> sharedArtifacts = artifactManager == null ? ArtifactStore.digestsOf(rootDir) : Collections.emptySet();
         
         synchronized (this) { // avoid holding a lock while calling plugin impls of onDeleted
-            File tmp = new File(rootDir.getParentFile(),'.'+rootDir.getName());
+            File tmp = BuildDirectoryRemover.tombstoneFor(rootDir);
             
             if (tmp.exists()) {
                 Util.deleteRecursive(tmp);
@@ -1651,12 +1705,8 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
                 throw new IOException(rootDir + " is in use");
             }
             
-            Util.deleteRecursive(tmp);
-            // some user reported that they see some left-over .xyz files in the workspace,
-            // so just to make sure we've really deleted it, schedule the deletion on VM exit, too.
-            if (tmp.exists()) {
-                tmp.deleteOnExit();
-            }
+            // the build is gone as far as anyone can tell; its files may be removed in the background
+            BuildDirectoryRemover.remove(tmp, sharedArtifacts);
             LOGGER.log(FINE, "{0}: {1} successfully deleted", new Object[] {this, rootDir});
             removeRunFromParent();
         }
@@ -1962,7 +2012,14 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         // gets reflected to the file immediately, which can then be
         // served to the browser immediately
         try {
-            return Files.newOutputStream(getLogFile().toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            File logFile = getLogFile();
+            if (logFile.getName().equals("log.gz") ? BlockCompressedLog.isBlockCompressed(logFile) : COMPRESS_LOG && !logFile.exists()) {
+                File gzFile = new File(getRootDir(), "log.gz");
+                OutputStream out = BlockCompressedLog.write(gzFile, getLogBlocksFile());
+                return ConsoleLineIndex.record(out, BlockCompressedLog.open(gzFile, getLogBlocksFile()).length(), getLogLineIndexFile());
+            }
+            OutputStream out = Files.newOutputStream(logFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            return ConsoleLineIndex.record(out, logFile.length(), getLogLineIndexFile());
         } catch (InvalidPathException e) {
             throw new IOException(e);
         }
@@ -2077,6 +2134,11 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
      */
     @Deprecated
     public @Nonnull String getLog() throws IOException {
+        if (openBlockCompressedLog() != null) {
+            try (Reader r = getLogReader()) {
+                return IOUtils.toString(r);
+            }
+        }
         return Util.loadFile(getLogFile(),getCharset());
     }
 
@@ -2099,6 +2161,21 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
         final List<String> lastLines = new ArrayList<>(Math.min(maxLines, 128));
         final List<Byte> bytes = new ArrayList<>();
 
+        BlockCompressedLog blocks = openBlockCompressedLog();
+        if (blocks != null) {
+            long offset = blocks.findTail(maxLines);
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(blocks.open(offset), getCharset()))) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    lastLines.add(line);
+                }
+            }
+            if (offset > 0 && !lastLines.isEmpty()) {
+                lastLines.set(0, "[...truncated " + Functions.humanReadableByteSize(offset) + "...]");
+            }
+            return ConsoleNote.removeNotes(lastLines);
+        }
+
         try (RandomAccessFile fileHandler = new RandomAccessFile(getLogFile(), "r")) {
             long fileLength = fileHandler.length() - 1;
 
@@ -2265,16 +2342,137 @@ public abstract class Run <JobT extends Job<JobT,RunT>,RunT extends Run<JobT,Run
 
     /**
      * Sends out the raw console output.
+     *
+     * <p>
+     * Either {@code tail=N} to only send the last N lines,
+     * or {@code start=M} and {@code end=N} to only send lines M to N, counting from 1, may be given.
      */
     public void doConsoleText(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String tail = req.getParameter("tail");
+        String start = req.getParameter("start");
+        String end = req.getParameter("end");
+        long first, count;
+        try {
+            if (tail != null) {
+                count = Long.parseLong(tail);
+                first = -1;
+            } else {
+                first = start == null ? 0 : Long.parseLong(start) - 1;
+                count = end == null ? Long.MAX_VALUE : Long.parseLong(end) - first;
+            }
+        } catch (NumberFormatException e) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (count < 0 || (tail == null && first < 0)) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid range of lines");
+            return;
+        }
+
         rsp.setContentType("text/plain;charset=UTF-8");
-        try (InputStream input = getLogInputStream();
-             OutputStream os = rsp.getCompressedOutputStream(req);
+        try (OutputStream os = rsp.getCompressedOutputStream(req);
              PlainTextConsoleOutputStream out = new PlainTextConsoleOutputStream(os)) {
-            IOUtils.copy(input, out);
+            if (tail == null && start == null && end == null) {
+                try (InputStream input = getLogInputStream()) {
+                    IOUtils.copy(input, out);
+                }
+            } else {
+                writeLogLinesTo(first, count, out);
+            }
         }
     }
 
+    /**
+     * Searches the console output, sending out the matching lines as {@link ConsoleSearch} does.
+     *
+     * <p>
+     * Takes the string to look for as {@code q}, and optionally
+     * {@code regex=true} to treat it as a regular expression,
+     * {@code context=N} to also send N lines before and after each match,
+     * and {@code max=N} to stop after N matches, 100 by default.
+     *
+     * @since TODO
+     */
+    public void doConsoleSearch(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        String q = req.getParameter("q");
+        String context = req.getParameter("context");
+        String max = req.getParameter("max");
+        if (q == null || q.isEmpty()) {
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Nothing to search for");
+            return;
+        }
+        ConsoleSearch search;
+        try {
+            search = new ConsoleSearch(q, Boolean.parseBoolean(req.getParameter("regex")),
+                    context == null ? 0 : Integer.parseInt(context),
+                    Math.min(max == null ? 100 : Integer.parseInt(max), ConsoleSearch.MAX_MATCHES), getCharset());
+        } catch (IllegalArgumentException e) { // including NumberFormatException and PatternSyntaxException
+            rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        try (Writer w = new OutputStreamWriter(rsp.getCompressedOutputStream(req), StandardCharsets.UTF_8)) {
+            File logFile = getLogFile();
+            if (logFile.getName().equals("log") && logFile.isFile()) {
+                search.search(logFile, w);
+            } else {
+                try (InputStream input = getLogInputStream()) {
+                    search.search(input, w);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes some lines of the log, seeking directly to them unless the log was compressed as a whole.
+     *
+     * @param first the first line, counting from 0, or -1 for the last {@code count} lines
+     */
+    private void writeLogLinesTo(long first, long count, OutputStream out) throws IOException {
+        File logFile = getLogFile();
+        BlockCompressedLog blocks = openBlockCompressedLog();
+        if (blocks != null) {
+            long offset;
+            long skip = 0;
+            if (first < 0) {
+                offset = blocks.findTail(count);
+            } else {
+                long[] entry = ConsoleLineIndex.floorEntry(getLogLineIndexFile(), first, blocks.length());
+                offset = entry[1];
+                skip = first - entry[0];
+            }
+            try (InputStream input = blocks.open(offset)) {
+                ConsoleLineIndex.copyLines(input, skip, count, out);
+            }
+        } else if (logFile.getName().equals("log") && logFile.isFile()) {
+            long offset = first < 0 ? ConsoleLineIndex.findTail(logFile, count) : ConsoleLineIndex.findLine(logFile, getLogLineIndexFile(), first);
+            if (offset < 0) {
+                return;
+            }
+            try (FileChannel ch = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+                ch.position(offset);
+                ConsoleLineIndex.copyLines(Channels.newInputStream(ch), 0, count, out);
+            }
+        } else {
+            if (first < 0) {
+                try (InputStream input = getLogInputStream()) {
+                    first = Math.max(0, ConsoleLineIndex.countLines(input) - count);
+                }
+            }
+            try (InputStream input = getLogInputStream()) {
+                ConsoleLineIndex.copyLines(input, first, count, out);
+            }
+        }
+    }
+
+    /**
+     * The line index of the log file, see {@link ConsoleLineIndex}.
+     */
+    private @Nonnull File getLogLineIndexFile() {
+        return new File(getRootDir(), "log-lines");
+    }
+
     /**
      * Handles incremental log output.
      * @deprecated as of 1.352
@@ -38,6 +38,7 @@ import java.util.logging.Logger;
 import jenkins.model.RunIdMigrator;
 import jenkins.model.lazy.AbstractLazyLoadRunMap;
 import static jenkins.model.lazy.AbstractLazyLoadRunMap.Direction.*;
+import jenkins.model.lazy.BuildIndex;
 import jenkins.model.lazy.BuildReference;
 import jenkins.model.lazy.LazyBuildMixIn;
 import org.apache.commons.collections.comparators.ReverseComparator;
@@ -177,6 +178,11 @@ public final class RunMap<R extends Run<?,R>> extends AbstractLazyLoadRunMap<R>
         return r.getId();
     }
 
+    @Override
+    protected boolean isIndexed() {
+        return BuildIndex.ENABLED;
+    }
+
     /**
      * Add a <em>new</em> build to the map.
      * Do not use when loading existing builds (use {@link #put(Integer, Object)}).
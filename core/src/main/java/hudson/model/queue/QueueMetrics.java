@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.model.queue;
+
+import hudson.model.Api;
+import hudson.model.Queue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import jenkins.security.stapler.StaplerAccessibleType;
+import jenkins.util.Histogram;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * Timings of the {@link Queue} scheduling, available at {@code /queue/metrics/api/json}.
+ *
+ * <p>
+ * Durations of operations done with the queue lock held are in microseconds,
+ * and the time items spend in the queue is in milliseconds.
+ *
+ * @see Queue#getMetrics()
+ * @since TODO
+ */
+@ExportedBean
+@StaplerAccessibleType
+public final class QueueMetrics {
+
+    private final Histogram maintenance = new Histogram();
+    private final Histogram maintenanceLockWait = new Histogram();
+    private final Histogram scheduleLockWait = new Histogram();
+    private final Histogram waiting = new Histogram();
+    private final Histogram buildable = new Histogram();
+    private final ConcurrentMap<String, DispatcherMetrics> dispatchers = new ConcurrentHashMap<>();
+
+    /**
+     * Time {@link Queue#maintain()} held the queue lock, in microseconds.
+     */
+    @Exported
+    public Histogram getMaintenance() {
+        return maintenance;
+    }
+
+    /**
+     * Time {@link Queue#maintain()} waited for the queue lock, in microseconds.
+     */
+    @Exported
+    public Histogram getMaintenanceLockWait() {
+        return maintenanceLockWait;
+    }
+
+    /**
+     * Time {@link Queue#schedule2} waited for the queue lock, in microseconds.
+     */
+    @Exported
+    public Histogram getScheduleLockWait() {
+        return scheduleLockWait;
+    }
+
+    /**
+     * Time items that started executing spent waiting for their quiet period, in milliseconds.
+     */
+    @Exported
+    public Histogram getWaiting() {
+        return waiting;
+    }
+
+    /**
+     * Time items that started executing spent blocked or buildable, in milliseconds.
+     */
+    @Exported
+    public Histogram getBuildable() {
+        return buildable;
+    }
+
+    /**
+     * Cost of each {@link QueueTaskDispatcher}, slowest first.
+     */
+    @Exported(inline = true)
+    public List<DispatcherMetrics> getDispatchers() {
+        List<DispatcherMetrics> r = new ArrayList<>(dispatchers.values());
+        r.sort((a, b) -> Long.compare(b.time.getTotal(), a.time.getTotal()));
+        return r;
+    }
+
+    public Api getApi() {
+        return new Api(this);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        maintenance.reset();
+        maintenanceLockWait.reset();
+        scheduleLockWait.reset();
+        waiting.reset();
+        buildable.reset();
+        dispatchers.clear();
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void recordMaintenance(long lockWaitNanos, long lockHeldNanos) {
+        maintenanceLockWait.record(TimeUnit.NANOSECONDS.toMicros(lockWaitNanos));
+        maintenance.record(TimeUnit.NANOSECONDS.toMicros(lockHeldNanos));
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void recordScheduleLockWait(long lockWaitNanos) {
+        scheduleLockWait.record(TimeUnit.NANOSECONDS.toMicros(lockWaitNanos));
+    }
+
+    /**
+     * Records the time an item spent in the queue before it started executing.
+     *
+     * @param inQueueSince see {@link Queue.Item#getInQueueSince()}
+     * @param buildableSince see {@link Queue.NotWaitingItem#buildableStartMilliseconds}
+     */
+    @Restricted(NoExternalUse.class)
+    public void recordStart(long inQueueSince, long buildableSince) {
+        waiting.record(buildableSince - inQueueSince);
+        buildable.record(System.currentTimeMillis() - buildableSince);
+    }
+
+    @Restricted(NoExternalUse.class)
+    public void recordDispatcher(QueueTaskDispatcher d, long nanos, boolean vetoed) {
+        String name = d.getClass().getName();
+        DispatcherMetrics m = dispatchers.get(name);
+        if (m == null) {
+            m = dispatchers.computeIfAbsent(name, DispatcherMetrics::new);
+        }
+        m.time.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        if (vetoed) {
+            m.vetoes.increment();
+        }
+    }
+
+    /**
+     * Cost of one {@link QueueTaskDispatcher}, covering both {@link QueueTaskDispatcher#canRun}
+     * and {@link QueueTaskDispatcher#canTake}.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static final class DispatcherMetrics {
+        private final String name;
+        private final Histogram time = new Histogram();
+        private final LongAdder vetoes = new LongAdder();
+
+        DispatcherMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Class name of the dispatcher.
+         */
+        @Exported
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Time spent per call, in microseconds.
+         */
+        @Exported
+        public Histogram getTime() {
+            return time;
+        }
+
+        /**
+         * Number of calls that returned a {@link CauseOfBlockage}.
+         */
+        @Exported
+        public long getVetoes() {
+            return vetoes.sum();
+        }
+    }
+}
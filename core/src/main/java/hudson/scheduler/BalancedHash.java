@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntToLongFunction;
+import javax.annotation.CheckForNull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * {@link Hash} that places the minute of {@code H} where the fewest other crontabs already fire,
+ * instead of wherever the seed says.
+ *
+ * <p>
+ * The seeded hash is still drawn from for every field, so other fields come out as they would without balancing,
+ * and it decides ties, so that jobs keep spreading the same way when the load is even.
+ * The choices made are available from {@link #getPicks()} so that they can be kept stable later on.
+ *
+ * @see CronTabList#getMinuteLoad()
+ */
+@Restricted(NoExternalUse.class)
+public final class BalancedHash extends Hash {
+
+    private final Hash seeded;
+    private final int[] load;
+    private final int[] previous;
+    private final List<Integer> picks = new ArrayList<>();
+
+    /**
+     * @param seeded the hash to fall back to
+     * @param load how many times a day each minute of the hour is already used
+     * @param previous the picks made last time, to be made again where they still fit
+     */
+    public BalancedHash(Hash seeded, int[] load, @CheckForNull int[] previous) {
+        this.seeded = seeded;
+        this.load = load;
+        this.previous = previous;
+    }
+
+    @Override
+    public int next(int n) {
+        return seeded.next(n);
+    }
+
+    @Override
+    int next(int n, int field, IntToLongFunction bits) {
+        int preferred = seeded.next(n);
+        if (field != 0) {
+            return preferred;
+        }
+        int k = picks.size();
+        int pick = preferred;
+        if (previous != null && k < previous.length && previous[k] >= 0 && previous[k] < n) {
+            pick = previous[k];
+        } else {
+            long best = cost(bits.applyAsLong(preferred));
+            for (int i = 1; i < n && best > 0; i++) {
+                int candidate = (preferred + i) % n;
+                long cost = cost(bits.applyAsLong(candidate));
+                if (cost < best) {
+                    best = cost;
+                    pick = candidate;
+                }
+            }
+        }
+        picks.add(pick);
+        return pick;
+    }
+
+    /**
+     * Ranks a set of minutes by their busiest minute first, then by their total load.
+     */
+    private long cost(long minutes) {
+        long max = 0, sum = 0;
+        for (int m = 0; m < 60; m++) {
+            if ((minutes & (1L << m)) != 0) {
+                max = Math.max(max, load[m]);
+                sum += load[m];
+            }
+        }
+        return (max << 32) + sum;
+    }
+
+    /**
+     * The choices made for minute fields so far, in the order they were asked for.
+     */
+    public int[] getPicks() {
+        int[] r = new int[picks.size()];
+        for (int i = 0; i < r.length; i++) {
+            r[i] = picks.get(i);
+        }
+        return r;
+    }
+}
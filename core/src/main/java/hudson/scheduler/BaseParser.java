@@ -107,10 +107,7 @@ abstract class BaseParser extends LLkParser {
             error(Messages.BaseParser_OutOfRange(step, 1, e - s + 1));
             throw new AssertionError();
         } else if (step > 1) {
-            long bits = 0;
-            for (int i = hash.next(step) + s; i <= e; i += step) {
-                bits |= 1L << i;
-            }
+            long bits = steps(hash.next(step, field, i -> steps(i + s, e, step)) + s, e, step);
             assert bits != 0;
             return bits;
         } else if (step <=0) {
@@ -119,9 +116,17 @@ abstract class BaseParser extends LLkParser {
         } else {
             assert step==NO_STEP;
             // step=1 (i.e. omitted) in the case of hash is actually special; means pick one value, not step by 1
-            return 1L << (s+hash.next(e+1-s));
+            return 1L << (s+hash.next(e+1-s, field, i -> 1L << (s+i)));
         }
     }
+
+    private static long steps(int start, int end, int step) {
+        long bits = 0;
+        for (int i = start; i <= end; i += step) {
+            bits |= 1L << i;
+        }
+        return bits;
+    }
     
     protected void rangeCheck(int value, int field) throws ANTLRException {
         if( value<LOWER_BOUNDS[field] || UPPER_BOUNDS[field]<value ) {
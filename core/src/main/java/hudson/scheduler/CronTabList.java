@@ -152,5 +152,50 @@ public final class CronTabList {
         return nearest;
     }
     
+    /**
+     * Finds the earliest time at or after the given one that this list matches.
+     * @return null if no entry matches within the next two years
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized @CheckForNull Calendar ceil(long t) {
+        Calendar nearest = null;
+        for (CronTab tab : tabs) {
+            Calendar cal = tab.getTimeZone() == null ? Calendar.getInstance() : Calendar.getInstance(tab.getTimeZone());
+            cal.setTimeInMillis(t);
+            try {
+                Calendar scheduled = tab.ceil(cal);
+                if (nearest == null || nearest.after(scheduled)) {
+                    nearest = scheduled;
+                }
+            } catch (RareOrImpossibleDateException x) {
+                // never, as far as we are concerned
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Counts how many times a day this list matches each minute of the hour, in the default time zone.
+     * Days of the month and of the week are not taken into account.
+     */
+    @Restricted(NoExternalUse.class)
+    public synchronized int[] getMinuteLoad() {
+        int[] load = new int[60];
+        for (CronTab tab : tabs) {
+            int shift = 0;
+            if (tab.getTimeZone() != null) {
+                // only matters for time zones off by a fraction of an hour
+                shift = (int) ((tab.getTimeZone().getRawOffset() - TimeZone.getDefault().getRawOffset()) / 60000L);
+            }
+            int hours = Long.bitCount(tab.bits[1]);
+            for (int m = 0; m < 60; m++) {
+                if ((tab.bits[0] & (1L << m)) != 0) {
+                    load[Math.floorMod(m - shift, 60)] += hours;
+                }
+            }
+        }
+        return load;
+    }
+
     private static final Logger LOGGER = Logger.getLogger(CronTabList.class.getName());
 }
@@ -29,6 +29,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Random;
+import java.util.function.IntToLongFunction;
 
 /**
  * Generates a pseudo-random sequence of integers in the specified range.
@@ -54,6 +55,18 @@ public abstract class Hash {
      */
     public abstract int next(int n);
 
+    /**
+     * Produces an integer in [0,n) to place a field of a crontab.
+     *
+     * @param field
+     *      the field being placed, as in {@link CronTab#bits}
+     * @param bits
+     *      the values of the field that each choice would result in
+     */
+    /*package*/ int next(int n, int field, IntToLongFunction bits) {
+        return next(n);
+    }
+
     public static Hash from(String seed) {
         try {
             MessageDigest md5 = getMd5();
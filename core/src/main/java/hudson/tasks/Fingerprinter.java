@@ -47,7 +47,10 @@ import hudson.model.Result;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.remoting.VirtualChannel;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.ExceptionCatchingThreadFactory;
 import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
 import hudson.util.PackedMap;
 import hudson.util.RunList;
 import net.sf.json.JSONObject;
@@ -74,6 +77,12 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import jenkins.model.RunAction2;
@@ -288,37 +297,73 @@ public class Fingerprinter extends Recorder implements Serializable, DependencyD
             src.setCaseSensitive(caseSensitive);
 
             DirectoryScanner ds = src.getDirectoryScanner();
-            for( String f : ds.getIncludedFiles() ) {
-                File file = new File(baseDir,f);
-
-                // consider the file to be produced by this build only if the timestamp
-                // is newer than when the build has started.
-                // 2000ms is an error margin since since VFAT only retains timestamp at 2sec precision
-                boolean produced = buildTimestamp <= file.lastModified()+2000;
-
-                try {
-                    results.add(new Record(produced,f,file.getName(),new FilePath(file).digest()));
-                } catch (IOException e) {
-                    throw new IOException(Messages.Fingerprinter_DigestFailed(file),e);
-                } catch (InterruptedException e) {
-                    throw new IOException(Messages.Fingerprinter_Aborted(),e);
+            String[] files = ds.getIncludedFiles();
+            // digests are computed on several threads, as this is typically bound by CPU for many files
+            List<Future<Record>> futures = new ArrayList<>(files.length);
+            for (String f : files) {
+                futures.add(DIGESTER.submit(() -> {
+                    File file = new File(baseDir,f);
+
+                    // consider the file to be produced by this build only if the timestamp
+                    // is newer than when the build has started.
+                    // 2000ms is an error margin since since VFAT only retains timestamp at 2sec precision
+                    boolean produced = buildTimestamp <= file.lastModified()+2000;
+
+                    try {
+                        return new Record(produced,f,file.getName(),Util.getDigestOf(file));
+                    } catch (IOException e) {
+                        throw new IOException(Messages.Fingerprinter_DigestFailed(file),e);
+                    }
+                }));
+            }
+            try {
+                for (Future<Record> future : futures) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(Messages.Fingerprinter_Aborted(),e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } finally {
+                for (Future<Record> future : futures) {
+                    future.cancel(true);
                 }
             }
 
             return results;
         }
 
+        /**
+         * Computes digests on the agent, on as many threads as it has processors.
+         */
+        private static final ExecutorService DIGESTER;
+        static {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                threads, threads, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ExceptionCatchingThreadFactory(new NamingThreadFactory(new DaemonThreadFactory(), "Fingerprinter.digest")));
+            pool.allowCoreThreadTimeOut(true);
+            DIGESTER = pool;
+        }
+
     }
 
     private void record(Run<?,?> build, FilePath ws, TaskListener listener, Map<String,String> record, final String targets) throws IOException, InterruptedException {
-        for (Record r : ws.act(new FindRecords(targets, excludes, defaultExcludes, caseSensitive, build.getTimeInMillis()))) {
-            Fingerprint fp = r.addRecord(build);
-            if(fp==null) {
-                listener.error(Messages.Fingerprinter_FailedFor(r.relativePath));
-                continue;
+        List<Record> records = ws.act(new FindRecords(targets, excludes, defaultExcludes, caseSensitive, build.getTimeInMillis()));
+        // each fingerprint is saved once at the end rather than as it is created and updated
+        try (Fingerprint.Batch batch = Fingerprint.batch()) {
+            for (Record r : records) {
+                Fingerprint fp = r.addRecord(build);
+                if(fp==null) {
+                    listener.error(Messages.Fingerprinter_FailedFor(r.relativePath));
+                    continue;
+                }
+                fp.addFor(build);
+                record.put(r.relativePath,fp.getHashString());
             }
-            fp.addFor(build);
-            record.put(r.relativePath,fp.getHashString());
         }
     }
 
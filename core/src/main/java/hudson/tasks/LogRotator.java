@@ -42,13 +42,13 @@ import org.kohsuke.stapler.DataBoundConstructor;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Lists;
 
 import hudson.Extension;
 import hudson.model.Job;
 import hudson.model.Run;
 import jenkins.model.BuildDiscarder;
 import jenkins.model.BuildDiscarderDescriptor;
+import jenkins.model.lazy.RunSummary;
 import jenkins.util.io.CompositeIOException;
 
 /**
@@ -152,13 +152,10 @@ public class LogRotator extends BuildDiscarder {
         Run lstb = job.getLastStableBuild();
 
         if(numToKeep!=-1) {
-            // Note that RunList.size is deprecated, and indeed here we are loading all the builds of the job.
-            // However we would need to load the first numToKeep anyway, just to skip over them;
-            // and we would need to load the rest anyway, to delete them.
+            // The build index tells which builds exist without loading them, so only the ones past numToKeep get loaded.
             // (Using RunMap.headMap would not suffice, since we do not know if some recent builds have been deleted for other reasons,
             // so simply subtracting numToKeep from the currently last build number might cause us to delete too many.)
-            List<? extends Run<?,?>> builds = job.getBuilds();
-            for (Run r : copy(builds.subList(Math.min(builds.size(), numToKeep), builds.size()))) {
+            for (Run r : olderThan(job, numToKeep)) {
                 if (shouldKeepRun(r, lsb, lstb)) {
                     continue;
                 }
@@ -186,8 +183,7 @@ public class LogRotator extends BuildDiscarder {
         }
 
         if(artifactNumToKeep!=null && artifactNumToKeep!=-1) {
-            List<? extends Run<?,?>> builds = job.getBuilds();
-            for (Run r : copy(builds.subList(Math.min(builds.size(), artifactNumToKeep), builds.size()))) {
+            for (Run r : olderThan(job, artifactNumToKeep)) {
                 if (shouldKeepRun(r, lsb, lstb)) {
                     continue;
                 }
@@ -224,6 +220,27 @@ public class LogRotator extends BuildDiscarder {
         }
     }
 
+    /**
+     * Loads the builds of a job but the newest {@code n}, newest first.
+     * As with {@link Job#getBuilds}, builds that cannot be loaded are skipped rather than counted among those kept.
+     */
+    private static List<Run<?,?>> olderThan(Job<?,?> job, int n) {
+        List<Run<?,?>> builds = new ArrayList<>();
+        int kept = 0;
+        for (RunSummary s : job.getBuildSummaries()) {
+            Run<?,?> r = job.getBuildByNumber(s.getNumber());
+            if (r == null) {
+                continue;
+            }
+            if (kept < n) {
+                kept++;
+            } else {
+                builds.add(r);
+            }
+        }
+        return builds;
+    }
+
     private boolean shouldKeepRun(Run r, Run lsb, Run lstb) {
         if (r.isKeepLog()) {
             LOGGER.log(FINER, "{0} is not to be removed or purged of artifacts because it’s marked as a keeper", r);
@@ -253,13 +270,6 @@ public class LogRotator extends BuildDiscarder {
         }
     }
 
-    /**
-     * Creates a copy since we'll be deleting some entries from them.
-     */
-    private <R> Collection<R> copy(Iterable<R> src) {
-        return Lists.newArrayList(src);
-    }
-
     public int getDaysToKeep() {
         return daysToKeep;
     }
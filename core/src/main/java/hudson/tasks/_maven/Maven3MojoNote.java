@@ -28,6 +28,7 @@ import hudson.MarkupText;
 import hudson.console.ConsoleAnnotationDescriptor;
 import hudson.console.ConsoleAnnotator;
 import hudson.console.ConsoleNote;
+import hudson.console.ImmutableNote;
 import org.jenkinsci.Symbol;
 
 import java.util.regex.Pattern;
@@ -48,6 +49,7 @@ import java.util.regex.Pattern;
  *
  * @author Mirko Friedenhagen
  */
+@ImmutableNote
 public class Maven3MojoNote extends ConsoleNote {
     public Maven3MojoNote() {
     }
@@ -28,6 +28,7 @@ import hudson.MarkupText;
 import hudson.console.ConsoleAnnotationDescriptor;
 import hudson.console.ConsoleAnnotator;
 import hudson.console.ConsoleNote;
+import hudson.console.ImmutableNote;
 import org.jenkinsci.Symbol;
 
 import java.util.regex.Pattern;
@@ -37,6 +38,7 @@ import java.util.regex.Pattern;
  *
  * @author Kohsuke Kawaguchi
  */
+@ImmutableNote
 public class MavenWarningNote extends ConsoleNote {
     public MavenWarningNote() {
     }
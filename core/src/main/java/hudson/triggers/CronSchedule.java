@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.triggers;
+
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.scheduler.CronTabList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
+import jenkins.util.SystemProperties;
+
+/**
+ * Keeps the triggers of all jobs ordered by the next minute their crontab matches,
+ * so that {@link Trigger.Cron} only looks at the triggers that are due rather than at all of them every minute.
+ *
+ * <p>
+ * Triggers are added by {@link Trigger#start} and taken off by {@link Trigger#stop}.
+ * Since some triggers override {@link Trigger#start} without calling it, jobs are also scanned when loaded,
+ * created or reconfigured, see {@link Trigger.CronScheduleListener}.
+ * A trigger that was replaced or whose job was deleted without being stopped is dropped when it comes due.
+ * As a safety net for anything else, all jobs are scanned again every hour or so.
+ * The crontab is still checked before a trigger is run, so this only decides which triggers are looked at.
+ */
+final class CronSchedule {
+
+    static final CronSchedule INSTANCE = new CronSchedule();
+
+    /**
+     * Set to false to check every trigger every minute, as {@link Trigger#checkTriggers} does.
+     */
+    static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(CronSchedule.class.getName() + ".enabled", true);
+
+    /**
+     * How often all jobs are scanned for triggers that were not registered.
+     */
+    static /* non-final for Groovy */ long RESCAN_PERIOD = SystemProperties.getLong(CronSchedule.class.getName() + ".rescanPeriod", TimeUnit.HOURS.toMillis(1));
+
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final class Entry implements Comparable<Entry> {
+        final ParameterizedJobMixIn.ParameterizedJob<?, ?> job;
+        final Trigger<?> trigger;
+        /** Start of the minute to look at the trigger again. */
+        long next;
+        boolean cancelled;
+
+        Entry(ParameterizedJobMixIn.ParameterizedJob<?, ?> job, Trigger<?> trigger) {
+            this.job = job;
+            this.trigger = trigger;
+        }
+
+        @Override
+        public int compareTo(Entry o) {
+            return Long.compare(next, o.next);
+        }
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Map<Trigger<?>, Entry> entries = new IdentityHashMap<>();
+
+    /** Start of the next minute {@link #due} will be asked about. */
+    private long cursor = floor(System.currentTimeMillis());
+    private long nextRescan = Long.MIN_VALUE;
+
+    private CronSchedule() {}
+
+    /**
+     * Adds or updates a trigger after it was started.
+     */
+    synchronized void schedule(Item job, Trigger<?> trigger) {
+        if (!(job instanceof ParameterizedJobMixIn.ParameterizedJob)) {
+            return; // like Trigger.checkTriggers, only cares about those
+        }
+        Entry old = entries.remove(trigger);
+        if (old != null) {
+            old.cancelled = true;
+        }
+        Entry e = new Entry((ParameterizedJobMixIn.ParameterizedJob<?, ?>) job, trigger);
+        e.next = nextMatch(trigger, Math.max(cursor, floor(System.currentTimeMillis())));
+        entries.put(trigger, e);
+        queue.add(e);
+    }
+
+    /**
+     * Adds the triggers of a job, or of all the jobs in a folder, which are not scheduled yet.
+     */
+    synchronized void scan(Item item) {
+        long minute = Math.max(cursor, floor(System.currentTimeMillis()));
+        if (item instanceof ParameterizedJobMixIn.ParameterizedJob) {
+            add((ParameterizedJobMixIn.ParameterizedJob<?, ?>) item, minute);
+        }
+        if (item instanceof ItemGroup) {
+            for (ParameterizedJobMixIn.ParameterizedJob<?, ?> p : ((ItemGroup<?>) item).allItems(ParameterizedJobMixIn.ParameterizedJob.class)) {
+                add(p, minute);
+            }
+        }
+    }
+
+    /**
+     * Makes the next call to {@link #due} scan all jobs.
+     */
+    synchronized void rescanSoon() {
+        nextRescan = Long.MIN_VALUE;
+    }
+
+    /**
+     * Removes a trigger after it was stopped.
+     */
+    synchronized void unschedule(Trigger<?> trigger) {
+        Entry e = entries.remove(trigger);
+        if (e != null) {
+            e.cancelled = true;
+        }
+    }
+
+    /**
+     * Takes the triggers due at the given minute, and schedules each again for its next match.
+     * Called for each minute in turn.
+     */
+    synchronized List<Map.Entry<ParameterizedJobMixIn.ParameterizedJob<?, ?>, Trigger<?>>> due(Calendar cal) {
+        long minute = floor(cal.getTimeInMillis());
+        if (minute >= nextRescan) {
+            rescan(minute);
+        }
+        cursor = minute + MINUTE;
+        List<Map.Entry<ParameterizedJobMixIn.ParameterizedJob<?, ?>, Trigger<?>>> due = new ArrayList<>();
+        Entry e;
+        while ((e = queue.peek()) != null && e.next <= minute) {
+            queue.poll();
+            if (e.cancelled) {
+                continue;
+            }
+            if (!isCurrent(e)) {
+                entries.remove(e.trigger);
+                continue;
+            }
+            due.add(new AbstractMap.SimpleImmutableEntry<>(e.job, e.trigger));
+            e.next = nextMatch(e.trigger, cursor);
+            queue.add(e);
+        }
+        return due;
+    }
+
+    /**
+     * Number of triggers scheduled, for diagnostics.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether the trigger still belongs to a job that still exists.
+     */
+    private static boolean isCurrent(Entry e) {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j == null || j.getItemByFullName(e.job.getFullName()) != e.job) {
+            return false;
+        }
+        for (Trigger<?> t : e.job.getTriggers().values()) {
+            if (t == e.trigger) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rescan(long minute) {
+        Jenkins j = Jenkins.getInstanceOrNull();
+        if (j == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        for (ParameterizedJobMixIn.ParameterizedJob<?, ?> p : j.allItems(ParameterizedJobMixIn.ParameterizedJob.class)) {
+            add(p, minute);
+        }
+        nextRescan = minute + RESCAN_PERIOD;
+        LOGGER.log(Level.FINE, "rescanned for {0} triggers in {1}ms", new Object[] {entries.size(), (System.nanoTime() - start) / 1_000_000});
+    }
+
+    /**
+     * Adds the triggers of a job which are not scheduled for it yet.
+     */
+    private void add(ParameterizedJobMixIn.ParameterizedJob<?, ?> p, long minute) {
+        for (Trigger<?> t : p.getTriggers().values()) {
+            Entry e = entries.get(t);
+            if (e == null || e.job != p) {
+                if (e != null) {
+                    e.cancelled = true;
+                }
+                e = new Entry(p, t);
+                e.next = nextMatch(t, minute);
+                entries.put(t, e);
+                queue.add(e);
+            }
+        }
+    }
+
+    /**
+     * Finds the start of the first minute at or after the given one when the trigger may fire.
+     */
+    static long nextMatch(Trigger<?> trigger, long from) {
+        CronTabList tabs = trigger.tabs;
+        if (trigger.spec == null || tabs == null) {
+            return from; // Trigger.checkTriggers warns about these
+        }
+        Calendar next = tabs.ceil(from);
+        if (next == null) {
+            // nothing in sight, but look again later in case this is just a rare date
+            return from + TimeUnit.DAYS.toMillis(1);
+        }
+        long t = floor(next.getTimeInMillis());
+        if (!tabs.check(next)) {
+            // should not happen, but checking every minute is always right
+            LOGGER.log(Level.FINE, "{0} does not match {1} computed for it", new Object[] {trigger.spec, next.getTime()});
+            return from;
+        }
+        return t;
+    }
+
+    private static long floor(long t) {
+        return t - Math.floorMod(t, MINUTE);
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(CronSchedule.class.getName());
+}
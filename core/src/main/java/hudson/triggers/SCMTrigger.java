@@ -44,7 +44,7 @@ import hudson.scm.SCMDescriptor;
 import hudson.util.FlushProofOutputStream;
 import hudson.util.FormValidation;
 import hudson.util.NamingThreadFactory;
-import hudson.util.SequentialExecutionQueue;
+import hudson.util.PartitionedExecutionQueue;
 import hudson.util.StreamTaskListener;
 
 import java.util.Arrays;
@@ -61,12 +61,17 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import jenkins.model.Jenkins;
 import jenkins.model.RunAction2;
 import jenkins.scm.SCMDecisionHandler;
@@ -229,8 +234,11 @@ public class SCMTrigger extends Trigger<Item> {
          * at once, and multiple polling requests to the same job will be combined into one. Note that because executor isn't aware
          * of a potential workspace lock between a build and a polling, we may end up using executor threads unwisely --- they
          * may block.
+         * <p>
+         * Polling is partitioned by SCM host (see {@link #partitionOf}) so that a slow host only holds up the polling of its own jobs.
          */
-        private transient final SequentialExecutionQueue queue = new SequentialExecutionQueue(Executors.newSingleThreadExecutor(threadFactory()));
+        private transient final PartitionedExecutionQueue queue = new PartitionedExecutionQueue(
+                Executors.newSingleThreadExecutor(threadFactory()), SCMTrigger::partitionOf, 1, SLOW_POLLING_THRESHOLD);
 
         /**
          * Whether the projects should be polled all in one go in the order of dependencies. The default behavior is
@@ -278,6 +286,14 @@ public class SCMTrigger extends Trigger<Item> {
             AdministrativeMonitor.all().get(AdministrativeMonitorImpl.class).on = isClogged();
         }
 
+        /**
+         * Gets statistics of polling for each SCM host.
+         */
+        @Restricted(NoExternalUse.class)
+        public List<PartitionedExecutionQueue.PartitionStats> getHosts() {
+            return queue.getPartitions();
+        }
+
         /**
          * Gets the snapshot of {@link Runner}s that are performing polling.
          */
@@ -350,7 +366,14 @@ public class SCMTrigger extends Trigger<Item> {
          */
         @PostConstruct
         /*package*/ synchronized void resizeThreadPool() {
-            queue.setExecutors(Executors.newFixedThreadPool(maximumThreads, threadFactory()));
+            // threads are only kept around while there is polling to do
+            ThreadPoolExecutor executors = new ThreadPoolExecutor(maximumThreads, maximumThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory());
+            executors.allowCoreThreadTimeOut(true);
+            queue.setExecutors(executors);
+            queue.setMaxPerPartition(MAXIMUM_THREADS_PER_HOST > 0 ? MAXIMUM_THREADS_PER_HOST : Math.max(1, maximumThreads / 2));
+            // so that hosts whose polling hangs leave some threads to the others
+            queue.setCapacity(maximumThreads, Math.max(1, maximumThreads / 4));
         }
 
         @Override
@@ -386,7 +409,7 @@ public class SCMTrigger extends Trigger<Item> {
                 }
             } else {
                 return Jenkins.get().getDescriptorByType(TimerTrigger.DescriptorImpl.class)
-                        .doCheckSpec(value, item);
+                        .checkSpec(value, item, SCMTrigger.class);
             }
         }
     }
@@ -756,8 +779,55 @@ public class SCMTrigger extends Trigger<Item> {
         }
     }
 
+    /**
+     * Finds the host polling of a {@link Runner} talks to, from the {@link SCM#getKey} of its job's first SCM.
+     */
+    static String partitionOf(Runnable r) {
+        if (!(r instanceof Runner)) {
+            return "";
+        }
+        SCMTriggerItem item = ((Runner) r).getTarget();
+        if (item == null) {
+            return "";
+        }
+        for (SCM scm : item.getSCMs()) {
+            return hostOf(scm.getKey());
+        }
+        return "";
+    }
+
+    private static final Pattern URL_HOST = Pattern.compile("[a-zA-Z][a-zA-Z0-9+.-]*://(?:[^@/\\s]*@)?([^/:?#\\s]+)");
+    private static final Pattern SCP_HOST = Pattern.compile("[^@/\\s]+@([^:/\\s]+):");
+
+    /**
+     * Extracts the host name from an {@link SCM#getKey}, or returns the key itself if it has none.
+     */
+    static String hostOf(String key) {
+        Matcher m = URL_HOST.matcher(key);
+        if (m.find()) {
+            return m.group(1).toLowerCase(Locale.ENGLISH);
+        }
+        m = SCP_HOST.matcher(key);
+        if (m.find()) {
+            return m.group(1).toLowerCase(Locale.ENGLISH);
+        }
+        return key;
+    }
+
     /**
      * How long is too long for a polling activity to be in the queue?
      */
     public static long STARVATION_THRESHOLD = SystemProperties.getLong(SCMTrigger.class.getName()+".starvationThreshold", TimeUnit.HOURS.toMillis(1));
+
+    /**
+     * How many polling threads may talk to the same SCM host at once; by default half of the polling threads.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ int MAXIMUM_THREADS_PER_HOST = SystemProperties.getInteger(SCMTrigger.class.getName() + ".maximumThreadsPerHost", 0);
+
+    /**
+     * How long a polling may take before its host is considered slow and given fewer threads.
+     */
+    @Restricted(NoExternalUse.class)
+    public static /* non-final for Groovy */ long SLOW_POLLING_THRESHOLD = SystemProperties.getLong(SCMTrigger.class.getName() + ".slowPollingThreshold", TimeUnit.MINUTES.toMillis(1));
 }
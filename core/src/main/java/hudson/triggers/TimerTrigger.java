@@ -31,7 +31,6 @@ import hudson.model.BuildableItem;
 import hudson.model.Cause;
 import hudson.model.Item;
 import hudson.scheduler.CronTabList;
-import hudson.scheduler.Hash;
 import hudson.scheduler.RareOrImpossibleDateException;
 import hudson.util.FormValidation;
 import java.text.DateFormat;
@@ -86,8 +85,15 @@ public class TimerTrigger extends Trigger<BuildableItem> {
          * Performs syntax check.
          */
         public FormValidation doCheckSpec(@QueryParameter String value, @AncestorInPath Item item) {
+            return checkSpec(value, item, TimerTrigger.class);
+        }
+
+        /**
+         * Performs syntax check for the spec of some kind of trigger.
+         */
+        FormValidation checkSpec(String value, Item item, Class<? extends Trigger> type) {
             try {
-                CronTabList ctl = CronTabList.create(fixNull(value), item != null ? Hash.from(item.getFullName()) : null);
+                CronTabList ctl = TriggerSlots.preview(fixNull(value), item, type);
                 Collection<FormValidation> validations = new ArrayList<>();
                 updateValidationsForSanity(validations, ctl);
                 updateValidationsForNextRun(validations, ctl);
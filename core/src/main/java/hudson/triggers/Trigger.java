@@ -34,13 +34,13 @@ import hudson.model.AbstractProject;
 import hudson.model.Action;
 import hudson.model.Build;
 import hudson.model.Describable;
-import hudson.scheduler.Hash;
 import jenkins.model.Jenkins;
 import hudson.model.Item;
 import hudson.model.PeriodicWork;
 import hudson.model.Project;
 import hudson.model.TopLevelItem;
 import hudson.model.TopLevelItemDescriptor;
+import hudson.model.listeners.ItemListener;
 import hudson.scheduler.CronTabList;
 
 import java.io.InvalidObjectException;
@@ -52,6 +52,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
@@ -64,6 +65,8 @@ import javax.annotation.Nonnull;
 import hudson.model.Items;
 import jenkins.model.ParameterizedJobMixIn;
 import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Triggers a {@link Build}.
@@ -91,7 +94,7 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
 
         try {// reparse the tabs with the job as the hash
             if (spec != null) {
-                this.tabs = CronTabList.create(spec, Hash.from(project.getFullName()));
+                this.tabs = TriggerSlots.create(spec, project, this);
             } else {
                 LOGGER.log(Level.WARNING, "The job {0} has a null crontab spec which is incorrect", job.getFullName());
             }
@@ -100,6 +103,7 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
             // so if it fails, use whatever 'tabs' that we already have.
             LOGGER.log(Level.WARNING, String.format("Failed to parse crontab spec %s in job %s", spec, project.getFullName()), e);
         }
+        CronSchedule.INSTANCE.schedule(project, this);
     }
 
     /**
@@ -121,7 +125,9 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
      * When the configuration is changed for a project, all triggers
      * are removed once and then added back.
      */
-    public void stop() {}
+    public void stop() {
+        CronSchedule.INSTANCE.unschedule(this);
+    }
 
     /**
      * Returns an action object if this {@link Trigger} has an action
@@ -202,6 +208,29 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
     /**
      * Runs every minute to check {@link TimerTrigger} and schedules build.
      */
+    /**
+     * Registers triggers with {@link CronSchedule} as jobs are loaded, created or reconfigured,
+     * in case their {@link Trigger#start} does not call {@code super.start}.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class CronScheduleListener extends ItemListener {
+        @Override
+        public void onLoaded() {
+            CronSchedule.INSTANCE.rescanSoon();
+        }
+
+        @Override
+        public void onCreated(Item item) {
+            CronSchedule.INSTANCE.scan(item);
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            CronSchedule.INSTANCE.scan(item);
+        }
+    }
+
     @Extension @Symbol("cron")
     public static class Cron extends PeriodicWork {
         private final Calendar cal = new GregorianCalendar();
@@ -223,7 +252,11 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
             while(new Date().getTime() >= cal.getTimeInMillis()) {
                 LOGGER.log(Level.FINE, "cron checking {0}", cal.getTime());
                 try {
-                    checkTriggers(cal);
+                    if (CronSchedule.ENABLED) {
+                        checkDueTriggers(cal);
+                    } else {
+                        checkTriggers(cal);
+                    }
                 } catch (Throwable e) {
                     LOGGER.log(Level.WARNING,"Cron thread throw an exception",e);
                     // SafeTimerTask.run would also catch this, but be sure to increment cal too.
@@ -241,6 +274,28 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
 
         // Are we using synchronous polling?
         SCMTrigger.DescriptorImpl scmd = inst.getDescriptorByType(SCMTrigger.DescriptorImpl.class);
+        pollSynchronously(scmd);
+
+        // Process all triggers, except SCMTriggers when synchronousPolling is set
+        for (ParameterizedJobMixIn.ParameterizedJob<?, ?> p : inst.allItems(ParameterizedJobMixIn.ParameterizedJob.class)) {
+            for (Trigger t : p.getTriggers().values()) {
+                checkTrigger(cal, scmd, p, t);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #checkTriggers} but only looks at the triggers {@link CronSchedule} says may be due.
+     */
+    private static void checkDueTriggers(final Calendar cal) {
+        SCMTrigger.DescriptorImpl scmd = Jenkins.get().getDescriptorByType(SCMTrigger.DescriptorImpl.class);
+        pollSynchronously(scmd);
+        for (Map.Entry<ParameterizedJobMixIn.ParameterizedJob<?, ?>, Trigger<?>> e : CronSchedule.INSTANCE.due(cal)) {
+            checkTrigger(cal, scmd, e.getKey(), e.getValue());
+        }
+    }
+
+    private static void pollSynchronously(SCMTrigger.DescriptorImpl scmd) {
         if (scmd.synchronousPolling) {
             LOGGER.fine("using synchronous polling");
 
@@ -264,39 +319,36 @@ public abstract class Trigger<J extends Item> implements Describable<Trigger<?>>
                 LOGGER.fine("synchronous polling has detected unfinished jobs, will not trigger additional jobs.");
             }
         }
+    }
 
-        // Process all triggers, except SCMTriggers when synchronousPolling is set
-        for (ParameterizedJobMixIn.ParameterizedJob<?, ?> p : inst.allItems(ParameterizedJobMixIn.ParameterizedJob.class)) {
-            for (Trigger t : p.getTriggers().values()) {
-                if (!(t instanceof SCMTrigger && scmd.synchronousPolling)) {
-                    if (t !=null && t.spec != null && t.tabs != null) {
-                        LOGGER.log(Level.FINE, "cron checking {0} with spec ‘{1}’", new Object[]{p, t.spec.trim()});
-
-                        if (t.tabs.check(cal)) {
-                            LOGGER.log(Level.CONFIG, "cron triggered {0}", p);
-                            try {
-                                long begin_time = System.currentTimeMillis();
-                                t.run();
-                                long end_time = System.currentTimeMillis();
-                                if ((end_time - begin_time) > CRON_THRESHOLD) {
-                                    final String msg = String.format("Trigger %s.run() triggered by %s spent too much time "
-                                                    + "(%s) in its execution, other timers can be affected",
-                                            t.getClass().getName(), p, Util.getTimeSpanString(end_time - begin_time));
-                                    LOGGER.log(Level.WARNING, msg);
-                                    SlowTriggerAdminMonitor.getInstance().report(t.getClass().getName(), msg);
-                                }
-                            } catch (Throwable e) {
-                                // t.run() is a plugin, and some of them throw RuntimeException and other things.
-                                // don't let that cancel the polling activity. report and move on.
-                                LOGGER.log(Level.WARNING, t.getClass().getName() + ".run() failed for " + p, e);
-                            }
-                        } else {
-                            LOGGER.log(Level.FINER, "did not trigger {0}", p);
+    private static void checkTrigger(Calendar cal, SCMTrigger.DescriptorImpl scmd, ParameterizedJobMixIn.ParameterizedJob<?, ?> p, Trigger t) {
+        if (!(t instanceof SCMTrigger && scmd.synchronousPolling)) {
+            if (t !=null && t.spec != null && t.tabs != null) {
+                LOGGER.log(Level.FINE, "cron checking {0} with spec ‘{1}’", new Object[]{p, t.spec.trim()});
+
+                if (t.tabs.check(cal)) {
+                    LOGGER.log(Level.CONFIG, "cron triggered {0}", p);
+                    try {
+                        long begin_time = System.currentTimeMillis();
+                        t.run();
+                        long end_time = System.currentTimeMillis();
+                        if ((end_time - begin_time) > CRON_THRESHOLD) {
+                            final String msg = String.format("Trigger %s.run() triggered by %s spent too much time "
+                                            + "(%s) in its execution, other timers can be affected",
+                                    t.getClass().getName(), p, Util.getTimeSpanString(end_time - begin_time));
+                            LOGGER.log(Level.WARNING, msg);
+                            SlowTriggerAdminMonitor.getInstance().report(t.getClass().getName(), msg);
                         }
-                    } else {
-                        LOGGER.log(Level.WARNING, "The job {0} has a syntactically incorrect config and is missing the cron spec for a trigger", p.getFullName());
+                    } catch (Throwable e) {
+                        // t.run() is a plugin, and some of them throw RuntimeException and other things.
+                        // don't let that cancel the polling activity. report and move on.
+                        LOGGER.log(Level.WARNING, t.getClass().getName() + ".run() failed for " + p, e);
                     }
+                } else {
+                    LOGGER.log(Level.FINER, "did not trigger {0}", p);
                 }
+            } else {
+                LOGGER.log(Level.WARNING, "The job {0} has a syntactically incorrect config and is missing the cron spec for a trigger", p.getFullName());
             }
         }
     }
@@ -0,0 +1,373 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.triggers;
+
+import antlr.ANTLRException;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.ManagementLink;
+import hudson.model.Saveable;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.scheduler.BalancedHash;
+import hudson.scheduler.CronTabList;
+import hudson.scheduler.Hash;
+import hudson.security.Permission;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import jenkins.model.ParameterizedJobMixIn;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps track of which minutes of the hour cron triggers fire in, and shows it as a histogram.
+ *
+ * <p>
+ * When {@link #BALANCE} is set, the minute of {@code H} in a trigger's spec is not derived from the job name alone
+ * but placed in the least used minute, so that jobs spread evenly even when their names happen to hash alike.
+ * The minutes picked are saved so that jobs keep them across restarts for as long as their spec does not change.
+ *
+ * @see BalancedHash
+ */
+@Extension @Symbol("triggerSlots")
+@Restricted(NoExternalUse.class)
+public final class TriggerSlots extends ManagementLink implements Saveable {
+
+    /**
+     * Set to true to place {@code H} minutes by load rather than by job name.
+     * Changing this moves the schedule of existing jobs once.
+     */
+    static /* non-final for Groovy */ boolean BALANCE = SystemProperties.getBoolean(TriggerSlots.class.getName() + ".balance");
+
+    private static final class Assignment {
+        final String spec;
+        final int[] picks;
+
+        Assignment(String spec, int[] picks) {
+            this.spec = spec;
+            this.picks = picks;
+        }
+    }
+
+    /**
+     * Minutes picked, by {@link #key}.
+     */
+    private final Map<String, Assignment> assignments = new HashMap<>();
+
+    /**
+     * Load added by each trigger started since startup, by {@link #key}.
+     */
+    private transient Map<String, int[]> contributions = new HashMap<>();
+
+    /**
+     * Sum of {@link #contributions}.
+     */
+    private transient int[] load = new int[60];
+
+    /**
+     * Whether {@link #saveLater} scheduled a save that did not happen yet.
+     */
+    private transient boolean saveScheduled;
+
+    public TriggerSlots() {
+        XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                file.unmarshal(this);
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to load " + file, x);
+            }
+        }
+    }
+
+    static @CheckForNull TriggerSlots get() {
+        return Jenkins.getInstanceOrNull() == null ? null : ExtensionList.lookupSingleton(TriggerSlots.class);
+    }
+
+    /**
+     * Parses the spec of a trigger being started, balancing it if enabled.
+     */
+    static CronTabList create(String spec, Item job, Trigger<?> trigger) throws ANTLRException {
+        TriggerSlots slots = BALANCE ? get() : null;
+        if (slots == null) {
+            return CronTabList.create(spec, Hash.from(job.getFullName()));
+        }
+        return slots.assign(key(job.getFullName(), trigger.getClass()), job.getFullName(), spec, true);
+    }
+
+    /**
+     * Parses a spec as {@link #create} would if the trigger were started with it, without keeping anything.
+     */
+    static CronTabList preview(String spec, @CheckForNull Item job, Class<? extends Trigger> type) throws ANTLRException {
+        if (job == null) {
+            return CronTabList.create(spec);
+        }
+        TriggerSlots slots = BALANCE ? get() : null;
+        if (slots == null) {
+            return CronTabList.create(spec, Hash.from(job.getFullName()));
+        }
+        return slots.assign(key(job.getFullName(), type), job.getFullName(), spec, false);
+    }
+
+    private static String key(String fullName, Class<? extends Trigger> type) {
+        return fullName + '#' + type.getName();
+    }
+
+    private synchronized CronTabList assign(String key, String seed, String spec, boolean keep) throws ANTLRException {
+        int[] others = load.clone();
+        int[] old = contributions.get(key);
+        if (old != null) {
+            // do not let a trigger push itself away from where it is
+            for (int m = 0; m < 60; m++) {
+                others[m] -= old[m];
+            }
+        }
+        Assignment previous = assignments.get(key);
+        BalancedHash hash = new BalancedHash(Hash.from(seed), others, previous != null && previous.spec.equals(spec) ? previous.picks : null);
+        CronTabList tabs = CronTabList.create(spec, hash);
+        if (!keep) {
+            return tabs;
+        }
+        int[] added = tabs.getMinuteLoad();
+        for (int m = 0; m < 60; m++) {
+            others[m] += added[m];
+        }
+        load = others;
+        contributions.put(key, added);
+        int[] picks = hash.getPicks();
+        if (picks.length == 0) {
+            if (assignments.remove(key) != null) {
+                saveLater();
+            }
+        } else if (previous == null || !previous.spec.equals(spec) || !Arrays.equals(previous.picks, picks)) {
+            assignments.put(key, new Assignment(spec, picks));
+            saveLater();
+        }
+        return tabs;
+    }
+
+    private synchronized void forget(String fullName) {
+        boolean changed = false;
+        for (Iterator<String> it = assignments.keySet().iterator(); it.hasNext();) {
+            if (belongsTo(it.next(), fullName)) {
+                it.remove();
+                changed = true;
+            }
+        }
+        for (Iterator<Map.Entry<String, int[]>> it = contributions.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, int[]> e = it.next();
+            if (belongsTo(e.getKey(), fullName)) {
+                for (int m = 0; m < 60; m++) {
+                    load[m] -= e.getValue()[m];
+                }
+                it.remove();
+            }
+        }
+        if (changed) {
+            saveLater();
+        }
+    }
+
+    private static boolean belongsTo(String key, String fullName) {
+        return key.startsWith(fullName + '#') || key.startsWith(fullName + '/');
+    }
+
+    /**
+     * Saves a little later, once for all the changes made meanwhile,
+     * as every trigger gets assigned in turn while jobs are loaded.
+     */
+    private synchronized void saveLater() {
+        if (!saveScheduled) {
+            saveScheduled = true;
+            Timer.get().schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Saves changes not saved yet before Jenkins stops.
+     */
+    @Terminator
+    public synchronized void flush() {
+        if (saveScheduled) {
+            save();
+        }
+    }
+
+    @Override
+    public synchronized void save() {
+        saveScheduled = false;
+        try {
+            getConfigFile().write(this);
+            SaveableListener.fireOnChange(this, getConfigFile());
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to save " + getConfigFile(), x);
+        }
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), TriggerSlots.class.getName() + ".xml"));
+    }
+
+    /**
+     * One bar of the histogram.
+     */
+    public static final class Minute {
+        private final int minute;
+        private int triggers;
+        private int runs;
+
+        Minute(int minute) {
+            this.minute = minute;
+        }
+
+        public int getMinute() {
+            return minute;
+        }
+
+        /**
+         * Number of triggers firing in this minute at least once a day.
+         */
+        public int getTriggers() {
+            return triggers;
+        }
+
+        /**
+         * Number of times a day triggers fire in this minute.
+         */
+        public int getRuns() {
+            return runs;
+        }
+    }
+
+    /**
+     * Counts the triggers of all jobs by the minute of the hour they fire in.
+     */
+    public List<Minute> getHistogram() {
+        List<Minute> histogram = new ArrayList<>();
+        for (int m = 0; m < 60; m++) {
+            histogram.add(new Minute(m));
+        }
+        for (ParameterizedJobMixIn.ParameterizedJob<?, ?> p : Jenkins.get().allItems(ParameterizedJobMixIn.ParameterizedJob.class)) {
+            for (Trigger<?> t : p.getTriggers().values()) {
+                CronTabList tabs = t.tabs;
+                if (t.spec == null || tabs == null) {
+                    continue;
+                }
+                int[] runs = tabs.getMinuteLoad();
+                for (int m = 0; m < 60; m++) {
+                    if (runs[m] > 0) {
+                        histogram.get(m).triggers++;
+                        histogram.get(m).runs += runs[m];
+                    }
+                }
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * The largest number of runs in a minute, to scale the histogram.
+     */
+    public int getPeak(List<Minute> histogram) {
+        int peak = 0;
+        for (Minute m : histogram) {
+            peak = Math.max(peak, m.runs);
+        }
+        return peak;
+    }
+
+    public boolean isBalanced() {
+        return BALANCE;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "monitor.png";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "triggerSlots";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.TriggerSlots_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.TriggerSlots_Description();
+    }
+
+    @Nonnull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    @Extension
+    public static final class Listener extends ItemListener {
+        @Override
+        public void onDeleted(Item item) {
+            TriggerSlots slots = get();
+            if (slots != null) {
+                slots.forget(item.getFullName());
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            TriggerSlots slots = get();
+            if (slots != null) {
+                slots.forget(oldFullName);
+            }
+        }
+    }
+
+    /**
+     * Seconds to wait for more changes before saving.
+     */
+    private static final long SAVE_DELAY = 5;
+
+    private static final Logger LOGGER = Logger.getLogger(TriggerSlots.class.getName());
+}
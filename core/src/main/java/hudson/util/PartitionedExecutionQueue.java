@@ -0,0 +1,414 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util;
+
+import hudson.Util;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * {@link SequentialExecutionQueue} that also limits how many {@link Runnable}s of the same partition run at once,
+ * so that one slow partition cannot take up all the threads of the underlying {@link ExecutorService}.
+ *
+ * <p>
+ * The limit of each partition adapts to how long its {@link Runnable}s take:
+ * it is halved whenever one takes longer than {@link #setSlowThreshold the slow threshold},
+ * or is found still running past it, and goes back up by one whenever one completes in time,
+ * up to {@link #setMaxPerPartition the maximum}.
+ * {@link Runnable}s over the limit wait in their partition without holding a thread.
+ *
+ * <p>
+ * Since a {@link Runnable} that hangs keeps its thread however low the limit gets,
+ * {@link #setCapacity some threads} can be kept for partitions that have nothing running and are not slow.
+ */
+@Restricted(NoExternalUse.class)
+public class PartitionedExecutionQueue implements Executor {
+
+    /**
+     * Access is synchronized by {@code PartitionedExecutionQueue.this}
+     */
+    private final Map<Runnable, QueueEntry> entries = new HashMap<>();
+    private final Map<String, Partition> partitions = new HashMap<>();
+    private final Set<QueueEntry> inProgress = new HashSet<>();
+    private final Function<Runnable, String> partitioner;
+    private ExecutorService executors;
+    private int maxPerPartition;
+    private long slowThreshold;
+    private int capacity, reserved;
+    /**
+     * Number of {@link Runnable}s handed to {@link #executors} and not done yet, across partitions.
+     */
+    private int running;
+
+    /**
+     * @param partitioner maps each {@link Runnable} to the name of its partition
+     */
+    public PartitionedExecutionQueue(ExecutorService executors, Function<Runnable, String> partitioner, int maxPerPartition, long slowThreshold) {
+        this.executors = executors;
+        this.partitioner = partitioner;
+        this.maxPerPartition = Math.max(1, maxPerPartition);
+        this.slowThreshold = slowThreshold;
+    }
+
+    /**
+     * Gets the base underlying executors.
+     */
+    public synchronized ExecutorService getExecutors() {
+        return executors;
+    }
+
+    /**
+     * Starts using a new {@link ExecutorService} to carry out executions.
+     *
+     * <p>
+     * The older {@link ExecutorService} will be shut down (but it's still expected to
+     * complete whatever they are doing and scheduled.)
+     */
+    public synchronized void setExecutors(ExecutorService svc) {
+        ExecutorService old = this.executors;
+        this.executors = svc;
+        old.shutdown();
+        dispatch();
+    }
+
+    /**
+     * Sets how many {@link Runnable}s of one partition may run at once when they are quick.
+     */
+    public synchronized void setMaxPerPartition(int n) {
+        maxPerPartition = Math.max(1, n);
+        for (Partition p : partitions.values()) {
+            p.limit = Math.min(p.limit, maxPerPartition);
+        }
+        dispatch();
+    }
+
+    /**
+     * Sets how many threads the {@link ExecutorService} has, and how many of them are kept for partitions
+     * that have nothing running and are not slow.
+     * Once all other threads are taken, each such partition may still run one {@link Runnable} at a time,
+     * so that partitions whose {@link Runnable}s hang cannot take all the threads.
+     * @param capacity number of threads, or 0 for no limit
+     * @param reserved number of those threads kept
+     */
+    public synchronized void setCapacity(int capacity, int reserved) {
+        this.capacity = Math.max(0, capacity);
+        this.reserved = Math.max(0, Math.min(reserved, this.capacity));
+        dispatch();
+    }
+
+    /**
+     * Sets how long, in milliseconds, a {@link Runnable} may take before its partition is considered slow.
+     */
+    public synchronized void setSlowThreshold(long slowThreshold) {
+        this.slowThreshold = slowThreshold;
+    }
+
+    public void execute(@Nonnull Runnable item) {
+        // the partitioner may take a while, for example to parse a URL, so other callers are not kept waiting on it
+        String name = partitioner.apply(item);
+        synchronized (this) {
+            enqueue(item, name);
+        }
+    }
+
+    private void enqueue(Runnable item, String name) {
+        QueueEntry e = entries.get(item);
+        if (e == null) {
+            e = new QueueEntry(item, partition(name));
+            entries.put(item, e);
+            e.submit();
+        } else {
+            e.queued = true;
+        }
+    }
+
+    private Partition partition(String name) {
+        return partitions.computeIfAbsent(name == null ? "" : name, Partition::new);
+    }
+
+    /**
+     * Hands {@link Runnable}s of all partitions to {@link #executors}, as far as the limits allow.
+     * Caller must have a lock.
+     */
+    private void dispatch() {
+        long now = System.currentTimeMillis();
+        for (Partition p : partitions.values()) {
+            p.checkOverdue(now);
+        }
+        for (Partition p : partitions.values()) {
+            while (!p.waiting.isEmpty() && p.mayStart()) {
+                QueueEntry e = p.waiting.poll();
+                p.running++;
+                running++;
+                try {
+                    executors.submit(e);
+                } catch (RejectedExecutionException x) {
+                    // e.g. shut down by setExecutors; try again on the next dispatch
+                    p.running--;
+                    running--;
+                    p.waiting.addFirst(e);
+                    LOGGER.log(Level.FINE, "could not run " + e.item, x);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if too much time is spent since some {@link Runnable} is submitted into the queue
+     * until they get executed.
+     */
+    public synchronized boolean isStarving(long threshold) {
+        long now = System.currentTimeMillis();
+        for (QueueEntry e : entries.values()) {
+            if (now - e.submissionTime > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets {@link Runnable}s that are currently executed by a live thread.
+     */
+    public synchronized Set<Runnable> getInProgress() {
+        Set<Runnable> items = new HashSet<>();
+        for (QueueEntry entry : inProgress) {
+            items.add(entry.item);
+        }
+        return items;
+    }
+
+    /**
+     * Gets a snapshot of the statistics of each partition, sorted by name.
+     */
+    public synchronized List<PartitionStats> getPartitions() {
+        Map<String, PartitionStats> r = new TreeMap<>();
+        for (Partition p : partitions.values()) {
+            r.put(p.name, new PartitionStats(p));
+        }
+        return new ArrayList<>(r.values());
+    }
+
+    /**
+     * Statistics of a partition at some point in time.
+     */
+    public static final class PartitionStats {
+        private final String name;
+        private final int running, waiting, limit;
+        private final long completed, slow, averageDuration;
+
+        private PartitionStats(Partition p) {
+            name = p.name;
+            running = p.running;
+            waiting = p.waiting.size();
+            limit = p.limit;
+            completed = p.completed;
+            slow = p.slow;
+            averageDuration = (long) p.averageDuration;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * Number of {@link Runnable}s submitted but held back by the limit.
+         */
+        public int getWaiting() {
+            return waiting;
+        }
+
+        /**
+         * How many {@link Runnable}s of this partition may currently run at once.
+         */
+        public int getLimit() {
+            return limit;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * How many {@link Runnable}s took, or have been running for, longer than the slow threshold.
+         */
+        public long getSlow() {
+            return slow;
+        }
+
+        /**
+         * Moving average of how long {@link Runnable}s took, in milliseconds.
+         */
+        public long getAverageDuration() {
+            return averageDuration;
+        }
+
+        public String getAverageDurationString() {
+            return Util.getTimeSpanString(averageDuration);
+        }
+    }
+
+    /**
+     * Access is synchronized by {@code PartitionedExecutionQueue.this}
+     */
+    private final class Partition {
+        private final String name;
+        private final Deque<QueueEntry> waiting = new ArrayDeque<>();
+        private final Set<QueueEntry> active = new HashSet<>();
+        private int running;
+        private int limit = maxPerPartition;
+        private long completed, slow;
+        private double averageDuration;
+
+        Partition(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Treats {@link Runnable}s still running past the slow threshold as slow, without waiting for them to complete.
+         */
+        void checkOverdue(long now) {
+            for (QueueEntry e : active) {
+                if (!e.overdue && now - e.startTime > slowThreshold) {
+                    e.overdue = true;
+                    slow++;
+                    limit = Math.max(1, limit / 2);
+                }
+            }
+        }
+
+        boolean isSlow() {
+            if (limit < maxPerPartition) {
+                return true;
+            }
+            for (QueueEntry e : active) {
+                if (e.overdue) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean mayStart() {
+            if (running >= limit) {
+                return false;
+            }
+            if (capacity == 0 || running == 0 && PartitionedExecutionQueue.this.running == 0) {
+                return true;
+            }
+            int total = PartitionedExecutionQueue.this.running;
+            return total < capacity - reserved || total < capacity && running == 0 && !isSlow();
+        }
+
+        void done(QueueEntry e, long duration) {
+            active.remove(e);
+            running--;
+            PartitionedExecutionQueue.this.running--;
+            completed++;
+            averageDuration = completed == 1 ? duration : averageDuration * 0.8 + duration * 0.2;
+            if (e.overdue) {
+                // already counted as slow
+            } else if (duration > slowThreshold) {
+                slow++;
+                limit = Math.max(1, limit / 2);
+            } else if (limit < maxPerPartition) {
+                limit++;
+            }
+        }
+    }
+
+    private final class QueueEntry implements Runnable {
+        private final Runnable item;
+        private final Partition partition;
+        private boolean queued;
+        private long submissionTime;
+        private long startTime;
+        /**
+         * Whether it was found running past the slow threshold.
+         */
+        private boolean overdue;
+
+        private QueueEntry(Runnable item, Partition partition) {
+            this.item = item;
+            this.partition = partition;
+            this.queued = true;
+        }
+
+        // Caller must have a lock
+        private void submit() {
+            submissionTime = System.currentTimeMillis();
+            partition.waiting.add(this);
+            dispatch();
+        }
+
+        public void run() {
+            synchronized (PartitionedExecutionQueue.this) {
+                assert queued;
+                queued = false;
+                inProgress.add(this);
+                startTime = System.currentTimeMillis();
+                overdue = false;
+                partition.active.add(this);
+            }
+            try {
+                item.run();
+            } finally {
+                synchronized (PartitionedExecutionQueue.this) {
+                    partition.done(this, System.currentTimeMillis() - startTime);
+                    if (queued) {
+                        // requested again while we were running. do it again.
+                        submit();
+                    } else {
+                        entries.remove(item);
+                    }
+                    inProgress.remove(this);
+                    dispatch();
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(PartitionedExecutionQueue.class.getName());
+}
@@ -54,9 +54,22 @@ public abstract class ArchiverFactory implements Serializable {
 
     /**
      * Zip format.
+     * Files are compressed on several threads only if {@code -Dhudson.util.io.ParallelZipArchiver.enabled=true}
+     * is set on the machine doing the archiving.
      */
     public static ArchiverFactory ZIP = new ZipArchiverFactory();
 
+    /**
+     * Zip format, always compressing files on several threads.
+     * @since TODO
+     */
+    public static ArchiverFactory PARALLEL_ZIP = new ParallelZipArchiverFactory(false);
+
+    /**
+     * Zip format without compression, for content that is already compressed.
+     * @since TODO
+     */
+    public static ArchiverFactory STORED_ZIP = new ParallelZipArchiverFactory(true);
 
 
     private static final class TarArchiverFactory extends ArchiverFactory {
@@ -75,11 +88,29 @@ public abstract class ArchiverFactory implements Serializable {
 
     private static final class ZipArchiverFactory extends ArchiverFactory {
         public Archiver create(OutputStream out) {
+            // decided here rather than when the factory is created, since this runs on the agent
+            if (ParallelZipArchiver.ENABLED && ParallelZipArchiver.THREADS > 1) {
+                return new ParallelZipArchiver(out, false);
+            }
             return new ZipArchiver(out);
         }
 
         private static final long serialVersionUID = 1L;
     }
 
+    private static final class ParallelZipArchiverFactory extends ArchiverFactory {
+        private final boolean store;
+
+        private ParallelZipArchiverFactory(boolean store) {
+            this.store = store;
+        }
+
+        public Archiver create(OutputStream out) {
+            return new ParallelZipArchiver(out, store);
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     private static final long serialVersionUID = 1L;
 }
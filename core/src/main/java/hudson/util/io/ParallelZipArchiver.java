@@ -0,0 +1,311 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.util.io;
+
+import hudson.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import jenkins.util.SystemProperties;
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * Zip archiver that compresses files on several threads.
+ *
+ * <p>
+ * Each file is read and deflated by a task in a shared {@link ForkJoinPool},
+ * while the calling thread writes the finished entries to the stream in the order they were visited.
+ * Only a bounded number of entries are in flight at a time;
+ * compressed data larger than {@link #SPILL_SIZE} is kept in a temporary file rather than in memory.
+ *
+ * <p>
+ * In "store only" mode the files are not compressed at all, which suits content that already is,
+ * and only the checksum is computed in parallel.
+ *
+ * @see ArchiverFactory#PARALLEL_ZIP
+ * @see ArchiverFactory#STORED_ZIP
+ */
+final class ParallelZipArchiver extends Archiver {
+    private final ZipArchiveOutputStream zip;
+    private final boolean store;
+    private final Deque<Future<Prepared>> pending = new ArrayDeque<>();
+
+    ParallelZipArchiver(OutputStream out, boolean store) {
+        zip = new ZipArchiveOutputStream(out);
+        zip.setEncoding(System.getProperty("file.encoding"));
+        zip.setUseZip64(Zip64Mode.AsNeeded);
+        this.store = store;
+    }
+
+    @Override
+    public void visit(final File f, final String _relativePath) throws IOException {
+        // Zip files need to have their path elements separated by forward-slashes (/)
+        String relativePath = _relativePath.replace('\\', '/');
+
+        if (f.isDirectory()) {
+            pending.add(CompletableFuture.completedFuture(new Prepared(directoryEntry(f, relativePath))));
+        } else {
+            pending.add(Pool.INSTANCE.submit(() -> prepare(f, relativePath)));
+        }
+        while (pending.size() > MAX_PENDING) {
+            writeNext();
+        }
+        entriesWritten++;
+    }
+
+    private static ZipArchiveEntry directoryEntry(File f, String relativePath) {
+        ZipArchiveEntry e = new ZipArchiveEntry(relativePath + '/');
+        // Setting this bit explicitly is needed by some unzipping applications (see JENKINS-3294).
+        e.setExternalAttributes(BITMASK_IS_DIRECTORY);
+        int mode = IOUtils.mode(f);
+        if (mode != -1) e.setUnixMode(mode);
+        e.setTime(f.lastModified());
+        return e;
+    }
+
+    /**
+     * Reads and compresses one file; runs in the pool.
+     */
+    private Prepared prepare(File f, String relativePath) throws IOException {
+        ZipArchiveEntry e = new ZipArchiveEntry(relativePath);
+        int mode = IOUtils.mode(f);
+        if (mode != -1) e.setUnixMode(mode);
+        e.setTime(f.lastModified());
+
+        CRC32 crc = new CRC32();
+        Spill data = new Spill();
+        long size = 0;
+        byte[] buf = new byte[8192];
+        Deflater deflater = store ? null : new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (InputStream in = Files.newInputStream(f.toPath());
+             OutputStream out = store ? data : new DeflaterOutputStream(data, deflater, buf.length)) {
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                crc.update(buf, 0, len);
+                out.write(buf, 0, len);
+                size += len;
+            }
+        } catch (InvalidPathException x) {
+            data.discard();
+            throw new IOException(x);
+        } catch (IOException | RuntimeException x) {
+            data.discard();
+            throw x;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+
+        e.setMethod(store ? ZipEntry.STORED : ZipEntry.DEFLATED);
+        e.setSize(size);
+        e.setCompressedSize(data.size);
+        e.setCrc(crc.getValue());
+        return new Prepared(e, data);
+    }
+
+    /**
+     * Waits for the oldest entry in flight and writes it.
+     */
+    private void writeNext() throws IOException {
+        Prepared p = await(pending.poll());
+        try {
+            if (p.data == null) {
+                zip.putArchiveEntry(p.entry);
+                zip.closeArchiveEntry();
+            } else {
+                try (InputStream in = p.data.open()) {
+                    zip.addRawArchiveEntry(p.entry, in);
+                }
+            }
+        } finally {
+            if (p.data != null) {
+                p.data.discard();
+            }
+        }
+    }
+
+    private static Prepared await(Future<Prepared> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException().initCause(x);
+        } catch (ExecutionException x) {
+            Throwable cause = x.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+            zip.close();
+        } finally {
+            // if writing failed, wait for what is still in flight so that no temporary files are left behind
+            for (Future<Prepared> f : pending) {
+                try {
+                    Prepared p = await(f);
+                    if (p.data != null) {
+                        p.data.discard();
+                    }
+                } catch (IOException x) {
+                    // already failing
+                }
+            }
+            pending.clear();
+        }
+    }
+
+    /**
+     * An entry ready to be written.
+     */
+    private static final class Prepared {
+        final ZipArchiveEntry entry;
+        /** Raw contents, or null for a directory. */
+        final Spill data;
+
+        Prepared(ZipArchiveEntry entry) {
+            this(entry, null);
+        }
+
+        Prepared(ZipArchiveEntry entry, Spill data) {
+            this.entry = entry;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Buffers data in memory, moving it to a temporary file once it grows past {@link #SPILL_SIZE}.
+     */
+    private static final class Spill extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream fileOut;
+        long size;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > SPILL_SIZE) {
+                file = File.createTempFile("jenkins-zip", ".tmp");
+                fileOut = Files.newOutputStream(file.toPath());
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        InputStream open() throws IOException {
+            return file != null ? Files.newInputStream(file.toPath()) : new ByteArrayInputStream(memory.toByteArray());
+        }
+
+        void discard() {
+            memory = null;
+            if (file != null) {
+                try {
+                    close();
+                } catch (IOException x) {
+                    // best effort
+                }
+                file.delete();
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Lazily created, so that agents which never zip anything do not start threads.
+     */
+    private static final class Pool {
+        static final ForkJoinPool INSTANCE = new ForkJoinPool(THREADS, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("ParallelZipArchiver " + t.getPoolIndex());
+            return t;
+        }, null, false);
+    }
+
+    /**
+     * Number of threads compressing files.
+     */
+    static /* non-final for Groovy */ int THREADS = Math.max(1, SystemProperties.getInteger(ParallelZipArchiver.class.getName() + ".threads", Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Whether {@link ArchiverFactory#ZIP} compresses files on several threads when more than one is available.
+     * Off by default, so that {@link ArchiverFactory#ZIP} keeps writing archives with {@link ZipArchiver};
+     * use {@link ArchiverFactory#PARALLEL_ZIP} to compress on several threads regardless.
+     */
+    static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(ParallelZipArchiver.class.getName() + ".enabled");
+
+    /**
+     * Compressed size above which an entry is kept in a temporary file until written.
+     */
+    static /* non-final for Groovy */ int SPILL_SIZE = SystemProperties.getInteger(ParallelZipArchiver.class.getName() + ".spillSize", 1024 * 1024);
+
+    private static final int MAX_PENDING = 2 * THREADS;
+
+    // Bitmask indicating directories in 'external attributes' of a ZIP archive entry.
+    private static final long BITMASK_IS_DIRECTORY = 1<<4;
+}
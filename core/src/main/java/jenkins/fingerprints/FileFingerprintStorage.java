@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.fingerprints;
+
+import hudson.Extension;
+import hudson.model.Fingerprint;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps each fingerprint in its own XML file, {@code fingerprints/aa/bb/rest.xml}.
+ *
+ * <p>
+ * This is how fingerprints have always been stored.
+ * It is used when {@link LogFingerprintStorage} is disabled, which reads these files for records it does not have yet.
+ */
+@Extension(ordinal = -100)
+@Restricted(NoExternalUse.class)
+public class FileFingerprintStorage extends FingerprintStorage {
+
+    private static final Pattern FILE_NAME = Pattern.compile("[0-9a-f]{28}\\.xml");
+
+    @Override
+    public void save(@Nonnull Fingerprint fp) throws IOException {
+        fp.save(Fingerprint.getFingerprintFile(fp.getHashString()));
+    }
+
+    @Override
+    public @CheckForNull Fingerprint load(@Nonnull String id) throws IOException {
+        return Fingerprint.load(Fingerprint.getFingerprintFile(id));
+    }
+
+    @Override
+    public void delete(@Nonnull String id) throws IOException {
+        File file = Fingerprint.getFingerprintFile(id);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Failed to delete " + file);
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return getRootDir().exists();
+    }
+
+    @Override
+    public @Nonnull Collection<String> getIds() {
+        List<String> ids = new ArrayList<>();
+        File[] dirs1 = getRootDir().listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (dirs1 == null) {
+            return ids;
+        }
+        for (File dir1 : dirs1) {
+            File[] dirs2 = dir1.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+            if (dirs2 == null) {
+                continue;
+            }
+            for (File dir2 : dirs2) {
+                String[] names = dir2.list((d, n) -> FILE_NAME.matcher(n).matches());
+                if (names == null) {
+                    continue;
+                }
+                for (String name : names) {
+                    ids.add(dir1.getName() + dir2.getName() + name.substring(0, 28));
+                }
+            }
+        }
+        return ids;
+    }
+
+    static File getRootDir() {
+        return new File(Jenkins.get().getRootDir(), "fingerprints");
+    }
+}
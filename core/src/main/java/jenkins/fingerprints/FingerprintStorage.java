@@ -0,0 +1,104 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.fingerprints;
+
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Fingerprint;
+import hudson.model.FingerprintMap;
+import java.io.IOException;
+import java.util.Collection;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Persists {@link Fingerprint}s.
+ *
+ * <p>
+ * The first enabled implementation is used.
+ * {@link FingerprintMap} takes care of caching records in memory, so implementations only deal with persistence.
+ *
+ * @see LogFingerprintStorage
+ * @see FileFingerprintStorage
+ * @since TODO
+ */
+public abstract class FingerprintStorage implements ExtensionPoint {
+
+    /**
+     * Gets the storage in use.
+     */
+    public static @Nonnull FingerprintStorage get() {
+        for (FingerprintStorage s : ExtensionList.lookup(FingerprintStorage.class)) {
+            if (s.isEnabled()) {
+                return s;
+            }
+        }
+        return ExtensionList.lookupSingleton(FileFingerprintStorage.class);
+    }
+
+    /**
+     * Whether this storage may be used, for example given how Jenkins was configured.
+     */
+    protected boolean isEnabled() {
+        return true;
+    }
+
+    /**
+     * Saves a fingerprint, replacing any earlier record with the same {@link Fingerprint#getHashString}.
+     */
+    public abstract void save(@Nonnull Fingerprint fp) throws IOException;
+
+    /**
+     * Saves several fingerprints, as at the end of a {@link Fingerprint#batch}.
+     * Implementations may override this to write them in one go.
+     */
+    public void save(@Nonnull Collection<Fingerprint> fps) throws IOException {
+        for (Fingerprint fp : fps) {
+            save(fp);
+        }
+    }
+
+    /**
+     * Loads a fingerprint.
+     * @param id the MD5 digest, as lowercase hexadecimal
+     * @return null if there is no such record, or it is beyond repair
+     */
+    public abstract @CheckForNull Fingerprint load(@Nonnull String id) throws IOException;
+
+    /**
+     * Deletes a fingerprint, if it exists.
+     */
+    public abstract void delete(@Nonnull String id) throws IOException;
+
+    /**
+     * Whether there are any fingerprints stored at all.
+     */
+    public abstract boolean isReady();
+
+    /**
+     * Lists the IDs of all the stored fingerprints, for {@link hudson.model.FingerprintCleanupThread}.
+     * May be a snapshot.
+     */
+    public abstract @Nonnull Collection<String> getIds() throws IOException;
+}
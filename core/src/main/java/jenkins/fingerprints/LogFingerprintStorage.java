@@ -0,0 +1,489 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.fingerprints;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Fingerprint;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Keeps all fingerprints in a single append-only file, {@code fingerprints/fingerprints.log}.
+ *
+ * <p>
+ * Each record is a header of two ints, the length of the body and its CRC32, followed by the body:
+ * one byte saying whether this is a put or a delete, the 16 bytes of the MD5 digest,
+ * and for a put the fingerprint as {@link Fingerprint#encode} writes it.
+ * Later records win. The position of the latest record of each fingerprint is kept in memory,
+ * so that loading one is a single positional read and no XML parsing in the common case.
+ * {@link Compaction} rewrites the file with only the live records once most of it is superseded.
+ * A record cut short by a crash is dropped, along with anything after it, when the file is opened.
+ *
+ * <p>
+ * Fingerprints still in XML files from {@link FileFingerprintStorage} are read from there,
+ * and move into the log the next time they are saved.
+ * The XML files are only deleted then with {@link #FINALIZE_MIGRATION}, so that turning the log off again
+ * falls back to them rather than losing those fingerprints.
+ */
+@Extension(ordinal = 100)
+@Restricted(NoExternalUse.class)
+public class LogFingerprintStorage extends FingerprintStorage {
+
+    private static final Logger LOGGER = Logger.getLogger(LogFingerprintStorage.class.getName());
+
+    static final String FILE_NAME = "fingerprints.log";
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int DIGEST_SIZE = 16;
+
+    /**
+     * Set to true to keep fingerprints in the log rather than each in an XML file of its own, as {@link FileFingerprintStorage} does.
+     * The position of every fingerprint is then kept in memory.
+     */
+    static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(LogFingerprintStorage.class.getName() + ".enabled");
+
+    /**
+     * Set to true once the log is there to stay, to delete XML files as their fingerprints move into the log.
+     * {@link FileFingerprintStorage} does not read the log, so until then the XML files are kept.
+     */
+    static /* non-final for Groovy */ boolean FINALIZE_MIGRATION = SystemProperties.getBoolean(LogFingerprintStorage.class.getName() + ".finalizeMigration");
+
+    /**
+     * Whether each save is forced to disk before returning, as {@link hudson.util.AtomicFileWriter} does for XML files.
+     */
+    static /* non-final for Groovy */ boolean FSYNC = SystemProperties.getBoolean(LogFingerprintStorage.class.getName() + ".fsync", true);
+
+    /**
+     * Size below which the file is never compacted.
+     */
+    static /* non-final for Groovy */ long COMPACTION_THRESHOLD = SystemProperties.getLong(LogFingerprintStorage.class.getName() + ".compactionThreshold", 16L * 1024 * 1024);
+
+    /** Guarded by this. Null until first used. */
+    private FileChannel channel;
+    private File file;
+
+    /** Position of the latest put of each live fingerprint. Guarded by this. */
+    private final Map<String, Long> index = new HashMap<>();
+
+    /** Size of the file, and how many of those bytes are superseded records. Guarded by this. */
+    private long size, garbage;
+
+    /** Held while compacting, so that only one compaction runs at a time. */
+    private final Object compactionLock = new Object();
+
+    @Override
+    protected boolean isEnabled() {
+        return ENABLED;
+    }
+
+    @Override
+    public void save(@Nonnull Fingerprint fp) throws IOException {
+        String id = fp.getHashString();
+        byte[] data = fp.encode();
+        synchronized (this) {
+            open();
+            long pos = append(PUT, id, data);
+            replaced(index.put(id, pos));
+            if (FSYNC) {
+                channel.force(false);
+            }
+        }
+        // now that the log has it, the XML file is obsolete
+        if (FINALIZE_MIGRATION) {
+            deleteLegacy(id);
+        }
+    }
+
+    @Override
+    public void save(@Nonnull Collection<Fingerprint> fps) throws IOException {
+        Map<String, ByteBuffer> records = new LinkedHashMap<>();
+        int total = 0;
+        for (Fingerprint fp : fps) {
+            ByteBuffer record = record(PUT, fp.getHashString(), fp.encode());
+            records.put(fp.getHashString(), record);
+            total += record.limit();
+        }
+        // written all at once, so that the batch costs about as much as saving one fingerprint
+        ByteBuffer all = ByteBuffer.allocate(total);
+        for (ByteBuffer record : records.values()) {
+            all.put(record);
+        }
+        all.flip();
+        synchronized (this) {
+            open();
+            long pos = size;
+            while (all.hasRemaining()) {
+                channel.write(all, pos + all.position());
+            }
+            size = pos + total;
+            for (Map.Entry<String, ByteBuffer> e : records.entrySet()) {
+                replaced(index.put(e.getKey(), pos));
+                pos += e.getValue().limit();
+            }
+            if (FSYNC) {
+                channel.force(false);
+            }
+        }
+        if (FINALIZE_MIGRATION) {
+            for (String id : records.keySet()) {
+                deleteLegacy(id);
+            }
+        }
+    }
+
+    @Override
+    public @CheckForNull Fingerprint load(@Nonnull String id) throws IOException {
+        byte[] data;
+        synchronized (this) {
+            open();
+            Long pos = index.get(id);
+            data = pos != null ? readBody(pos) : null;
+        }
+        if (data == null) {
+            return ExtensionList.lookupSingleton(FileFingerprintStorage.class).load(id);
+        }
+        try {
+            return Fingerprint.decode(data, 1 + DIGEST_SIZE, data.length - 1 - DIGEST_SIZE);
+        } catch (IOException x) {
+            // as with a malformed XML file, do not let one bad record break everything else
+            LOGGER.log(Level.WARNING, "Malformed fingerprint " + id + " in " + file, x);
+            return null;
+        }
+    }
+
+    @Override
+    public void delete(@Nonnull String id) throws IOException {
+        synchronized (this) {
+            open();
+            if (index.containsKey(id)) {
+                long pos = append(DELETE, id, new byte[0]);
+                replaced(index.remove(id));
+                garbage += size - pos;
+                if (FSYNC) {
+                    channel.force(false);
+                }
+            }
+        }
+        deleteLegacy(id);
+    }
+
+    @Override
+    public boolean isReady() {
+        synchronized (this) {
+            if (channel != null && !index.isEmpty()) {
+                return true;
+            }
+        }
+        return FileFingerprintStorage.getRootDir().exists();
+    }
+
+    @Override
+    public synchronized @Nonnull Collection<String> getIds() throws IOException {
+        open();
+        return new ArrayList<>(index.keySet());
+    }
+
+    private static void deleteLegacy(String id) {
+        File legacy = Fingerprint.getFingerprintFile(id);
+        if (legacy.exists() && !legacy.delete()) {
+            LOGGER.log(Level.WARNING, "Failed to delete {0}", legacy);
+        }
+    }
+
+    private void replaced(@CheckForNull Long pos) throws IOException {
+        if (pos != null) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(header, pos);
+            garbage += HEADER_SIZE + header.getInt(0);
+        }
+    }
+
+    /**
+     * Opens the file and reads the index from it, if not done already.
+     */
+    private void open() throws IOException {
+        if (channel != null) {
+            return;
+        }
+        File dir = FileFingerprintStorage.getRootDir();
+        Files.createDirectories(dir.toPath());
+        file = new File(dir, FILE_NAME);
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            scan();
+        } catch (IOException | RuntimeException x) {
+            channel.close();
+            channel = null;
+            throw x;
+        }
+    }
+
+    private void scan() throws IOException {
+        index.clear();
+        size = garbage = 0;
+        long length = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long pos = 0;
+        while (pos < length) {
+            header.clear();
+            if (length - pos < HEADER_SIZE || !readFully(header, pos)) {
+                break;
+            }
+            int bodyLength = header.getInt(0);
+            if (bodyLength < 1 + DIGEST_SIZE || pos + HEADER_SIZE + bodyLength > length) {
+                break;
+            }
+            byte[] body = readBody(pos);
+            if (body == null) {
+                break;
+            }
+            String id = Util.toHexString(body, 1, DIGEST_SIZE);
+            long end = pos + HEADER_SIZE + bodyLength;
+            size = end;
+            Long old;
+            if (body[0] == PUT) {
+                old = index.put(id, pos);
+            } else if (body[0] == DELETE) {
+                old = index.remove(id);
+                garbage += end - pos;
+            } else {
+                break;
+            }
+            replaced(old);
+            pos = end;
+        }
+        if (size < length) {
+            LOGGER.log(Level.WARNING, "Dropping {0} bytes of corrupt or incomplete records at the end of {1}", new Object[] {length - size, file});
+            channel.truncate(size);
+        }
+    }
+
+    /**
+     * Reads the body of the record at a position.
+     * @return null if it does not match its checksum
+     */
+    private @CheckForNull byte[] readBody(long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(header, pos)) {
+            return null;
+        }
+        byte[] body = new byte[header.getInt(0)];
+        if (!readFully(ByteBuffer.wrap(body), pos + HEADER_SIZE)) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != header.getInt(4)) {
+            LOGGER.log(Level.WARNING, "Checksum mismatch at {0} in {1}", new Object[] {pos, file});
+            return null;
+        }
+        return body;
+    }
+
+    private boolean readFully(ByteBuffer buf, long pos) throws IOException {
+        return readFully(channel, buf, pos);
+    }
+
+    private static boolean readFully(FileChannel in, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long recordLength(FileChannel in, long pos) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (!readFully(in, header, pos)) {
+            throw new IOException("Truncated record at " + pos);
+        }
+        return HEADER_SIZE + header.getInt(0);
+    }
+
+    private static void copy(FileChannel in, long pos, long length, FileChannel out) throws IOException {
+        long copied = 0;
+        while (copied < length) {
+            copied += in.transferTo(pos + copied, length - copied, out);
+        }
+    }
+
+    /**
+     * Appends a record at the end of the file.
+     * @return its position
+     */
+    private long append(byte op, String id, byte[] data) throws IOException {
+        ByteBuffer buf = record(op, id, data);
+        long pos = size;
+        while (buf.hasRemaining()) {
+            channel.write(buf, pos + buf.position());
+        }
+        size = pos + buf.limit();
+        return pos;
+    }
+
+    private static ByteBuffer record(byte op, String id, byte[] data) {
+        int bodyLength = 1 + DIGEST_SIZE + data.length;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        buf.putInt(bodyLength);
+        buf.putInt(0); // checksum, below
+        buf.put(op);
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            buf.put((byte) Integer.parseInt(id.substring(2 * i, 2 * i + 2), 16));
+        }
+        buf.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(buf.array(), HEADER_SIZE, bodyLength);
+        buf.putInt(4, (int) crc.getValue());
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Rewrites the file with only the live records, once most of it is garbage.
+     * Records are never modified once written, so the live ones are copied without holding the lock;
+     * only the records appended meanwhile are copied under it, before the new file replaces the old one.
+     */
+    void compactIfNeeded() throws IOException {
+        synchronized (compactionLock) {
+            FileChannel in;
+            Map<String, Long> live;
+            long end;
+            synchronized (this) {
+                if (channel == null || size < COMPACTION_THRESHOLD || garbage * 2 < size) {
+                    return;
+                }
+                in = channel;
+                live = new HashMap<>(index);
+                end = size;
+            }
+            long start = System.nanoTime();
+            File tmp = new File(file.getPath() + ".compact");
+            try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Map<String, Long> compacted = new HashMap<>();
+                long pos = 0;
+                for (Map.Entry<String, Long> e : live.entrySet()) {
+                    long recordLength = recordLength(in, e.getValue());
+                    copy(in, e.getValue(), recordLength, out);
+                    compacted.put(e.getKey(), pos);
+                    pos += recordLength;
+                }
+                synchronized (this) {
+                    if (channel != in) {
+                        // reopened meanwhile
+                        Files.deleteIfExists(tmp.toPath());
+                        return;
+                    }
+                    long newGarbage = 0;
+                    ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE + 1 + DIGEST_SIZE);
+                    for (long p = end; p < size; ) {
+                        head.clear();
+                        if (!readFully(in, head, p)) {
+                            throw new IOException("Truncated record at " + p + " in " + file);
+                        }
+                        long recordLength = HEADER_SIZE + head.getInt(0);
+                        String id = Util.toHexString(head.array(), HEADER_SIZE + 1, DIGEST_SIZE);
+                        copy(in, p, recordLength, out);
+                        Long old;
+                        if (head.get(HEADER_SIZE) == PUT) {
+                            old = compacted.put(id, pos);
+                        } else {
+                            old = compacted.remove(id);
+                            newGarbage += recordLength;
+                        }
+                        if (old != null) {
+                            newGarbage += recordLength(out, old);
+                        }
+                        pos += recordLength;
+                        p += recordLength;
+                    }
+                    out.force(true);
+                    channel.close();
+                    channel = null;
+                    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    LOGGER.log(Level.FINE, "Compacted {0} from {1} to {2} bytes in {3}ms",
+                            new Object[] {file, size, pos, (System.nanoTime() - start) / 1_000_000});
+                    index.clear();
+                    index.putAll(compacted);
+                    size = pos;
+                    garbage = newGarbage;
+                }
+            } catch (IOException | RuntimeException x) {
+                Files.deleteIfExists(tmp.toPath());
+                throw x;
+            }
+        }
+    }
+
+    /**
+     * Compacts the log in the background, so that saving a fingerprint never waits for it.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class Compaction extends AsyncPeriodicWork {
+
+        public Compaction() {
+            super("Fingerprint log compaction");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return HOUR;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            LogFingerprintStorage storage = ExtensionList.lookupSingleton(LogFingerprintStorage.class);
+            if (storage.isEnabled()) {
+                storage.compactIfNeeded();
+            }
+        }
+    }
+}
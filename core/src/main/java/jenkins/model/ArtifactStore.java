@@ -0,0 +1,369 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import org.apache.commons.io.FileUtils;
+import org.jenkinsci.Symbol;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Content-addressed store of archived files, shared by all builds.
+ *
+ * <p>
+ * Entries live in {@code $JENKINS_HOME/artifacts}, named after their MD5 digest
+ * (the one {@link hudson.tasks.Fingerprinter} records) in the same layout as {@code fingerprints}.
+ * An archived file whose content is already in the store is replaced by a hard link to the entry,
+ * once the bytes have been compared, since MD5 collisions can be produced on purpose;
+ * so builds keep plain files in their {@code archive} directory and {@link jenkins.util.VirtualFile#forFile} works unchanged.
+ * An entry is garbage once its link count drops to one, i.e. no build links to it anymore.
+ *
+ * <p>
+ * Each build lists the digests it linked in {@link #MANIFEST} so that they can be released as soon as the build
+ * or its artifacts are deleted; {@link Cleanup} catches anything removed otherwise.
+ *
+ * @see StandardArtifactManager#DEDUPLICATE
+ */
+@Restricted(NoExternalUse.class)
+public final class ArtifactStore {
+
+    private static final Logger LOGGER = Logger.getLogger(ArtifactStore.class.getName());
+
+    static final String DIR_NAME = "artifacts";
+
+    /**
+     * Name of the file in a build directory listing digests of its artifacts, one {@code digest path} per line.
+     */
+    static final String MANIFEST = "archive.md5";
+
+    private static final Pattern DIGEST = Pattern.compile("[0-9a-f]{32}");
+
+    private final File root;
+
+    ArtifactStore(File root) {
+        this.root = root;
+    }
+
+    public static ArtifactStore get() {
+        return new ArtifactStore(new File(Jenkins.get().getRootDir(), DIR_NAME));
+    }
+
+    /**
+     * Whether the store can work on this file system, which needs hard links and their count.
+     */
+    public boolean isSupported() {
+        try {
+            Files.createDirectories(root.toPath());
+            return Files.getFileStore(root.toPath()).supportsFileAttributeView("unix");
+        } catch (IOException | UnsupportedOperationException x) {
+            LOGGER.log(Level.FINE, "cannot use " + root, x);
+            return false;
+        }
+    }
+
+    /**
+     * Gets the entry for a digest, if the store has it.
+     */
+    public @CheckForNull File lookup(String md5) {
+        if (!DIGEST.matcher(md5).matches()) {
+            return null;
+        }
+        File f = entry(md5);
+        return f.isFile() ? f : null;
+    }
+
+    private File entry(String md5) {
+        return new File(root, md5.substring(0, 2) + '/' + md5.substring(2, 4) + '/' + md5.substring(4));
+    }
+
+    /**
+     * Shares archived files through the store and records them in the manifest of the build.
+     * @param buildDir the build's root directory
+     * @param archiveDir the directory the files were archived into
+     * @param paths paths of the archived files relative to {@code archiveDir}
+     */
+    public void add(File buildDir, File archiveDir, Collection<String> paths) throws IOException {
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (String path : paths) {
+            digests.put(path, null);
+        }
+        add(buildDir, archiveDir, digests);
+    }
+
+    /**
+     * Like {@link #add(File, File, Collection)} for files whose digests may already be known.
+     * @param digests digests of the archived files, or null where not known, by path relative to {@code archiveDir}
+     */
+    public void add(File buildDir, File archiveDir, Map<String, String> digests) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+        for (Map.Entry<String, String> e : digests.entrySet()) {
+            String path = e.getKey();
+            Path file = new File(archiveDir, path).toPath();
+            if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+                continue; // symlinks are archived as such
+            }
+            String md5 = e.getValue() != null ? e.getValue() : Util.getDigestOf(file.toFile());
+            if (link(file, md5)) {
+                manifest.append(md5).append(' ').append(path.replace('\\', '/')).append('\n');
+            }
+        }
+        if (manifest.length() > 0) {
+            // archive may be called several times for one build
+            Files.write(new File(buildDir, MANIFEST).toPath(), manifest.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Creates a file as a link to an existing entry, without needing its content.
+     * The file must still be passed to {@link #add(File, File, Map)} to be recorded in the build's manifest.
+     * @param file a file to create or replace
+     * @param md5 the digest of the content it should have
+     * @param size the size of the content it should have
+     * @return true if the file now has that content, false if the store does not have it
+     */
+    public boolean reuse(Path file, String md5, long size) {
+        File entry = lookup(md5);
+        try {
+            if (entry == null || entry.length() != size) {
+                return false;
+            }
+            Files.createDirectories(file.getParent());
+            return replaceWithLink(file, entry.toPath());
+        } catch (IOException | UnsupportedOperationException x) {
+            LOGGER.log(Level.FINE, "could not link " + file + " to " + entry, x);
+            return false;
+        }
+    }
+
+    private static boolean replaceWithLink(Path file, Path entry) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            Files.createLink(tmp, entry);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException x) {
+            // cleaned up in the meantime
+            return false;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Makes {@code file} share its content with the store entry for {@code md5},
+     * either by replacing it with a link to an existing entry or by making it the entry.
+     * @return whether the file is now linked to the store
+     */
+    public boolean link(Path file, String md5) {
+        Path entry = entry(md5).toPath();
+        try {
+            Files.createDirectories(entry.getParent());
+            if (Files.isRegularFile(entry)) {
+                if (Files.isSameFile(entry, file)) {
+                    return true;
+                }
+                // never trust the digest alone: a colliding entry planted by another build must not replace this content
+                if (Files.size(entry) == Files.size(file) && FileUtils.contentEquals(entry.toFile(), file.toFile())) {
+                    if (replaceWithLink(file, entry)) {
+                        return true;
+                    }
+                    // otherwise cleaned up in the meantime; offer ours instead
+                } else {
+                    LOGGER.log(Level.WARNING, "{0} does not have the same content; not sharing {1}", new Object[] {entry, file});
+                    return false;
+                }
+            }
+            Files.createLink(entry, file);
+            return true;
+        } catch (FileAlreadyExistsException x) {
+            // another build added the same content concurrently; keep our copy
+            return false;
+        } catch (IOException | UnsupportedOperationException x) {
+            // e.g. builds kept on another file system than JENKINS_HOME
+            LOGGER.log(Level.FINE, "could not link " + file + " to " + entry, x);
+            return false;
+        }
+    }
+
+    /**
+     * Removes archived files which share their content with the store, before they are archived again:
+     * writing to such a file would change the entry and every other build linking to it.
+     * @param archiveDir the directory the files are about to be archived into
+     * @param paths paths of the files relative to {@code archiveDir}
+     */
+    public void unlink(File archiveDir, Collection<String> paths) throws IOException {
+        for (String path : paths) {
+            Path file = new File(archiveDir, path).toPath();
+            try {
+                if (Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)
+                        && ((Number) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue() > 1) {
+                    Files.delete(file);
+                }
+            } catch (NoSuchFileException x) {
+                // already gone
+            }
+        }
+    }
+
+    /**
+     * Reads the digests listed in the manifest of a build.
+     */
+    public static Set<String> digestsOf(File buildDir) {
+        Path manifest = new File(buildDir, MANIFEST).toPath();
+        if (!Files.isRegularFile(manifest)) {
+            return Collections.emptySet();
+        }
+        Set<String> digests = new LinkedHashSet<>();
+        try {
+            for (String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+                int space = line.indexOf(' ');
+                if (space > 0) {
+                    digests.add(line.substring(0, space));
+                }
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "could not read " + manifest, x);
+        }
+        return digests;
+    }
+
+    /**
+     * Removes entries no build links to anymore.
+     * Call after the files linking to them have been deleted.
+     */
+    public void release(Collection<String> digests) {
+        for (String md5 : digests) {
+            File f = lookup(md5);
+            if (f != null) {
+                releaseEntry(f.toPath());
+            }
+        }
+    }
+
+    private boolean releaseEntry(Path entry) {
+        try {
+            if (((Number) Files.getAttribute(entry, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue() <= 1) {
+                Files.deleteIfExists(entry);
+                return true;
+            }
+        } catch (NoSuchFileException x) {
+            // already gone
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException x) {
+            LOGGER.log(Level.WARNING, "could not release " + entry, x);
+        }
+        return false;
+    }
+
+    /**
+     * Removes all entries no build links to anymore.
+     * @return the number of entries removed
+     */
+    int cleanUp() {
+        int count = 0;
+        File[] dirs1 = root.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+        if (dirs1 == null) {
+            return 0;
+        }
+        for (File dir1 : dirs1) {
+            File[] dirs2 = dir1.listFiles(f -> f.isDirectory() && f.getName().length() == 2);
+            if (dirs2 == null) {
+                continue;
+            }
+            for (File dir2 : dirs2) {
+                File[] entries = dir2.listFiles(File::isFile);
+                if (entries == null) {
+                    continue;
+                }
+                for (File entry : entries) {
+                    if (releaseEntry(entry.toPath())) {
+                        count++;
+                    }
+                }
+                deleteIfEmpty(dir2);
+            }
+            deleteIfEmpty(dir1);
+        }
+        return count;
+    }
+
+    private static void deleteIfEmpty(File dir) {
+        String[] r = dir.list();
+        if (r != null && r.length == 0) {
+            dir.delete();
+        }
+    }
+
+    /**
+     * Periodically removes entries left behind by builds deleted without releasing them.
+     */
+    @Extension @Symbol("artifactStoreCleanup")
+    @Restricted(NoExternalUse.class)
+    public static final class Cleanup extends AsyncPeriodicWork {
+
+        public Cleanup() {
+            super("Artifact store cleanup");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return DAY;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            File root = new File(Jenkins.get().getRootDir(), DIR_NAME);
+            if (!root.isDirectory()) {
+                return;
+            }
+            int count = new ArtifactStore(root).cleanUp();
+            listener.getLogger().println("Cleaned up " + count + " entries");
+        }
+    }
+}
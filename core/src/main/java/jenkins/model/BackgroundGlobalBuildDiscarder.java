@@ -24,19 +24,49 @@
 package jenkins.model;
 
 import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
 import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.Job;
 import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.security.ImpersonatingExecutorService;
+import jenkins.util.SystemProperties;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+import javax.annotation.CheckForNull;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Background task actually running background build discarders.
  *
+ * <p>
+ * Each run only processes the jobs that finished a build or were reconfigured since the previous run,
+ * unless the discarders were reconfigured or {@link #FULL_PASS_PERIOD} has elapsed,
+ * in which case all jobs are processed so that builds that merely got old are discarded too.
+ * Jobs are processed by up to {@link #THREADS} threads at once.
+ *
  * @see GlobalBuildDiscarderConfiguration
  * @see GlobalBuildDiscarderStrategy
  */
@@ -45,36 +75,187 @@ import java.util.logging.Logger;
 public class BackgroundGlobalBuildDiscarder extends AsyncPeriodicWork {
     private static final Logger LOGGER = Logger.getLogger(BackgroundGlobalBuildDiscarder.class.getName());
 
+    /**
+     * Number of threads processing jobs.
+     */
+    static /* non-final for Groovy */ int THREADS = SystemProperties.getInteger(BackgroundGlobalBuildDiscarder.class.getName() + ".threads",
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * How often all jobs are processed, rather than only those that changed.
+     */
+    static /* non-final for Groovy */ long FULL_PASS_PERIOD = SystemProperties.getLong(BackgroundGlobalBuildDiscarder.class.getName() + ".fullPassPeriod",
+            TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * Full names of jobs to process in the next run.
+     */
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The strategies configured when all jobs were last processed.
+     */
+    private List<GlobalBuildDiscarderStrategy> lastStrategies;
+
+    private long lastFullPass;
+
     public BackgroundGlobalBuildDiscarder() {
         super("Periodic background build discarder"); // TODO i18n
     }
 
     @Override
     protected void execute(TaskListener listener) throws IOException, InterruptedException {
-        for (Job job : Jenkins.get().allItems(Job.class)) {
-            processJob(listener, job);
+        List<Job> jobs = new ArrayList<>();
+        List<GlobalBuildDiscarderStrategy> strategies = new ArrayList<>(GlobalBuildDiscarderConfiguration.get().getConfiguredBuildDiscarders());
+        long now = System.currentTimeMillis();
+        if (!strategies.equals(lastStrategies) || now - lastFullPass >= FULL_PASS_PERIOD) {
+            changed.clear();
+            jobs.addAll(Jenkins.get().allItems(Job.class));
+            listener.getLogger().println("Processing all " + jobs.size() + " jobs");
+            lastStrategies = strategies;
+            lastFullPass = now;
+        } else {
+            List<String> names = new ArrayList<>(changed);
+            changed.removeAll(names);
+            for (String name : names) {
+                Job job = Jenkins.get().getItemByFullName(name, Job.class);
+                if (job != null) {
+                    jobs.add(job);
+                }
+            }
+            listener.getLogger().println("Processing " + jobs.size() + " jobs changed since the last run");
+        }
+
+        Map<String, Timing> timings = new ConcurrentHashMap<>();
+        int threads = Math.min(THREADS, jobs.size());
+        if (threads <= 1) {
+            for (Job job : jobs) {
+                processJob(listener, job, timings);
+            }
+        } else {
+            // each thread takes the next job until there are none left
+            Queue<Job> pending = new ConcurrentLinkedQueue<>(jobs);
+            ExecutorService pool = new ImpersonatingExecutorService(Executors.newFixedThreadPool(threads,
+                    new NamingThreadFactory(new DaemonThreadFactory(), "BackgroundGlobalBuildDiscarder")), ACL.SYSTEM);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    futures.add(pool.submit(() -> {
+                        Job job;
+                        while ((job = pending.poll()) != null && !Thread.currentThread().isInterrupted()) {
+                            processJob(listener, job, timings);
+                        }
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException ex) {
+                        LOGGER.log(Level.WARNING, "Failed to process jobs", ex.getCause());
+                    }
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        for (Map.Entry<String, Timing> e : new TreeMap<>(timings).entrySet()) {
+            listener.getLogger().println(e.getKey() + ": " + e.getValue());
         }
     }
 
     public static void processJob(TaskListener listener, Job job) {
+        processJob(listener, job, null);
+    }
+
+    private static void processJob(TaskListener listener, Job job, @CheckForNull Map<String, Timing> timings) {
         listener.getLogger().println("Processing " + job.getFullName());
         GlobalBuildDiscarderConfiguration.get().getConfiguredBuildDiscarders().forEach(strategy -> {
             String displayName = strategy.getDescriptor().getDisplayName();
             listener.getLogger().println("Offering " + job.getFullName() + " to " + displayName);
             if (strategy.isApplicable(job)) {
                 listener.getLogger().println(job.getFullName() + " accepted by " + displayName);
+                long start = System.nanoTime();
                 try {
                     strategy.apply(job);
                 } catch (Exception ex) {
                     listener.error("An exception occurred when executing " + displayName + ": " + ex.getMessage());
                     LOGGER.log(Level.WARNING, "An exception occurred when executing " + displayName, ex);
+                } finally {
+                    if (timings != null) {
+                        timings.computeIfAbsent(displayName, k -> new Timing()).add(job, System.nanoTime() - start);
+                    }
                 }
             }
         });
     }
 
+    /**
+     * Time spent by a strategy in one run.
+     */
+    private static final class Timing {
+        private int jobs;
+        private long total;
+        private long slowest;
+        private String slowestJob;
+
+        synchronized void add(Job job, long nanos) {
+            jobs++;
+            total += nanos;
+            if (nanos > slowest) {
+                slowest = nanos;
+                slowestJob = job.getFullName();
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "applied to " + jobs + " jobs in " + Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(total))
+                    + ", longest for " + slowestJob + " (" + Util.getTimeSpanString(TimeUnit.NANOSECONDS.toMillis(slowest)) + ")";
+        }
+    }
+
+    /**
+     * Notes that a job needs to be processed in the next run.
+     */
+    static void changed(Job<?, ?> job) {
+        ExtensionList.lookupSingleton(BackgroundGlobalBuildDiscarder.class).changed.add(job.getFullName());
+    }
+
     @Override
     public long getRecurrencePeriod() {
         return HOUR;
     }
+
+    /**
+     * Notes jobs reconfigured, since their own build discarder may have changed.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static class ItemListenerImpl extends ItemListener {
+        @Override
+        public void onCreated(Item item) {
+            if (item instanceof Job) {
+                changed((Job<?, ?>) item);
+            }
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            if (item instanceof Job) {
+                changed((Job<?, ?>) item);
+            }
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            if (item instanceof Job) {
+                changed((Job<?, ?>) item);
+            } else if (item instanceof ItemGroup) {
+                for (Job<?, ?> job : ((ItemGroup<?>) item).getAllItems(Job.class)) {
+                    changed(job);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,417 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.listeners.ItemListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import javax.annotation.CheckForNull;
+import jenkins.util.SystemProperties;
+import jenkins.util.io.PathRemover;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Removes the directories of deleted builds in the background.
+ *
+ * <p>
+ * {@link hudson.model.Run#delete} renames the build directory to a hidden tombstone next to it,
+ * which is quick and makes the build disappear at once, and leaves the tombstone here to remove.
+ * Tombstones are removed one at a time, at most {@link #FILES_PER_SECOND} files a second,
+ * so that deleting many large builds does not saturate the disk, or the file server, builds run from.
+ * Pending tombstones are listed in {@link #JOURNAL} so that they are still removed after a restart.
+ * Since tombstones move along with their job when it is renamed or moved,
+ * the builds directories of jobs that moved, or of all jobs after a restart with removals pending, are searched for them.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public final class BuildDirectoryRemover {
+
+    private static final Logger LOGGER = Logger.getLogger(BuildDirectoryRemover.class.getName());
+
+    /**
+     * Set to false to remove build directories while {@link hudson.model.Run#delete} waits, as before.
+     */
+    static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(BuildDirectoryRemover.class.getName() + ".enabled", true);
+
+    /**
+     * How many files a second may be removed, or 0 for no limit.
+     */
+    static /* non-final for Groovy */ int FILES_PER_SECOND = SystemProperties.getInteger(BuildDirectoryRemover.class.getName() + ".filesPerSecond", 2000);
+
+    /**
+     * Name of the file in {@code JENKINS_HOME} listing tombstones not yet removed, one path per line.
+     */
+    static final String JOURNAL = "deleted-builds.txt";
+
+    /**
+     * Names given by {@link #tombstoneFor} when enabled.
+     */
+    private static final Pattern TOMBSTONE = Pattern.compile("\\..+~[0-9a-z]+(-[0-9]+)?");
+
+    /**
+     * Single thread, which goes away when idle, so that nothing lingers once Jenkins is stopped.
+     */
+    private final ThreadPoolExecutor worker = newWorker();
+
+    private static ThreadPoolExecutor newWorker() {
+        ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 5L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "BuildDirectoryRemover"));
+        worker.allowCoreThreadTimeOut(true);
+        return worker;
+    }
+
+    /**
+     * Tombstones queued and not yet removed.
+     * Access is synchronized by {@code BuildDirectoryRemover.this}.
+     */
+    private final Set<File> pending = new LinkedHashSet<>();
+
+    private final AtomicLong directoriesRemoved = new AtomicLong();
+    private final AtomicLong filesRemoved = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong timeSpent = new AtomicLong();
+
+    /**
+     * Values of the counters when {@link #report} last logged them.
+     * Access is synchronized by {@code BuildDirectoryRemover.this}.
+     */
+    private long[] reported = new long[4];
+
+    static @CheckForNull BuildDirectoryRemover get() {
+        return Jenkins.getInstanceOrNull() == null ? null : ExtensionList.lookupSingleton(BuildDirectoryRemover.class);
+    }
+
+    /**
+     * Picks a name to rename a build directory to before it is removed.
+     * The name starts with a dot so that it is never taken for a build.
+     */
+    public static File tombstoneFor(File buildDir) {
+        File parent = buildDir.getParentFile();
+        if (!ENABLED) {
+            return new File(parent, '.' + buildDir.getName());
+        }
+        // unique, since an earlier tombstone of a build with the same number may still be there
+        String base = '.' + buildDir.getName() + '~' + Long.toString(System.currentTimeMillis(), 36);
+        File tombstone = new File(parent, base);
+        for (int i = 1; tombstone.exists(); i++) {
+            tombstone = new File(parent, base + '-' + i);
+        }
+        return tombstone;
+    }
+
+    /**
+     * Removes a tombstone, in the background if enabled.
+     *
+     * @param sharedArtifacts digests to {@linkplain ArtifactStore#release release} once the tombstone is gone
+     */
+    public static void remove(File tombstone, Set<String> sharedArtifacts) throws IOException {
+        BuildDirectoryRemover remover = ENABLED ? get() : null;
+        if (remover == null) {
+            Util.deleteRecursive(tombstone);
+            // some user reported that they see some left-over .xyz files in the workspace,
+            // so just to make sure we've really deleted it, schedule the deletion on VM exit, too.
+            if (tombstone.exists()) {
+                tombstone.deleteOnExit();
+            }
+            if (!sharedArtifacts.isEmpty()) {
+                ArtifactStore.get().release(sharedArtifacts);
+            }
+            return;
+        }
+        remover.enqueue(tombstone, sharedArtifacts, true);
+    }
+
+    private void enqueue(File tombstone, Set<String> sharedArtifacts, boolean journal) {
+        synchronized (this) {
+            if (!pending.add(tombstone)) {
+                return;
+            }
+            if (journal) {
+                try {
+                    Files.write(getJournal(), Collections.singleton(tombstone.getAbsolutePath()), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                } catch (IOException x) {
+                    LOGGER.log(Level.WARNING, "failed to record " + tombstone + " in " + getJournal(), x);
+                }
+            }
+        }
+        try {
+            worker.execute(() -> removeNow(tombstone, sharedArtifacts));
+        } catch (RejectedExecutionException x) {
+            // shutting down; the journal has it for the next start
+            LOGGER.log(Level.FINE, "not removing {0} while shutting down", tombstone);
+        }
+    }
+
+    private void removeNow(File tombstone, Set<String> sharedArtifacts) {
+        if (!tombstone.exists()) {
+            // moved along with its job, and queued again from there
+            done(tombstone);
+            return;
+        }
+        long start = System.nanoTime();
+        AtomicInteger files = new AtomicInteger();
+        boolean stopped = false;
+        try {
+            Util.deleteRecursive(tombstone.toPath(), throttle(files, start));
+            if (!sharedArtifacts.isEmpty()) {
+                ArtifactStore.get().release(sharedArtifacts);
+            }
+            directoriesRemoved.incrementAndGet();
+            LOGGER.log(Level.FINE, "removed {0} files in {1}", new Object[] {files.get(), tombstone});
+        } catch (Stopped x) {
+            stopped = true;
+            LOGGER.log(Level.FINE, "stopped removing {0}; the rest is removed after the next start", tombstone);
+        } catch (IOException | RuntimeException x) {
+            failures.incrementAndGet();
+            LOGGER.log(Level.WARNING, "failed to remove " + tombstone, x);
+            if (tombstone.exists()) {
+                tombstone.deleteOnExit();
+            }
+        } finally {
+            filesRemoved.addAndGet(files.get());
+            timeSpent.addAndGet(System.nanoTime() - start);
+            // when stopped, leave it in the journal
+            if (!stopped) {
+                done(tombstone);
+            }
+        }
+    }
+
+    private synchronized void done(File tombstone) {
+        pending.remove(tombstone);
+        if (pending.isEmpty()) {
+            report();
+            // everything recorded has been dealt with, one way or another
+            try {
+                Files.deleteIfExists(getJournal());
+            } catch (IOException x) {
+                LOGGER.log(Level.WARNING, "failed to delete " + getJournal(), x);
+            }
+        }
+    }
+
+    /**
+     * Logs what was removed since the last time nothing was pending,
+     * at INFO if anything failed or it took over a minute.
+     * Caller must hold the lock.
+     */
+    private void report() {
+        long[] now = {directoriesRemoved.get(), filesRemoved.get(), failures.get(), timeSpent.get()};
+        long failed = now[2] - reported[2];
+        long millis = TimeUnit.NANOSECONDS.toMillis(now[3] - reported[3]);
+        LOGGER.log(failed > 0 || millis > TimeUnit.MINUTES.toMillis(1) ? Level.INFO : Level.FINE,
+                "Removed {0} deleted build directories, {1} files, in {2}ms; {3} failed",
+                new Object[] {now[0] - reported[0], now[1] - reported[1], millis, failed});
+        reported = now;
+    }
+
+    /**
+     * Counts the files being removed, slows down to {@link #FILES_PER_SECOND}, and stops when Jenkins does.
+     */
+    private PathRemover.PathChecker throttle(AtomicInteger files, long start) {
+        return path -> {
+            if (worker.isShutdown()) {
+                throw new Stopped();
+            }
+            int n = files.incrementAndGet();
+            int rate = FILES_PER_SECOND;
+            if (rate <= 0) {
+                return;
+            }
+            long ahead = TimeUnit.SECONDS.toNanos(n) / rate - (System.nanoTime() - start);
+            if (ahead > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(ahead);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    /**
+     * Thrown from {@link #throttle} to abandon a removal when Jenkins stops.
+     * Unchecked and not a {@link SecurityException}, so that {@link PathRemover} lets it through as is.
+     */
+    private static final class Stopped extends RuntimeException {
+        Stopped() {
+            super("Jenkins is stopping");
+        }
+    }
+
+    /**
+     * Stops removing tombstones, leaving those not yet removed in the journal for the next start.
+     */
+    @Terminator
+    public void shutDown() throws InterruptedException {
+        worker.shutdownNow();
+        if (!worker.awaitTermination(10, TimeUnit.SECONDS)) {
+            LOGGER.log(Level.WARNING, "Build directory removal did not stop in time");
+        }
+    }
+
+    private Path getJournal() {
+        return new File(Jenkins.get().getRootDir(), JOURNAL).toPath();
+    }
+
+    /**
+     * Queues again the tombstones left over by an earlier run of Jenkins.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public void recover() throws IOException {
+        Path journal = getJournal();
+        if (!Files.isRegularFile(journal)) {
+            return;
+        }
+        int count = 0;
+        for (String line : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+            File tombstone = new File(line);
+            if (!line.isEmpty() && tombstone.getName().startsWith(".") && tombstone.exists()) {
+                // shared artifacts are left to ArtifactStore.Cleanup
+                enqueue(tombstone, Collections.emptySet(), false);
+                count++;
+            }
+        }
+        // tombstones of jobs renamed or moved since they were recorded
+        for (Job<?, ?> job : Jenkins.get().allItems(Job.class)) {
+            count += sweep(job);
+        }
+        LOGGER.log(Level.INFO, "Resuming removal of {0} deleted builds", count);
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                Files.deleteIfExists(journal);
+            }
+        }
+    }
+
+    /**
+     * Queues the tombstones in the builds directory of a job which are not queued yet.
+     * @return how many were queued
+     */
+    private int sweep(Job<?, ?> job) {
+        File[] tombstones = job.getBuildDir().listFiles((dir, name) -> TOMBSTONE.matcher(name).matches());
+        if (tombstones == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File tombstone : tombstones) {
+            synchronized (this) {
+                if (pending.contains(tombstone)) {
+                    continue;
+                }
+            }
+            // shared artifacts are left to ArtifactStore.Cleanup
+            enqueue(tombstone, Collections.emptySet(), true);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Picks up the tombstones of jobs that were renamed or moved, which are no longer where they were queued.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class Mover extends ItemListener {
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            BuildDirectoryRemover remover = ENABLED ? get() : null;
+            if (remover == null) {
+                return;
+            }
+            if (item instanceof Job) {
+                remover.sweep((Job<?, ?>) item);
+            }
+            if (item instanceof ItemGroup) {
+                for (Job<?, ?> job : ((ItemGroup<?>) item).allItems(Job.class)) {
+                    remover.sweep(job);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until all the tombstones queued so far are removed.
+     */
+    public void waitForPending() throws InterruptedException {
+        try {
+            worker.submit(() -> {}).get();
+        } catch (ExecutionException x) {
+            throw new AssertionError(x);
+        }
+    }
+
+    public synchronized int getPending() {
+        return pending.size();
+    }
+
+    public long getDirectoriesRemoved() {
+        return directoriesRemoved.get();
+    }
+
+    public long getFilesRemoved() {
+        return filesRemoved.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Total time spent removing tombstones, in milliseconds.
+     */
+    public long getTimeSpent() {
+        return TimeUnit.NANOSECONDS.toMillis(timeSpent.get());
+    }
+}
@@ -21,6 +21,10 @@ import java.util.logging.Logger;
 import java.util.stream.Stream;
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
+import jenkins.model.lazy.RunSummary;
+import jenkins.model.lazy.LazyBuildMixIn;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
  * Convenient base implementation for {@link Permalink}s that satisfy
@@ -74,6 +78,17 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
      */
     public abstract boolean apply(Run<?,?> run);
 
+    /**
+     * Checks if a build could satisfy the peep-hole criteria, judging from its {@link RunSummary},
+     * so that the search can skip the builds that do not without loading them.
+     *
+     * @return false only if {@link #apply(Run)} would be false for that build
+     */
+    @Restricted(NoExternalUse.class)
+    protected boolean couldApply(@Nonnull RunSummary entry) {
+        return true;
+    }
+
     /** @deprecated No longer used. */
     @Deprecated
     protected File getPermalinkFile(Job<?,?> job) {
@@ -125,11 +140,19 @@ public abstract class PeepholePermalink extends Permalink implements Predicate<R
      */
     private Run<?,?> find(Run<?,?> b) {
         //noinspection StatementWithEmptyBody
-        for ( ; b!=null && !apply(b); b=b.getPreviousBuild())
+        for ( ; b!=null && !apply(b); b=previous(b))
             ;
         return b;
     }
 
+    private Run<?,?> previous(Run<?,?> b) {
+        Job<?,?> j = b.getParent();
+        if (j instanceof LazyBuildMixIn.LazyLoadingJob) {
+            return ((LazyBuildMixIn.LazyLoadingJob<?,?>) j).getLazyBuildMixIn()._getRuns().search(b.getNumber() - 1, this::couldApply);
+        }
+        return b.getPreviousBuild();
+    }
+
     private static @Nonnull Map<String, Integer> cacheFor(@Nonnull File buildDir) {
         synchronized (caches) {
             Map<String, Integer> cache = caches.get(buildDir);
@@ -30,11 +30,20 @@ import hudson.Launcher;
 import hudson.Util;
 import hudson.model.BuildListener;
 import hudson.model.Run;
+import hudson.remoting.VirtualChannel;
 import java.io.File;
 import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.util.SystemProperties;
 import jenkins.util.VirtualFile;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
@@ -54,6 +63,23 @@ public class StandardArtifactManager extends ArtifactManager {
             ? FilePath.TarCompression.NONE
             : FilePath.TarCompression.GZIP;
 
+    /**
+     * Whether archived files are shared between builds through the {@link ArtifactStore}.
+     */
+    @Restricted(NoExternalUse.class)
+    @VisibleForTesting
+    public static /* non-final for Groovy */ boolean DEDUPLICATE = SystemProperties.getBoolean(StandardArtifactManager.class.getName() + ".deduplicate");
+
+    /**
+     * Whether, when {@link #DEDUPLICATE} is on, files are linked from the {@link ArtifactStore} on the strength of the
+     * digest and size the agent reports, without transferring them.
+     * This trusts agents: one that reports the digest of another job's artifact gets a copy of it in its own build.
+     * Otherwise all files are transferred, and shared with earlier builds afterwards.
+     */
+    @Restricted(NoExternalUse.class)
+    @VisibleForTesting
+    public static /* non-final for Groovy */ boolean TRUST_AGENT_DIGESTS = SystemProperties.getBoolean(StandardArtifactManager.class.getName() + ".trustAgentDigests");
+
     protected transient Run<?,?> build;
 
     public StandardArtifactManager(Run<?,?> build) {
@@ -66,10 +92,92 @@ public class StandardArtifactManager extends ArtifactManager {
 
     @Override public void archive(FilePath workspace, Launcher launcher, BuildListener listener, final Map<String,String> artifacts) throws IOException, InterruptedException {
         File dir = getArtifactsDir();
+        if (DEDUPLICATE) {
+            ArtifactStore store = ArtifactStore.get();
+            if (store.isSupported()) {
+                // archive may be called several times for one build, with other content under the same name
+                store.unlink(dir, artifacts.keySet());
+                if (TRUST_AGENT_DIGESTS) {
+                    archiveIncrementally(store, workspace, dir, listener, artifacts);
+                } else {
+                    transfer(workspace, dir, artifacts);
+                    store.add(build.getRootDir(), dir, artifacts.keySet());
+                }
+                return;
+            }
+        }
+        transfer(workspace, dir, artifacts);
+    }
+
+    private static void transfer(FilePath workspace, File dir, Map<String,String> artifacts) throws IOException, InterruptedException {
         String description = "transfer of " + artifacts.size() + " files"; // TODO improve when just one file
         workspace.copyRecursiveTo(new FilePath.ExplicitlySpecifiedDirScanner(artifacts), new FilePath(dir), description, TAR_COMPRESSION);
     }
 
+    /**
+     * Asks the agent for the digests of the artifacts, links those the {@link ArtifactStore} already has,
+     * and transfers only the rest.
+     * Only used with {@link #TRUST_AGENT_DIGESTS}, since no byte of a linked file comes from the agent.
+     */
+    private void archiveIncrementally(ArtifactStore store, FilePath workspace, File dir, BuildListener listener, Map<String,String> artifacts) throws IOException, InterruptedException {
+        Map<String, Digest> manifest = workspace.act(new ComputeDigests(artifacts));
+        Map<String,String> missing = new LinkedHashMap<>(artifacts);
+        Map<String,String> digests = new LinkedHashMap<>();
+        for (String path : artifacts.keySet()) {
+            Digest d = manifest.get(path);
+            if (d != null && store.reuse(new File(dir, path).toPath(), d.md5, d.size)) {
+                missing.remove(path);
+                digests.put(path, d.md5);
+            } else {
+                // computed again once here, in case the file changed in the workspace meanwhile
+                digests.put(path, null);
+            }
+        }
+        if (missing.size() < artifacts.size()) {
+            listener.getLogger().println((artifacts.size() - missing.size()) + " of " + artifacts.size() + " artifacts were already archived by earlier builds");
+        }
+        if (!missing.isEmpty()) {
+            transfer(workspace, dir, missing);
+        }
+        store.add(build.getRootDir(), dir, digests);
+    }
+
+    private static final class Digest implements Serializable {
+        final String md5;
+        final long size;
+
+        Digest(String md5, long size) {
+            this.md5 = md5;
+            this.size = size;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Computes the digests of the regular files among the artifacts, by archived path.
+     */
+    private static final class ComputeDigests extends MasterToSlaveFileCallable<Map<String, Digest>> {
+        private final Map<String,String> artifacts;
+
+        ComputeDigests(Map<String,String> artifacts) {
+            this.artifacts = artifacts;
+        }
+
+        @Override public Map<String, Digest> invoke(File ws, VirtualChannel channel) throws IOException {
+            Map<String, Digest> digests = new HashMap<>();
+            for (Map.Entry<String,String> e : artifacts.entrySet()) {
+                File f = new File(ws, e.getValue());
+                if (Files.isRegularFile(f.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    digests.put(e.getKey(), new Digest(Util.getDigestOf(f), f.length()));
+                }
+            }
+            return digests;
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
     @Override public final boolean delete() throws IOException, InterruptedException {
         File ad = getArtifactsDir();
         if (!ad.exists()) {
@@ -77,7 +185,12 @@ public class StandardArtifactManager extends ArtifactManager {
             return false;
         }
         LOG.log(Level.FINE, "deleting {0} for {1}", new Object[] {ad, build});
+        Set<String> digests = ArtifactStore.digestsOf(build.getRootDir());
         Util.deleteRecursive(ad);
+        if (!digests.isEmpty()) {
+            Files.deleteIfExists(new File(build.getRootDir(), ArtifactStore.MANIFEST).toPath());
+            ArtifactStore.get().release(digests);
+        }
         return true;
     }
 
@@ -29,19 +29,23 @@ import hudson.model.RunMap;
 import java.io.File;
 import java.io.IOException;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.annotation.CheckForNull;
 
 import jenkins.util.MemoryReductionUtil;
+import jenkins.util.Timer;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
@@ -130,9 +134,22 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
 
     /**
      * Build numbers found on disk, in the ascending order.
+     * Null until the build directory is first needed, so that loading a job does not list its builds.
+     * Use {@link #numberOnDisk()} to read it.
      */
     // copy on write
-    private volatile SortedIntList numberOnDisk = new SortedIntList(0);
+    private volatile SortedIntList numberOnDisk;
+
+    /**
+     * Persistent copy of {@link #numberOnDisk}, if {@link #isIndexed}.
+     * Set along with {@link #numberOnDisk}.
+     */
+    private volatile BuildIndex buildIndex;
+
+    /**
+     * Counts the changes to {@link #numberOnDisk}, so that {@link #verifyIndex} can tell it is racing one.
+     */
+    private int modCount;
 
     /**
      * Base directory for data.
@@ -151,8 +168,9 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     protected void initBaseDir(File dir) {
         assert this.dir==null;
         this.dir = dir;
-        if (dir!=null)
-            loadNumberOnDisk();
+        // listed on first use
+        numberOnDisk = null;
+        buildIndex = null;
     }
 
     /**
@@ -171,6 +189,10 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      */
     public final void updateBaseDir(File dir) {
         this.dir = dir;
+        BuildIndex idx = buildIndex;
+        if (idx != null) {
+            idx.setBuildDir(dir);
+        }
     }
     
     /**
@@ -183,10 +205,48 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
     public synchronized void purgeCache() {
         index = new Index();
         fullyLoaded = false;
-        loadNumberOnDisk();
+        numberOnDisk = null;
+        buildIndex = null;
+    }
+
+    /**
+     * Gets {@link #numberOnDisk}, listing the build directory if that has not been done yet.
+     */
+    private SortedIntList numberOnDisk() {
+        SortedIntList list = numberOnDisk;
+        if (list == null) {
+            synchronized (this) {
+                list = numberOnDisk;
+                if (list == null) {
+                    list = loadNumberOnDisk();
+                    numberOnDisk = list;
+                }
+            }
+        }
+        return list;
+    }
+
+    private SortedIntList loadNumberOnDisk() {
+        assert Thread.holdsLock(this);
+        if (dir == null) {
+            // RunMap.load not called yet
+            return new SortedIntList(0);
+        }
+        if (isIndexed()) {
+            BuildIndex idx = BuildIndex.load(dir);
+            if (idx != null) {
+                buildIndex = idx;
+                Timer.get().submit(() -> verifyIndex(idx));
+                return idx.numbers();
+            }
+            SortedIntList list = listNumbersOnDisk();
+            buildIndex = BuildIndex.create(dir, list);
+            return list;
+        }
+        return listNumbersOnDisk();
     }
 
-    private void loadNumberOnDisk() {
+    private SortedIntList listNumbersOnDisk() {
         String[] kids = dir.list();
         if (kids == null) {
             // the job may have just been created
@@ -201,7 +261,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             }
         }
         list.sort();
-        numberOnDisk = list;
+        return list;
     }
 
     public Comparator<? super Integer> comparator() {
@@ -302,7 +362,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      * @since 2.14
      */
     public boolean runExists(int number) {
-        return numberOnDisk.contains(number);
+        return numberOnDisk().contains(number);
     }
 
     /**
@@ -324,7 +384,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         case EXACT:
             return getByNumber(n);
         case ASC:
-            for (int m : numberOnDisk) {
+            for (int m : numberOnDisk()) {
                 if (m < n) {
                     // TODO could be made more efficient with numberOnDisk.find
                     continue;
@@ -337,7 +397,8 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             return null;
         case DESC:
             // TODO again could be made more efficient
-            ListIterator<Integer> iterator = numberOnDisk.listIterator(numberOnDisk.size());
+            SortedIntList numbers = numberOnDisk();
+            ListIterator<Integer> iterator = numbers.listIterator(numbers.size());
             while(iterator.hasPrevious()) {
                 int m = iterator.previous();
                 if (m > n) {
@@ -354,6 +415,39 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         }
     }
 
+    /**
+     * Finds the newest build #M such that M &le; N, skipping without loading them
+     * the builds that the {@link BuildIndex} tells cannot match.
+     *
+     * @param candidate
+     *      whether a build could match, judging from what the index knows about it.
+     *      Builds not indexed in detail are always loaded.
+     * @see #search(int, Direction)
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull R search(final int n, Predicate<RunSummary> candidate) {
+        SortedIntList numbers = numberOnDisk();
+        BuildIndex idx = buildIndex;
+        ListIterator<Integer> iterator = numbers.listIterator(numbers.size());
+        while (iterator.hasPrevious()) {
+            int m = iterator.previous();
+            if (m > n) {
+                continue;
+            }
+            if (idx != null) {
+                RunSummary e = idx.get(m);
+                if (e != null && !candidate.test(e)) {
+                    continue;
+                }
+            }
+            R r = getByNumber(m);
+            if (r != null) {
+                return r;
+            }
+        }
+        return null;
+    }
+
     public R getById(String id) {
         return getByNumber(Integer.parseInt(id));
     }
@@ -387,12 +481,12 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
      */
     @Restricted(NoExternalUse.class)
     public synchronized int maxNumberOnDisk() {
-        return numberOnDisk.max();
+        return numberOnDisk().max();
     }
 
     protected final synchronized void proposeNewNumber(int number) throws IllegalStateException {
         if (number <= maxNumberOnDisk()) {
-            throw new IllegalStateException("JENKINS-27530: cannot create a build with number " + number + " since that (or higher) is already in use among " + numberOnDisk);
+            throw new IllegalStateException("JENKINS-27530: cannot create a build with number " + number + " since that (or higher) is already in use among " + numberOnDisk());
         }
     }
 
@@ -413,12 +507,15 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         BuildReference<R> old = copy.byNumber.put(n,ref);
         index = copy;
 
-        if (!numberOnDisk.contains(n)) {
-            SortedIntList a = new SortedIntList(numberOnDisk);
+        SortedIntList numbers = numberOnDisk();
+        if (!numbers.contains(n)) {
+            SortedIntList a = new SortedIntList(numbers);
             a.add(n);
             a.sort();
             numberOnDisk = a;
+            modCount++;
         }
+        updateIndex(r);
 
         entrySet.clearCache();
 
@@ -453,7 +550,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             synchronized (this) {
                 if (!fullyLoaded) {
                     Index copy = copy();
-                    for (Integer number : numberOnDisk) {
+                    for (Integer number : numberOnDisk()) {
                         if (!copy.byNumber.containsKey(number))
                             load(number, copy);
                     }
@@ -508,6 +605,7 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
             assert old == null || old.get() == null : "tried to overwrite " + old + " with " + ref;
 
             if (editInPlace==null)  index = copy;
+            updateIndex(r);
 
             return r;
         } catch (IOException e) {
@@ -516,6 +614,105 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         return null;
     }
 
+    /**
+     * Checks the {@link BuildIndex} against the build directory, and fixes it if they do not agree.
+     */
+    private void verifyIndex(BuildIndex idx) {
+        int mods;
+        synchronized (this) {
+            mods = modCount;
+        }
+        SortedIntList onDisk = listNumbersOnDisk();
+        synchronized (this) {
+            if (buildIndex != idx || modCount != mods) {
+                // builds came or went meanwhile, so the listing may be outdated; try again next time
+                return;
+            }
+            if (onDisk.equals(numberOnDisk)) {
+                return;
+            }
+            LOGGER.log(Level.INFO, "Build index in {0} was out of date, fixing it", dir);
+            idx.reset(onDisk);
+            numberOnDisk = onDisk;
+            fullyLoaded = false;
+            entrySet.clearCache();
+        }
+    }
+
+    /**
+     * Whether to keep a {@link BuildIndex} rather than list {@link #dir}.
+     */
+    @Restricted(NoExternalUse.class)
+    protected boolean isIndexed() {
+        return false;
+    }
+
+    /**
+     * Summarizes a build for the {@link BuildIndex} and {@link #getSummaries}.
+     * Builds that are not {@link Run}s are only known by their number.
+     */
+    @Restricted(NoExternalUse.class)
+    protected RunSummary summarize(R r) {
+        if (r instanceof Run) {
+            return RunSummary.of((Run<?, ?>) r);
+        }
+        return new RunSummary(getNumberOf(r), 0, 0, false, null, null, null);
+    }
+
+    /**
+     * Records the current state of a build in the {@link BuildIndex}, if it is one of ours.
+     */
+    @Restricted(NoExternalUse.class)
+    public void updateIndex(R r) {
+        BuildIndex idx = buildIndex;
+        if (idx != null && numberOnDisk().contains(getNumberOf(r))) {
+            idx.update(summarize(r));
+        }
+    }
+
+    /**
+     * Summarizes the builds, newest first.
+     * Builds already in memory are summarized as they are now,
+     * other builds are summarized from the {@link BuildIndex}, and only loaded if it knows nothing about them.
+     *
+     * @param limit maximum number of summaries to return
+     */
+    @Restricted(NoExternalUse.class)
+    public List<RunSummary> getSummaries(int limit) {
+        SortedIntList numbers = numberOnDisk();
+        BuildIndex idx = buildIndex;
+        Index snapshot = index;
+        List<RunSummary> summaries = new ArrayList<>(Math.min(limit, numbers.size()));
+        ListIterator<Integer> iterator = numbers.listIterator(numbers.size());
+        while (iterator.hasPrevious() && summaries.size() < limit) {
+            int n = iterator.previous();
+            R r = unwrap(snapshot.byNumber.get(n));
+            RunSummary s = r == null && idx != null ? idx.get(n) : null;
+            if (s == null) {
+                if (r == null) {
+                    r = getByNumber(n);
+                }
+                if (r == null) {
+                    continue;
+                }
+                s = summarize(r);
+            }
+            summaries.add(s);
+        }
+        return summaries;
+    }
+
+    /**
+     * Gets the {@link BuildIndex}, listing the build directory if there is none yet.
+     *
+     * @return null unless {@link #isIndexed}
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull BuildIndex getBuildIndex() {
+        numberOnDisk();
+        return buildIndex;
+    }
+
     /**
      * Subtype to provide {@link Run#getNumber()} so that this class doesn't have to depend on it.
      */
@@ -551,9 +748,14 @@ public abstract class AbstractLazyLoadRunMap<R> extends AbstractMap<Integer,R> i
         Index copy = copy();
         int n = getNumberOf(run);
         BuildReference<R> old = copy.byNumber.remove(n);
-        SortedIntList a = new SortedIntList(numberOnDisk);
+        SortedIntList a = new SortedIntList(numberOnDisk());
         a.removeValue(n);
         numberOnDisk = a;
+        modCount++;
+        BuildIndex idx = buildIndex;
+        if (idx != null) {
+            idx.remove(n);
+        }
         this.index = copy;
 
         entrySet.clearCache();
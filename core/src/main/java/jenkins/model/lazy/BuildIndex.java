@@ -0,0 +1,355 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.util.AtomicFileWriter;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Persistent list of the builds of a job, kept in {@code builds/index},
+ * so that {@link AbstractLazyLoadRunMap} knows which builds exist without listing the build directory,
+ * and can give a {@link RunSummary} of them without loading them.
+ *
+ * <p>
+ * The file is a log: each line records a build as tab separated fields, or a build deletion prefixed by {@code -},
+ * and later lines win. It is appended to as builds are created, saved and deleted,
+ * and rewritten when it has grown well beyond the number of builds.
+ * A build only known to exist, for example because it was found on disk but never loaded since,
+ * is recorded by its number alone.
+ *
+ * <p>
+ * The index may drift from the disk, for example if build directories are copied or deleted by hand,
+ * so {@link AbstractLazyLoadRunMap} checks it against the build directory in the background after using it.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class BuildIndex {
+
+    private static final String HEADER = "# build index 2";
+
+    private volatile File buildDir;
+
+    /**
+     * All the known builds, by number.
+     * The value is null for builds known by their number alone.
+     */
+    private final TreeMap<Integer, RunSummary> entries = new TreeMap<>();
+
+    /**
+     * Number of lines in the file, to decide when to compact it.
+     */
+    private int lines;
+
+    private BuildIndex(File buildDir) {
+        this.buildDir = buildDir;
+    }
+
+    /**
+     * Reads the index of a build directory.
+     *
+     * @return null if there is no usable index, in which case the build directory needs to be listed
+     */
+    static @CheckForNull BuildIndex load(@Nonnull File buildDir) {
+        BuildIndex idx = new BuildIndex(buildDir);
+        File file = idx.getFile();
+        try (BufferedReader r = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(r.readLine())) {
+                LOGGER.log(Level.FINE, "ignoring {0} with an unknown format", file);
+                return null;
+            }
+            String line;
+            while ((line = r.readLine()) != null) {
+                idx.lines++;
+                try {
+                    if (line.startsWith("-")) {
+                        idx.entries.remove(Integer.parseInt(line.substring(1)));
+                    } else {
+                        int tab = line.indexOf('\t');
+                        int number = Integer.parseInt(tab == -1 ? line : line.substring(0, tab));
+                        idx.entries.put(number, tab == -1 ? null : parse(number, line));
+                    }
+                } catch (IllegalArgumentException x) {
+                    // most likely a line cut short by a crash, and nothing can follow it
+                    LOGGER.log(Level.FINE, "ignoring the end of " + file, x);
+                    break;
+                }
+            }
+        } catch (FileNotFoundException | NoSuchFileException x) {
+            return null;
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to read " + file, x);
+            return null;
+        }
+        if (idx.lines > COMPACTION_THRESHOLD + 2 * idx.entries.size()) {
+            synchronized (idx) {
+                idx.save();
+            }
+        }
+        return idx;
+    }
+
+    /**
+     * Creates a new index from the listing of a build directory.
+     */
+    static @Nonnull BuildIndex create(@Nonnull File buildDir, @Nonnull SortedIntList numbers) {
+        BuildIndex idx = new BuildIndex(buildDir);
+        idx.reset(numbers);
+        return idx;
+    }
+
+    File getFile() {
+        return new File(buildDir, "index");
+    }
+
+    void setBuildDir(File buildDir) {
+        this.buildDir = buildDir;
+    }
+
+    /**
+     * Gets the numbers of all the builds, in the ascending order.
+     */
+    synchronized SortedIntList numbers() {
+        SortedIntList list = new SortedIntList(entries.size());
+        for (int n : entries.keySet()) {
+            list.add(n);
+        }
+        return list;
+    }
+
+    /**
+     * Gets what is known about a build.
+     *
+     * @return null if there is no such build, or nothing is known about it but its number
+     */
+    public synchronized @CheckForNull RunSummary get(int number) {
+        return entries.get(number);
+    }
+
+    /**
+     * Records a build, if anything changed about it.
+     */
+    synchronized void update(@Nonnull RunSummary s) {
+        if (!s.equals(entries.put(s.getNumber(), s))) {
+            append(format(s));
+        }
+    }
+
+    /**
+     * Records that a build is gone.
+     */
+    synchronized void remove(int number) {
+        if (entries.containsKey(number)) {
+            entries.remove(number);
+            append("-" + number);
+        }
+    }
+
+    /**
+     * Replaces the list of builds with the given one, keeping what is known about the builds that remain.
+     */
+    synchronized void reset(@Nonnull SortedIntList numbers) {
+        TreeMap<Integer, RunSummary> old = new TreeMap<>(entries);
+        entries.clear();
+        for (int n : numbers) {
+            entries.put(n, old.get(n));
+        }
+        save();
+    }
+
+    private void append(String line) {
+        assert Thread.holdsLock(this);
+        if (lines > COMPACTION_THRESHOLD + 2 * entries.size()) {
+            save();
+            return;
+        }
+        File file = getFile();
+        try (Writer w = new OutputStreamWriter(Files.newOutputStream(file.toPath(), StandardOpenOption.APPEND), StandardCharsets.UTF_8)) {
+            w.write(line);
+            w.write('\n');
+            lines++;
+        } catch (NoSuchFileException x) {
+            // deleted behind our back, or the job was just created
+            save();
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to update " + file, x);
+        }
+    }
+
+    private void save() {
+        assert Thread.holdsLock(this);
+        File file = getFile();
+        if (!buildDir.isDirectory()) {
+            // no builds yet; written with the first one
+            return;
+        }
+        try (AtomicFileWriter w = new AtomicFileWriter(file)) {
+            try {
+                w.write(HEADER);
+                w.write('\n');
+                for (Map.Entry<Integer, RunSummary> e : entries.entrySet()) {
+                    w.write(e.getValue() != null ? format(e.getValue()) : e.getKey().toString());
+                    w.write('\n');
+                }
+                w.commit();
+                lines = entries.size();
+            } finally {
+                w.abort();
+            }
+        } catch (IOException x) {
+            LOGGER.log(Level.WARNING, "failed to write " + file, x);
+        }
+    }
+
+    /**
+     * Formats a line of the index file.
+     */
+    static String format(RunSummary s) {
+        StringBuilder b = new StringBuilder();
+        b.append(s.getNumber()).append('\t').append(s.getTimestamp()).append('\t').append(s.getDuration()).append('\t')
+                .append(s.isBuilding() ? "-" : s.getResult() == null ? "?" : s.getResult().toString()).append('\t');
+        if (s.hasCustomDisplayName()) {
+            escape(s.getDisplayName(), b);
+        }
+        b.append('\t');
+        if (s.getDescription() != null) {
+            escape(s.getDescription(), b);
+        }
+        return b.toString();
+    }
+
+    /**
+     * Parses a line written by {@link #format}.
+     *
+     * @throws IllegalArgumentException if the line is malformed
+     */
+    static RunSummary parse(int number, String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 6) {
+            throw new IllegalArgumentException("malformed line: " + line);
+        }
+        long timestamp = Long.parseLong(fields[1]);
+        long duration = Long.parseLong(fields[2]);
+        boolean building = fields[3].equals("-");
+        Result result = building || fields[3].equals("?") ? null : Result.fromString(fields[3]);
+        return new RunSummary(number, timestamp, duration, building, result, unescape(fields[4]), unescape(fields[5]));
+    }
+
+    private static void escape(String s, StringBuilder b) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '\\':
+                b.append("\\\\");
+                break;
+            case '\t':
+                b.append("\\t");
+                break;
+            case '\n':
+                b.append("\\n");
+                break;
+            case '\r':
+                b.append("\\r");
+                break;
+            default:
+                b.append(c);
+            }
+        }
+    }
+
+    private static @CheckForNull String unescape(String s) {
+        if (s.isEmpty()) {
+            return null;
+        }
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' && i + 1 < s.length()) {
+                c = s.charAt(++i);
+                b.append(c == 't' ? '\t' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+
+    /**
+     * Keeps the index up to date as builds get saved, which covers their completion
+     * as well as later changes such as a new display name.
+     */
+    @Extension
+    public static final class SaveableListenerImpl extends SaveableListener {
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof Run) {
+                Job<?, ?> job = ((Run<?, ?>) o).getParent();
+                if (job instanceof LazyBuildMixIn.LazyLoadingJob) {
+                    AbstractLazyLoadRunMap runs = ((LazyBuildMixIn.LazyLoadingJob<?, ?>) job).getLazyBuildMixIn().getRunMap();
+                    runs.updateIndex(o);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether {@link hudson.model.RunMap} keeps a build index.
+     * Off by default, since the index is a new file in every build directory that tools looking at the
+     * {@code builds} directory may not expect; builds are then listed and loaded as before.
+     */
+    public static /* non-final for Groovy */ boolean ENABLED = SystemProperties.getBoolean(BuildIndex.class.getName() + ".enabled");
+
+    /**
+     * Number of superseded lines the index file may accumulate before it gets rewritten.
+     */
+    private static final int COMPACTION_THRESHOLD = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(BuildIndex.class.getName());
+}
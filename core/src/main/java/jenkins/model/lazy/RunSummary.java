@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model.lazy;
+
+import hudson.Util;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import java.util.Objects;
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+/**
+ * The few facts about a {@link Run} that lists and charts of builds need,
+ * which can usually be had without loading the build.
+ *
+ * <p>
+ * Summaries are kept in the {@link BuildIndex} of the job, so they reflect the build as of its last save.
+ * In particular a summary may claim a build is still {@linkplain #isBuilding() building}
+ * when it was in fact interrupted by a restart.
+ *
+ * @see Job#getBuildSummaries()
+ * @since TODO
+ */
+@ExportedBean(defaultVisibility = 2)
+public final class RunSummary {
+    private final int number;
+    private final long timestamp;
+    private final long duration;
+    private final boolean building;
+    private final @CheckForNull Result result;
+    private final @CheckForNull String displayName;
+    private final @CheckForNull String description;
+
+    RunSummary(int number, long timestamp, long duration, boolean building, @CheckForNull Result result,
+               @CheckForNull String displayName, @CheckForNull String description) {
+        this.number = number;
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.building = building;
+        this.result = result;
+        this.displayName = displayName;
+        this.description = description;
+    }
+
+    /**
+     * Summarizes a loaded build.
+     */
+    public static @Nonnull RunSummary of(@Nonnull Run<?, ?> r) {
+        boolean building = r.isBuilding();
+        return new RunSummary(r.getNumber(), r.getTimeInMillis(), r.getDuration(), building,
+                building ? null : r.getResult(), r.hasCustomDisplayName() ? Util.fixEmpty(r.getDisplayName()) : null,
+                Util.fixEmpty(r.getDescription()));
+    }
+
+    /**
+     * @see Run#getNumber()
+     */
+    @Exported
+    public int getNumber() {
+        return number;
+    }
+
+    /**
+     * @see Run#getTimeInMillis()
+     */
+    @Exported
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @see Run#getDuration()
+     */
+    @Exported
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @see Run#isBuilding()
+     */
+    @Exported
+    public boolean isBuilding() {
+        return building;
+    }
+
+    /**
+     * @return null while {@link #isBuilding}
+     * @see Run#getResult()
+     */
+    @Exported
+    public @CheckForNull Result getResult() {
+        return result;
+    }
+
+    /**
+     * @see Run#getDisplayName()
+     */
+    @Exported
+    public @Nonnull String getDisplayName() {
+        return displayName != null ? displayName : "#" + number;
+    }
+
+    /**
+     * @see Run#hasCustomDisplayName()
+     */
+    public boolean hasCustomDisplayName() {
+        return displayName != null;
+    }
+
+    /**
+     * @see Run#getDescription()
+     */
+    @Exported
+    public @CheckForNull String getDescription() {
+        return description;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RunSummary)) {
+            return false;
+        }
+        RunSummary s = (RunSummary) o;
+        return number == s.number && timestamp == s.timestamp && duration == s.duration && building == s.building
+                && Objects.equals(result, s.result) && Objects.equals(displayName, s.displayName)
+                && Objects.equals(description, s.description);
+    }
+
+    @Override
+    public int hashCode() {
+        return number;
+    }
+
+    @Override
+    public String toString() {
+        return "RunSummary[" + getDisplayName() + "," + (building ? "building" : result) + "]";
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nonnull;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Serves a file from a {@link FileChannel}, as an alternative to
+ * {@link StaplerResponse#serveFile(StaplerRequest, java.io.InputStream, long, long, long, String)}
+ * for large files on the local disk.
+ *
+ * <p>
+ * A single byte range may be requested with a {@code Range} header, so that downloads can be resumed or split.
+ * The file is read by position rather than through a stream.
+ * When the container supports it, it is written out with non-blocking I/O,
+ * so that the request thread is not held while a slow client takes minutes to download a large file.
+ *
+ * @since TODO
+ */
+@Restricted(NoExternalUse.class)
+public final class FileDownload {
+
+    private FileDownload() {}
+
+    /**
+     * Sends a file.
+     *
+     * @param ch the file, closed once sent
+     * @param lastModified when the file was last modified, or 0 if unknown
+     * @param fileName name from which to guess the content type
+     */
+    public static void serve(@Nonnull StaplerRequest req, @Nonnull StaplerResponse rsp, @Nonnull FileChannel ch,
+                             long lastModified, @Nonnull String fileName) throws IOException {
+        boolean handedOff = false;
+        try {
+            long length = ch.size();
+            if (lastModified > 0) {
+                long since = dateHeader(req, "If-Modified-Since");
+                if (since >= 0 && lastModified / 1000 <= since / 1000) {
+                    rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    return;
+                }
+                rsp.setDateHeader("Last-Modified", lastModified);
+            }
+            String contentType = req.getServletContext().getMimeType(fileName);
+            rsp.setContentType(contentType != null ? contentType : "application/octet-stream");
+            rsp.setHeader("Accept-Ranges", "bytes");
+
+            long start = 0;
+            long end = length;
+            String range = req.getHeader("Range");
+            if (range != null && isRangeApplicable(req, lastModified)) {
+                long[] r = parseRange(range, length);
+                if (r != null && r.length == 0) {
+                    rsp.setHeader("Content-Range", "bytes */" + length);
+                    rsp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (r != null) {
+                    start = r[0];
+                    end = r[1];
+                    rsp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    rsp.setHeader("Content-Range", "bytes " + start + "-" + (end - 1) + "/" + length);
+                }
+            }
+            rsp.setContentLengthLong(end - start);
+            if (req.getMethod().equals("HEAD")) {
+                return;
+            }
+
+            if (ASYNC && req.isAsyncSupported()) {
+                new AsyncCopy(req.startAsync(), ch, start, end).start();
+                handedOff = true;
+            } else {
+                WritableByteChannel out = Channels.newChannel(rsp.getOutputStream());
+                long pos = start;
+                while (pos < end) {
+                    long n = ch.transferTo(pos, end - pos, out);
+                    if (n <= 0) {
+                        throw new EOFException("file shrank while being sent");
+                    }
+                    pos += n;
+                }
+            }
+        } finally {
+            if (!handedOff) {
+                ch.close();
+            }
+        }
+    }
+
+    /**
+     * Parses a {@code Range} header, supporting a single range of bytes.
+     *
+     * @return the start and end (exclusive) offsets, an empty array if the range cannot be satisfied,
+     *         or null if the header is to be ignored and the whole file sent
+     */
+    static long[] parseRange(String header, long length) {
+        header = header.trim();
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // the last N bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return new long[0];
+                }
+                return new long[] {Math.max(0, length - suffix), length};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length : Long.parseLong(last) + 1;
+            if (start < 0 || end <= start) {
+                return null;
+            }
+            if (start >= length) {
+                return new long[0];
+            }
+            return new long[] {start, Math.min(end, length)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks an {@code If-Range} header, which asks for the whole file if it changed since the client got part of it.
+     * Only dates are supported, as no entity tags are sent.
+     */
+    private static boolean isRangeApplicable(StaplerRequest req, long lastModified) {
+        if (req.getHeader("If-Range") == null) {
+            return true;
+        }
+        long date = dateHeader(req, "If-Range");
+        return date >= 0 && lastModified > 0 && lastModified / 1000 == date / 1000;
+    }
+
+    private static long dateHeader(StaplerRequest req, String name) {
+        try {
+            return req.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the file out as the client is ready to receive it.
+     */
+    private static final class AsyncCopy implements WriteListener {
+        private final AsyncContext context;
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        private final long end;
+        private long pos;
+        private ServletOutputStream out;
+
+        AsyncCopy(AsyncContext context, FileChannel ch, long start, long end) {
+            this.context = context;
+            this.ch = ch;
+            this.pos = start;
+            this.end = end;
+        }
+
+        void start() throws IOException {
+            // a large download to a slow client may take a while
+            context.setTimeout(0);
+            out = context.getResponse().getOutputStream();
+            out.setWriteListener(this);
+        }
+
+        @Override
+        public void onWritePossible() throws IOException {
+            while (out.isReady()) {
+                if (pos >= end) {
+                    ch.close();
+                    context.complete();
+                    return;
+                }
+                buf.clear();
+                buf.limit((int) Math.min(buf.capacity(), end - pos));
+                int n = ch.read(buf, pos);
+                if (n < 0) {
+                    throw new EOFException("file shrank while being sent");
+                }
+                pos += n;
+                out.write(buf.array(), 0, n);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            // typically the client went away
+            LOGGER.log(Level.FINE, "failed to send a file", t);
+            try {
+                ch.close();
+            } catch (IOException x) {
+                LOGGER.log(Level.FINE, null, x);
+            }
+            context.complete();
+        }
+    }
+
+    /**
+     * Whether to write files out with non-blocking I/O when the container supports it.
+     */
+    public static /* non-final for Groovy */ boolean ASYNC = SystemProperties.getBoolean(FileDownload.class.getName() + ".async", true);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(FileDownload.class.getName());
+}
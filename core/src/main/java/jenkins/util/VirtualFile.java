@@ -42,8 +42,10 @@ import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -316,6 +318,18 @@ public abstract class VirtualFile implements Comparable<VirtualFile>, Serializab
      */
     public abstract InputStream open() throws IOException;
 
+    /**
+     * Opens a channel on the file, if it is a file on the local disk,
+     * so that it can be served without going through {@link #open}.
+     * @return null by default
+     * @throws IOException if it could not be opened
+     * @since TODO
+     */
+    @Restricted(NoExternalUse.class)
+    public @CheckForNull FileChannel openChannel() throws IOException {
+        return null;
+    }
+
     /**
      * Does case-insensitive comparison.
      * {@inheritDoc}
@@ -541,6 +555,16 @@ public abstract class VirtualFile implements Comparable<VirtualFile>, Serializab
                     throw new IOException(e);
                 }
             }
+            @Override public FileChannel openChannel() throws IOException {
+                if (isIllegalSymlink()) {
+                    throw new FileNotFoundException(f.getPath());
+                }
+                try {
+                    return FileChannel.open(f.toPath(), StandardOpenOption.READ);
+                } catch (InvalidPathException e) {
+                    throw new IOException(e);
+                }
+            }
 
         private boolean isIllegalSymlink() {
             try {
@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConsoleLineIndexTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void findLine() throws Exception {
+        File log = tmp.newFile("log");
+        File index = new File(tmp.getRoot(), "log-lines");
+        try (OutputStream out = ConsoleLineIndex.record(new FileOutputStream(log), 0, index)) {
+            for (int i = 0; i < 5500; i++) {
+                out.write(("line " + i + "\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        assertEquals(5 * 16, index.length());
+        for (int line : new int[] {0, 1, 999, 1000, 1001, 4999, 5000, 5499}) {
+            assertEquals("line " + line, readLine(log, ConsoleLineIndex.findLine(log, index, line)));
+            assertEquals(ConsoleLineIndex.findLine(log, null, line), ConsoleLineIndex.findLine(log, index, line));
+        }
+        assertEquals(-1, ConsoleLineIndex.findLine(log, index, 5500));
+        assertEquals(-1, ConsoleLineIndex.findLine(log, null, 6000));
+    }
+
+    @Test
+    public void appendingDropsIndex() throws Exception {
+        File index = tmp.newFile("log-lines");
+        OutputStream out = new ByteArrayOutputStream();
+        assertTrue(ConsoleLineIndex.record(out, 10, index) == out);
+        assertFalse(index.exists());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        File index = tmp.newFile("log-lines");
+        OutputStream out = new ByteArrayOutputStream();
+        ConsoleLineIndex.ENABLED = false;
+        try {
+            assertTrue(ConsoleLineIndex.record(out, 0, index) == out);
+        } finally {
+            ConsoleLineIndex.ENABLED = true;
+        }
+        assertFalse(index.exists());
+    }
+
+    @Test
+    public void findTail() throws Exception {
+        File log = tmp.newFile("log");
+        try (OutputStream out = new FileOutputStream(log)) {
+            out.write("a\nb\nc\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals(4, ConsoleLineIndex.findTail(log, 1));
+        assertEquals(2, ConsoleLineIndex.findTail(log, 2));
+        assertEquals(0, ConsoleLineIndex.findTail(log, 3));
+        assertEquals(0, ConsoleLineIndex.findTail(log, 10));
+        try (OutputStream out = new FileOutputStream(log, true)) {
+            out.write("d".getBytes(StandardCharsets.US_ASCII));
+        }
+        assertEquals(6, ConsoleLineIndex.findTail(log, 1));
+    }
+
+    @Test
+    public void copyAndCountLines() throws Exception {
+        byte[] text = "a\nb\nc\nd".getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ConsoleLineIndex.copyLines(new ByteArrayInputStream(text), 1, 2, out);
+        assertEquals("b\nc\n", out.toString("US-ASCII"));
+        out.reset();
+        ConsoleLineIndex.copyLines(new ByteArrayInputStream(text), 3, 5, out);
+        assertEquals("d", out.toString("US-ASCII"));
+        assertEquals(4, ConsoleLineIndex.countLines(new ByteArrayInputStream(text)));
+        assertEquals(0, ConsoleLineIndex.countLines(new ByteArrayInputStream(new byte[0])));
+    }
+
+    private static String readLine(File log, long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(log, "r")) {
+            raf.seek(offset);
+            return raf.readLine();
+        }
+    }
+}
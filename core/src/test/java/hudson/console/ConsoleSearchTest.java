@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package hudson.console;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConsoleSearchTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void fileAndStreamAgree() throws Exception {
+        // several chunks, with lines across their boundaries and no final newline
+        StringBuilder b = new StringBuilder();
+        for (int i = 1; i <= 300000; i++) {
+            b.append("line ").append(i).append('\n');
+        }
+        b.append("line 15 again");
+        byte[] log = b.toString().getBytes(StandardCharsets.US_ASCII);
+        File f = tmp.newFile("log");
+        Files.write(f.toPath(), log);
+
+        StringWriter fromFile = new StringWriter();
+        StringWriter fromStream = new StringWriter();
+        assertEquals(4, new ConsoleSearch("line 15", false, 1, 4, StandardCharsets.UTF_8).search(f, fromFile));
+        new ConsoleSearch("line 15", false, 1, 4, StandardCharsets.UTF_8).search(new ByteArrayInputStream(log), fromStream);
+        assertEquals(fromStream.toString(), fromFile.toString());
+
+        fromFile = new StringWriter();
+        assertEquals(2, new ConsoleSearch("line (299999|15 again)", true, 0, 10, StandardCharsets.UTF_8).search(f, fromFile));
+        assertEquals("299999:line 299999\n--\n300001:line 15 again\n", fromFile.toString());
+    }
+
+    @Test(timeout = 60000)
+    public void catastrophicBacktrackingTimesOut() throws Exception {
+        long timeout = ConsoleSearch.TIMEOUT;
+        ConsoleSearch.TIMEOUT = 200;
+        try {
+            // a short line that the pattern can never match, but only after trying every way of splitting it
+            byte[] log = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\n".getBytes(StandardCharsets.US_ASCII);
+            StringWriter out = new StringWriter();
+            assertEquals(0, new ConsoleSearch("(.*a){25}b", true, 0, 10, StandardCharsets.UTF_8).search(new ByteArrayInputStream(log), out));
+            assertEquals("[search timed out]\n", out.toString());
+        } finally {
+            ConsoleSearch.TIMEOUT = timeout;
+        }
+    }
+
+}
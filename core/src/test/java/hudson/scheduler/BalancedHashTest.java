@@ -0,0 +1,57 @@
+package hudson.scheduler;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import org.junit.Test;
+
+public class BalancedHashTest {
+
+    @Test
+    public void picksLeastUsedMinute() throws Exception {
+        int[] load = new int[60];
+        Arrays.fill(load, 5);
+        load[17] = 1;
+        BalancedHash hash = new BalancedHash(Hash.from("job"), load, null);
+        CronTabList tabs = CronTabList.create("H * * * *", hash);
+        assertArrayEquals(new int[] {17}, hash.getPicks());
+        int[] expected = new int[60];
+        expected[17] = 24;
+        assertArrayEquals(expected, tabs.getMinuteLoad());
+    }
+
+    @Test
+    public void stepsAvoidBusyMinutes() throws Exception {
+        int[] load = new int[60];
+        for (int m = 0; m < 60; m += 15) {
+            load[m] = 10;
+        }
+        BalancedHash hash = new BalancedHash(Hash.from("job"), load, null);
+        CronTabList tabs = CronTabList.create("H/15 * * * *", hash);
+        int[] minutes = tabs.getMinuteLoad();
+        for (int m = 0; m < 60; m += 15) {
+            assertEquals(0, minutes[m]);
+        }
+        assertEquals(4 * 24, Arrays.stream(minutes).sum());
+    }
+
+    @Test
+    public void keepsPreviousPicks() throws Exception {
+        int[] load = new int[60];
+        load[42] = 100;
+        BalancedHash hash = new BalancedHash(Hash.from("job"), load, new int[] {42});
+        CronTabList.create("H * * * *", hash);
+        assertArrayEquals(new int[] {42}, hash.getPicks());
+    }
+
+    @Test
+    public void otherFieldsAsSeeded() throws Exception {
+        int[] load = new int[60];
+        Arrays.fill(load, 3);
+        CronTab balanced = new CronTab("H H * * *", new BalancedHash(Hash.from("job"), load, null));
+        CronTab seeded = new CronTab("H H * * *", Hash.from("job"));
+        assertEquals(seeded.bits[0], balanced.bits[0]); // even load, so the seed decides
+        assertEquals(seeded.bits[1], balanced.bits[1]);
+    }
+}
@@ -0,0 +1,184 @@
+package hudson.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+public class PartitionedExecutionQueueTest {
+
+    private final ExecutorService executors = Executors.newFixedThreadPool(4);
+
+    @After
+    public void shutdown() {
+        executors.shutdownNow();
+    }
+
+    private static class Task implements Runnable {
+        final String partition;
+        final String name;
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+        final AtomicInteger runs = new AtomicInteger();
+
+        Task(String partition, String name, CountDownLatch release) {
+            this.partition = partition;
+            this.name = name;
+            this.release = release;
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Task && name.equals(((Task) o).name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+    }
+
+    @Test
+    public void slowPartitionDoesNotStarveOthers() throws Exception {
+        PartitionedExecutionQueue queue = new PartitionedExecutionQueue(executors, r -> ((Task) r).partition, 2, TimeUnit.MINUTES.toMillis(1));
+        CountDownLatch slowRelease = new CountDownLatch(1);
+        Task[] slow = new Task[4];
+        for (int i = 0; i < slow.length; i++) {
+            slow[i] = new Task("slow", "slow" + i, slowRelease);
+            queue.execute(slow[i]);
+        }
+        assertTrue(slow[0].started.await(10, TimeUnit.SECONDS));
+        assertTrue(slow[1].started.await(10, TimeUnit.SECONDS));
+
+        Task fast = new Task("fast", "fast", new CountDownLatch(0));
+        queue.execute(fast);
+        assertTrue("not held up by the slow partition", fast.started.await(10, TimeUnit.SECONDS));
+
+        List<PartitionedExecutionQueue.PartitionStats> stats = queue.getPartitions();
+        assertEquals("fast", stats.get(0).getName());
+        assertEquals("slow", stats.get(1).getName());
+        assertEquals(2, stats.get(1).getRunning());
+        assertEquals(2, stats.get(1).getWaiting());
+
+        slowRelease.countDown();
+        for (Task t : slow) {
+            assertTrue(t.started.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void hungPartitionsDoNotStarveOthers() throws Exception {
+        PartitionedExecutionQueue queue = new PartitionedExecutionQueue(executors, r -> ((Task) r).partition, 2, 100);
+        queue.setCapacity(4, 1);
+        CountDownLatch hang = new CountDownLatch(1);
+        try {
+            Task[] hung = new Task[6];
+            for (int i = 0; i < hung.length; i++) {
+                String partition = i < 3 ? "a" : "b";
+                hung[i] = new Task(partition, partition + i, hang);
+                queue.execute(hung[i]);
+            }
+            // a takes two threads, b one, and the last one is kept
+            assertTrue(hung[0].started.await(10, TimeUnit.SECONDS));
+            assertTrue(hung[1].started.await(10, TimeUnit.SECONDS));
+            assertTrue(hung[3].started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(200);
+
+            for (int i = 0; i < 5; i++) {
+                Task quick = new Task("c", "c" + i, new CountDownLatch(0));
+                queue.execute(quick);
+                assertTrue("not held up by the hung partitions", quick.started.await(10, TimeUnit.SECONDS));
+            }
+
+            List<PartitionedExecutionQueue.PartitionStats> stats = queue.getPartitions();
+            assertEquals("a", stats.get(0).getName());
+            assertEquals(2, stats.get(0).getRunning());
+            assertEquals(1, stats.get(0).getWaiting());
+            assertEquals("counted as slow while still running", 2, stats.get(0).getSlow());
+            assertEquals(1, stats.get(0).getLimit());
+            assertEquals("b", stats.get(1).getName());
+            assertEquals(1, stats.get(1).getRunning());
+            assertEquals(2, stats.get(1).getWaiting());
+            assertEquals(1, stats.get(1).getSlow());
+            assertEquals(1, stats.get(1).getLimit());
+        } finally {
+            hang.countDown();
+        }
+    }
+
+    @Test
+    public void slowRunsLowerTheLimit() throws Exception {
+        PartitionedExecutionQueue queue = new PartitionedExecutionQueue(executors, r -> ((Task) r).partition, 4, 0);
+        CountDownLatch release = new CountDownLatch(0);
+        Task t = new Task("p", "t", release) {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+                super.run();
+            }
+        };
+        queue.execute(t);
+        assertTrue(t.started.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (queue.getPartitions().get(0).getCompleted() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        PartitionedExecutionQueue.PartitionStats stats = queue.getPartitions().get(0);
+        assertEquals(1, stats.getCompleted());
+        assertEquals(1, stats.getSlow());
+        assertEquals(2, stats.getLimit());
+    }
+
+    @Test
+    public void collapsesEqualRunnables() throws Exception {
+        PartitionedExecutionQueue queue = new PartitionedExecutionQueue(executors, r -> "", 2, TimeUnit.MINUTES.toMillis(1));
+        CountDownLatch release = new CountDownLatch(1);
+        Task t = new Task("", "t", release);
+        queue.execute(t);
+        assertTrue(t.started.await(10, TimeUnit.SECONDS));
+        queue.execute(t);
+        queue.execute(t);
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (queue.getPartitions().get(0).getCompleted() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals("run once more, not twice", 2, t.runs.get());
+    }
+
+    @Test
+    public void rejectedRunnablesWaitForNewExecutors() throws Exception {
+        ExecutorService shutDown = Executors.newSingleThreadExecutor();
+        shutDown.shutdown();
+        PartitionedExecutionQueue queue = new PartitionedExecutionQueue(shutDown, r -> ((Task) r).partition, 1, TimeUnit.MINUTES.toMillis(1));
+        Task t = new Task("p", "t", new CountDownLatch(0));
+        queue.execute(t);
+        assertEquals(0, queue.getPartitions().get(0).getRunning());
+        assertEquals(1, queue.getPartitions().get(0).getWaiting());
+        queue.setExecutors(executors);
+        assertTrue(t.started.await(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,96 @@
+package hudson.util.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.DirScanner;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelZipArchiverTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void entriesKeepVisitOrder() throws Exception {
+        File src = tmp.newFolder("src");
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            File d = new File(src, "d" + i);
+            d.mkdir();
+            Files.write(new File(d, "f.txt").toPath(), ("content " + i).getBytes(StandardCharsets.UTF_8));
+        }
+        File zipFile = tmp.newFile("out.zip");
+        try (OutputStream out = Files.newOutputStream(zipFile.toPath());
+             Archiver archiver = ArchiverFactory.PARALLEL_ZIP.create(out)) {
+            new DirScanner.Full().scan(src, archiver);
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            for (ZipEntry e : Collections.list(zip.entries())) {
+                names.add(e.getName());
+                if (!e.isDirectory()) {
+                    expected.add(e.getName());
+                    assertEquals(ZipEntry.DEFLATED, e.getMethod());
+                    try (InputStream in = zip.getInputStream(e)) {
+                        String i = e.getName().substring("src/d".length(), e.getName().lastIndexOf('/'));
+                        assertEquals("content " + i, IOUtils.toString(in, StandardCharsets.UTF_8));
+                    }
+                }
+            }
+        }
+        assertEquals(50, expected.size());
+        assertEquals("src/", names.get(0));
+        // each directory comes right before its file, as with the sequential archiver
+        for (int i = 1; i < names.size(); i += 2) {
+            assertTrue(names.get(i), names.get(i).endsWith("/"));
+            assertEquals(names.get(i) + "f.txt", names.get(i + 1));
+        }
+    }
+
+    @Test
+    public void storedAndSpilled() throws Exception {
+        int spillSize = ParallelZipArchiver.SPILL_SIZE;
+        ParallelZipArchiver.SPILL_SIZE = 1024;
+        try {
+            File src = tmp.newFolder("src");
+            byte[] data = new byte[100_000];
+            new Random(42).nextBytes(data);
+            Files.write(new File(src, "big.bin").toPath(), data);
+
+            File zipFile = tmp.newFile("out.zip");
+            try (OutputStream out = Files.newOutputStream(zipFile.toPath());
+                 Archiver archiver = ArchiverFactory.STORED_ZIP.create(out)) {
+                new DirScanner.Full().scan(src, archiver);
+            }
+
+            try (ZipFile zip = new ZipFile(zipFile)) {
+                ZipEntry e = zip.getEntry("src/big.bin");
+                assertEquals(ZipEntry.STORED, e.getMethod());
+                assertEquals(data.length, e.getSize());
+                try (InputStream in = zip.getInputStream(e)) {
+                    assertArrayEquals(data, IOUtils.toByteArray(in));
+                }
+            }
+        } finally {
+            ParallelZipArchiver.SPILL_SIZE = spillSize;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import hudson.Util;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArtifactStoreTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ArtifactStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new ArtifactStore(tmp.newFolder("artifacts"));
+        assumeTrue(store.isSupported());
+    }
+
+    @Test
+    public void sameContentIsShared() throws Exception {
+        Path a = write("a", "same content");
+        Path b = write("b", "same content");
+        String md5 = Util.getDigestOf(a.toFile());
+        assertTrue(store.link(a, md5));
+        assertTrue(store.link(b, md5));
+        assertTrue(Files.isSameFile(a, b));
+    }
+
+    @Test
+    public void collidingDigestIsNotShared() throws Exception {
+        Path planted = write("planted", "attacker bytes");
+        Path real = write("real", "genuine bytes!");
+        // pretend both files have the same digest, as a collision would
+        String md5 = Util.getDigestOf(real.toFile());
+        assertTrue(store.link(planted, md5));
+        assertFalse(store.link(real, md5));
+        assertFalse(Files.isSameFile(planted, real));
+        assertEquals("genuine bytes!", FileUtils.readFileToString(real.toFile(), StandardCharsets.UTF_8));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        File f = tmp.newFile(name);
+        FileUtils.writeStringToFile(f, content, StandardCharsets.UTF_8);
+        return f.toPath();
+    }
+
+}
@@ -34,6 +34,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
@@ -129,6 +130,15 @@ public class AbstractLazyLoadRunMapTest {
         assertNull(b.get(5));
     }
 
+    @Test
+    public void summariesOfOtherBuilds() {
+        List<RunSummary> summaries = a.getSummaries(2);
+        assertEquals(2, summaries.size());
+        assertEquals(5, summaries.get(0).getNumber());
+        assertEquals(3, summaries.get(1).getNumber());
+        assertNull(summaries.get(0).getResult());
+    }
+
     @Test
     public void lookup2() {
         assertNull(a.get(6));
@@ -0,0 +1,33 @@
+package jenkins.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileDownloadTest {
+
+    @Test
+    public void ranges() {
+        assertArrayEquals(new long[] {0, 10}, FileDownload.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[] {10, 100}, FileDownload.parseRange("bytes=10-", 100));
+        assertArrayEquals(new long[] {90, 100}, FileDownload.parseRange("bytes=90-200", 100));
+        assertArrayEquals(new long[] {95, 100}, FileDownload.parseRange("bytes=-5", 100));
+        assertArrayEquals(new long[] {0, 100}, FileDownload.parseRange("bytes=-500", 100));
+    }
+
+    @Test
+    public void unsatisfiableRanges() {
+        assertArrayEquals(new long[0], FileDownload.parseRange("bytes=100-", 100));
+        assertArrayEquals(new long[0], FileDownload.parseRange("bytes=-0", 100));
+        assertArrayEquals(new long[0], FileDownload.parseRange("bytes=-5", 0));
+    }
+
+    @Test
+    public void ignoredRanges() {
+        assertNull(FileDownload.parseRange("bytes=0-9,20-29", 100));
+        assertNull(FileDownload.parseRange("bytes=9-0", 100));
+        assertNull(FileDownload.parseRange("bytes=x-", 100));
+        assertNull(FileDownload.parseRange("lines=0-9", 100));
+    }
+}
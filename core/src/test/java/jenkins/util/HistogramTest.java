@@ -0,0 +1,47 @@
+package jenkins.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void bucketsCoverTheirValues() {
+        for (long v : new long[] {0, 1, 7, 8, 9, 15, 16, 31, 32, 1000, 123456789L, Long.MAX_VALUE / 2, Long.MAX_VALUE}) {
+            int b = Histogram.bucket(v);
+            assertTrue(v + " below its bucket", Histogram.lowerBound(b) <= v);
+            if (v < Long.MAX_VALUE / 2) {
+                assertTrue(v + " above its bucket", v < Histogram.lowerBound(b + 1));
+            }
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getP50());
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i);
+        }
+        assertEquals(1000, h.getCount());
+        assertEquals(500, h.getMean());
+        assertEquals(1000, h.getMax());
+        long p50 = h.getP50();
+        assertTrue("p50 was " + p50, p50 >= 500 && p50 <= 500 * 1.125);
+        long p90 = h.getP90();
+        assertTrue("p90 was " + p90, p90 >= 900 && p90 <= 1000);
+        assertEquals(1000, h.getPercentile(100));
+    }
+
+    @Test
+    public void negativeValuesCountAsZero() {
+        Histogram h = new Histogram();
+        h.record(-5);
+        assertEquals(1, h.getCount());
+        assertEquals(0, h.getMax());
+        h.reset();
+        assertEquals(0, h.getCount());
+    }
+}
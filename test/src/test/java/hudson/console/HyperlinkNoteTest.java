@@ -25,6 +25,7 @@
 package hudson.console;
 
 import hudson.model.FreeStyleProject;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -37,6 +38,10 @@ import org.jvnet.hudson.test.JenkinsRule;
 
 import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 public class HyperlinkNoteTest {
@@ -73,6 +78,38 @@ public class HyperlinkNoteTest {
                 containsString(">" + noteTextSanitized + "</a>")));
     }
 
+    @Test
+    public void compactForm() throws Exception {
+        String url = r.getURL().toString()+"test";
+        String serialized = HyperlinkNote.encodeTo(url, "text");
+        String compact;
+        ConsoleNote.COMPACT = true;
+        try {
+            compact = HyperlinkNote.encodeTo(url, "text");
+        } finally {
+            ConsoleNote.COMPACT = false;
+        }
+        assertThat(compact.length(), lessThan(serialized.length()));
+        assertEquals(annotate(serialized), annotate(compact));
+        assertThat(annotate(compact), containsString("href='" + url + "'>text</a>"));
+        assertEquals("a text b\n", plain("a " + compact + " b\n"));
+
+        byte[] b = compact.getBytes(StandardCharsets.US_ASCII);
+        int end = ConsoleNote.findNoteEnd(b, 0, b.length);
+        assertEquals(b.length - "text".length(), end);
+        ConsoleNote n = ConsoleNote.readFrom(b, 0, end);
+        assertThat(n, instanceOf(HyperlinkNote.class));
+        assertSame("decoded once", n, ConsoleNote.readFrom(b.clone(), 0, end));
+    }
+
+    private static String plain(String text) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (PlainTextConsoleOutputStream out = new PlainTextConsoleOutputStream(baos)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return baos.toString("UTF-8");
+    }
+
     private static String annotate(String text) throws IOException {
         StringWriter writer = new StringWriter();
         try (ConsoleAnnotationOutputStream out = new ConsoleAnnotationOutputStream(writer, null, null, StandardCharsets.UTF_8)) {
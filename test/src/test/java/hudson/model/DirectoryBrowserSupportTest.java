@@ -25,6 +25,7 @@ package hudson.model;
 
 import com.gargoylesoftware.htmlunit.Page;
 import com.gargoylesoftware.htmlunit.UnexpectedPage;
+import com.gargoylesoftware.htmlunit.WebRequest;
 import com.gargoylesoftware.htmlunit.html.HtmlPage;
 import hudson.*;
 import hudson.tasks.ArtifactArchiver;
@@ -218,6 +219,34 @@ public class DirectoryBrowserSupportTest {
         return file;
     }
 
+    @Test
+    public void rangeDownload() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setScm(new SingleFileSCM("f.txt", "Hello world!"));
+        p.getPublishersList().add(new ArtifactArchiver("f.txt"));
+        j.buildAndAssertSuccess(p);
+        JenkinsRule.WebClient wc = j.createWebClient();
+        URL url = new URL(j.getURL(), "job/" + p.getName() + "/lastSuccessfulBuild/artifact/f.txt");
+
+        Page whole = wc.getPage(url);
+        assertEquals("Hello world!", whole.getWebResponse().getContentAsString());
+        assertEquals("bytes", whole.getWebResponse().getResponseHeaderValue("Accept-Ranges"));
+
+        WebRequest req = new WebRequest(url);
+        req.setAdditionalHeader("Range", "bytes=6-10");
+        Page part = wc.getPage(req);
+        assertEquals(HttpURLConnection.HTTP_PARTIAL, part.getWebResponse().getStatusCode());
+        assertEquals("bytes 6-10/12", part.getWebResponse().getResponseHeaderValue("Content-Range"));
+        assertEquals("world", part.getWebResponse().getContentAsString());
+
+        req.setAdditionalHeader("Range", "bytes=-1");
+        assertEquals("!", wc.getPage(req).getWebResponse().getContentAsString());
+
+        req.setAdditionalHeader("Range", "bytes=20-");
+        wc.setThrowExceptionOnFailingStatusCode(false);
+        assertEquals(416, wc.getPage(req).getWebResponse().getStatusCode());
+    }
+
     @Issue("JENKINS-49635")
     @Test
     public void externalURLDownload() throws Exception {
@@ -207,4 +207,23 @@ public class ItemGroupMixInTest {
         assertThat(Items.getConfigFile(foo).asString(), containsString("<description/>"));
     }
 
+    @Test public void loadChildrenKeepsAllChildren() throws Exception {
+        MockFolder folder = r.createFolder("folder");
+        for (int i = 0; i < 20; i++) {
+            folder.createProject(FreeStyleProject.class, "job" + i);
+        }
+        MockFolder nested = folder.createProject(MockFolder.class, "nested");
+        nested.createProject(FreeStyleProject.class, "inner");
+
+        r.jenkins.reload();
+
+        folder = r.jenkins.getItemByFullName("folder", MockFolder.class);
+        assertNotNull(folder);
+        assertEquals(21, folder.getItems().size());
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(r.jenkins.getItemByFullName("folder/job" + i, FreeStyleProject.class));
+        }
+        assertNotNull(r.jenkins.getItemByFullName("folder/nested/inner", FreeStyleProject.class));
+    }
+
 }
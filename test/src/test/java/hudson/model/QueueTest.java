@@ -52,6 +52,8 @@ import hudson.model.Queue.WaitingItem;
 import hudson.model.labels.LabelExpression;
 import hudson.model.listeners.SaveableListener;
 import hudson.model.queue.CauseOfBlockage;
+import hudson.model.queue.QueueMetrics;
+import hudson.model.queue.QueueSorter;
 import hudson.model.queue.QueueTaskDispatcher;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.model.queue.ScheduleResult;
@@ -80,6 +82,7 @@ import jenkins.model.Jenkins;
 import jenkins.security.QueueItemAuthenticatorConfiguration;
 import jenkins.security.apitoken.ApiTokenTestHelper;
 import jenkins.triggers.ReverseBuildTrigger;
+import jenkins.util.Timer;
 import org.acegisecurity.Authentication;
 import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.acls.sid.PrincipalSid;
@@ -117,6 +120,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -133,6 +137,7 @@ import java.util.logging.Level;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.lessThan;
 import static org.hamcrest.Matchers.not;
@@ -178,6 +183,36 @@ public class QueueTest {
         assertSame(q.getItems()[0].task,testProject);
     }
 
+    /**
+     * {@link Queue#save} must not write a torn queue while causes are folded into the queued item.
+     */
+    @Test public void persistenceWhileCausesAreFolded() throws Exception {
+        Queue q = r.jenkins.getQueue();
+        r.jenkins.setNumExecutors(0);
+
+        FreeStyleProject testProject = r.createFreeStyleProject("test");
+        testProject.scheduleBuild(new UserIdCause());
+        assertEquals(1, q.getItems().length);
+
+        Future<?> folding = Timer.get().submit(() -> {
+            for (int i = 0; i < 500; i++) {
+                testProject.scheduleBuild(new RemoteCause("host" + i, null));
+            }
+        });
+        while (!folding.isDone()) {
+            q.save();
+        }
+        folding.get();
+        q.save();
+
+        q.clear();
+        assertEquals(0, q.getItems().length);
+        q.load();
+        assertEquals(1, q.getItems().length);
+        assertSame(testProject, q.getItems()[0].task);
+        assertEquals(501, q.getItems()[0].getCauses().size());
+    }
+
     /**
      * Make sure the queue can be reconstructed from a List queue.xml.
      * Prior to the Queue.State class, the Queue items were just persisted as a List.
@@ -1197,6 +1232,152 @@ public class QueueTest {
         r.buildAndAssertSuccess(brokenProject);
     }
 
+    @Test
+    public void incrementalMaintenance() throws Exception {
+        boolean incremental = Queue.INCREMENTAL_MAINTENANCE;
+        long interval = Queue.FULL_MAINTENANCE_INTERVAL;
+        Queue.INCREMENTAL_MAINTENANCE = true;
+        // only change tracking can unblock the second build
+        Queue.FULL_MAINTENANCE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+        try {
+            FreeStyleProject p = r.createFreeStyleProject();
+            p.getBuildersList().add(new SleepBuilder(2000));
+            QueueTaskFuture<FreeStyleBuild> first = p.scheduleBuild2(0);
+            first.waitForStart();
+            QueueTaskFuture<FreeStyleBuild> second = p.scheduleBuild2(0);
+            r.assertBuildStatusSuccess(first);
+            r.assertBuildStatusSuccess(second.get(30, TimeUnit.SECONDS));
+        } finally {
+            Queue.INCREMENTAL_MAINTENANCE = incremental;
+            Queue.FULL_MAINTENANCE_INTERVAL = interval;
+        }
+    }
+
+    @Test
+    public void batchSchedule() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        FreeStyleProject a = r.createFreeStyleProject("a");
+        FreeStyleProject b = r.createFreeStyleProject("b");
+        Queue q = r.jenkins.getQueue();
+        WaitingItem existing = q.schedule(a, 0);
+
+        Map<Queue.Task, List<Action>> tasks = new LinkedHashMap<>();
+        tasks.put(a, Collections.singletonList(new CauseAction(new Cause.UserIdCause())));
+        tasks.put(b, Collections.emptyList());
+        List<ScheduleResult> results = q.schedule2(tasks, 0);
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isCreated());
+        assertEquals(existing.getId(), results.get(0).getItem().getId());
+        assertTrue(results.get(1).isCreated());
+        assertEquals(2, q.getItems().length);
+    }
+
+    @Test
+    public void metrics() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject();
+        r.buildAndAssertSuccess(p);
+        QueueMetrics metrics = r.jenkins.getQueue().getMetrics();
+        assertThat(metrics.getMaintenance().getCount(), greaterThan(0L));
+        assertEquals(1, metrics.getBuildable().getCount());
+
+        JenkinsRule.JSONWebResponse json = r.getJSON("queue/metrics/api/json");
+        assertTrue(json.getJSONObject().has("maintenance"));
+        assertTrue(json.getJSONObject().has("dispatchers"));
+    }
+
+    @Test
+    public void labelIndexedOffers() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        DumbSlave exclusive = r.createOnlineSlave(Label.get("special"));
+        exclusive.setMode(Node.Mode.EXCLUSIVE);
+        DumbSlave other = r.createOnlineSlave(Label.get("other"));
+
+        FreeStyleProject labeled = r.createFreeStyleProject();
+        labeled.setAssignedLabel(Label.parseExpression("special && !other"));
+        assertEquals(exclusive, r.buildAndAssertSuccess(labeled).getBuiltOn());
+
+        FreeStyleProject unlabeled = r.createFreeStyleProject();
+        assertEquals(other, r.buildAndAssertSuccess(unlabeled).getBuiltOn());
+    }
+
+    @Test
+    public void duplicatesAndCancelWithManyBlockedItems() throws Exception {
+        Queue q = r.jenkins.getQueue();
+        List<TestTask> tasks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            TestTask t = new TestTask(new AtomicInteger(), true);
+            tasks.add(t);
+            assertTrue(q.schedule2(t, 0).isCreated());
+        }
+        q.maintain();
+        assertEquals(500, q.getBlockedItems().size());
+        for (TestTask t : tasks) {
+            assertFalse(q.schedule2(new TestTask(t.cnt, true), 0).isCreated());
+        }
+        for (int i = 0; i < tasks.size(); i += 2) {
+            assertTrue(q.cancel(tasks.get(i)));
+        }
+        assertEquals(250, q.getBlockedItems().size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertEquals(i % 2 == 1, q.getItem(tasks.get(i)) != null);
+        }
+        // cancelled tasks are forgotten, so they can be scheduled again
+        assertTrue(q.schedule2(tasks.get(0), 0).isCreated());
+        assertFalse(q.schedule2(tasks.get(1), 0).isCreated());
+    }
+
+    @Test
+    public void decisionHandlersSeeConcurrentSchedules() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        FreeStyleProject a = r.createFreeStyleProject("a");
+        FreeStyleProject b = r.createFreeStyleProject("b");
+        Queue q = r.jenkins.getQueue();
+        Future<ScheduleResult> first = Timer.get().submit(() -> q.schedule2(a, 0));
+        Future<ScheduleResult> second = Timer.get().submit(() -> q.schedule2(b, 0));
+        assertEquals("only one of a and b may be in the queue", 1,
+                (first.get().isCreated() ? 1 : 0) + (second.get().isCreated() ? 1 : 0));
+        assertEquals(1, q.getItems().length);
+    }
+
+    @TestExtension("decisionHandlersSeeConcurrentSchedules")
+    public static class OneOfAAndB extends Queue.QueueDecisionHandler {
+        @Override
+        public boolean shouldSchedule(Queue.Task p, List<Action> actions) {
+            if (!(p instanceof FreeStyleProject)) {
+                return true;
+            }
+            boolean queued = Queue.getInstance().getItems().length > 0;
+            try {
+                // give a concurrent schedule2 time to get in the way
+                Thread.sleep(500);
+            } catch (InterruptedException x) {
+                Thread.currentThread().interrupt();
+            }
+            return !queued;
+        }
+    }
+
+    @Test
+    public void sorterCannotBreakDuplicateDetection() throws Exception {
+        r.jenkins.setNumExecutors(0);
+        Queue q = r.jenkins.getQueue();
+        q.setSorter(new QueueSorter() {
+            @Override
+            public void sortBuildableItems(List<Queue.BuildableItem> buildables) {
+                List<Queue.BuildableItem> copy = new ArrayList<>(buildables);
+                buildables.clear();
+                buildables.addAll(0, copy);
+            }
+        });
+        TestTask t = new TestTask(new AtomicInteger());
+        assertTrue(q.schedule2(t, 0).isCreated());
+        q.maintain();
+        assertEquals(1, q.getBuildableItems().size());
+        assertFalse(q.schedule2(new TestTask(t.cnt), 0).isCreated());
+        assertTrue(q.cancel(t));
+        assertTrue(q.isEmpty());
+    }
+
     public static class BrokenAffinityKeyProject extends Project<BrokenAffinityKeyProject, BrokenAffinityKeyBuild> implements TopLevelItem {
         public BrokenAffinityKeyProject(ItemGroup parent, String name) {
             super(parent, name);
@@ -1,8 +1,14 @@
 package hudson.model;
 
 import hudson.model.queue.QueueTaskFuture;
+import java.io.File;
+import java.util.List;
+import jenkins.model.lazy.BuildIndex;
+import jenkins.model.lazy.RunSummary;
+import org.apache.commons.io.FileUtils;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
+import net.sf.json.JSONObject;
 import static org.junit.Assert.*;
 import org.junit.Rule;
 import org.junit.Test;
@@ -123,4 +129,66 @@ public class RunMapTest {
         assertEquals(0, runs.size());
     }
 
+    @Issue("JENKINS-27530")
+    @Test public void improperNextBuildNumberAfterReload() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p);
+        p.getNextBuildNumberFile().write("1");
+        r.jenkins.reload();
+        p = r.jenkins.getItemByFullName("p", FreeStyleProject.class);
+        assertEquals(3, r.buildAndAssertSuccess(p).getNumber());
+    }
+
+    @Test public void buildIndex() throws Exception {
+        BuildIndex.ENABLED = true;
+        try {
+            FreeStyleProject p = r.createFreeStyleProject("p");
+            r.buildAndAssertSuccess(p);
+            r.buildAndAssertSuccess(p);
+            assertTrue(new File(p.getBuildDir(), "index").isFile());
+            RunSummary e = p._getRuns().getBuildIndex().get(2);
+            assertNotNull(e);
+            assertEquals(Result.SUCCESS, e.getResult());
+            assertFalse(e.isBuilding());
+
+            // the index survives a restart
+            r.jenkins.reload();
+            p = r.jenkins.getItemByFullName("p", FreeStyleProject.class);
+            assertEquals(Result.SUCCESS, p._getRuns().getBuildIndex().get(2).getResult());
+            assertEquals(2, p.getLastSuccessfulBuild().getNumber());
+
+            // and catches up with builds it did not know about
+            FileUtils.copyDirectory(new File(p.getBuildDir(), "2"), new File(p.getBuildDir(), "5"));
+            r.jenkins.reload();
+            p = r.jenkins.getItemByFullName("p", FreeStyleProject.class);
+            long timeout = System.currentTimeMillis() + 10000;
+            while (p.getLastBuild().getNumber() != 5) {
+                assertTrue("index was not fixed", System.currentTimeMillis() < timeout);
+                Thread.sleep(100);
+            }
+        } finally {
+            BuildIndex.ENABLED = false;
+        }
+    }
+
+    @Test public void buildSummaries() throws Exception {
+        FreeStyleProject p = r.createFreeStyleProject("p");
+        r.buildAndAssertSuccess(p);
+        r.buildAndAssertSuccess(p).setDescription("second\tone");
+        p._getRuns().purgeCache();
+
+        List<RunSummary> summaries = p.getBuildSummaries();
+        assertEquals(2, summaries.size());
+        assertEquals(2, summaries.get(0).getNumber());
+        assertEquals("second\tone", summaries.get(0).getDescription());
+        assertEquals(Result.SUCCESS, summaries.get(1).getResult());
+        assertEquals("#1", summaries.get(1).getDisplayName());
+        assertTrue("builds should not have been loaded", p._getRuns().getLoadedBuilds().isEmpty());
+
+        JSONObject json = r.getJSON("job/p/api/json?tree=buildSummaries[number,result]").getJSONObject();
+        assertEquals(2, json.getJSONArray("buildSummaries").getJSONObject(0).getInt("number"));
+        assertEquals("SUCCESS", json.getJSONArray("buildSummaries").getJSONObject(0).getString("result"));
+    }
+
 }
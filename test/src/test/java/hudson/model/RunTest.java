@@ -24,10 +24,14 @@
 package hudson.model;
 
 import hudson.FilePath;
+import hudson.console.ModelHyperlinkNote;
 import hudson.Launcher;
 import hudson.tasks.ArtifactArchiver;
+import java.io.File;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.net.HttpURLConnection;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -40,6 +44,10 @@ import jenkins.model.ArtifactManagerFactory;
 import jenkins.model.ArtifactManagerFactoryDescriptor;
 import jenkins.model.Jenkins;
 import jenkins.util.VirtualFile;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.Assert.*;
 import org.junit.Rule;
 import org.junit.Test;
@@ -47,6 +55,7 @@ import org.junit.experimental.categories.Category;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.SmokeTest;
+import org.jvnet.hudson.test.TestBuilder;
 import org.jvnet.hudson.test.TestExtension;
 import org.kohsuke.stapler.DataBoundConstructor;
 
@@ -117,4 +126,85 @@ public class RunTest  {
         }
     }
 
+    @Test public void consoleTextLines() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        p.getBuildersList().add(new TestBuilder() {
+            @Override public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                for (int i = 0; i < 5000; i++) {
+                    listener.getLogger().println("line " + i);
+                }
+                return true;
+            }
+        });
+        j.buildAndAssertSuccess(p);
+        JenkinsRule.WebClient wc = j.createWebClient();
+        String[] lines = wc.goTo("job/p/1/consoleText", "text/plain").getWebResponse().getContentAsString().split("\n");
+        assertThat(lines.length, greaterThan(5000));
+        assertEquals(lines[lines.length - 2] + "\n" + lines[lines.length - 1] + "\n",
+                wc.goTo("job/p/1/consoleText?tail=2", "text/plain").getWebResponse().getContentAsString());
+        assertEquals(lines[2999] + "\n" + lines[3000] + "\n",
+                wc.goTo("job/p/1/consoleText?start=3000&end=3001", "text/plain").getWebResponse().getContentAsString());
+        assertEquals(lines[0] + "\n",
+                wc.goTo("job/p/1/consoleText?end=1", "text/plain").getWebResponse().getContentAsString());
+        wc.assertFails("job/p/1/consoleText?start=0", HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
+    @Test public void compressedLog() throws Exception {
+        Run.COMPRESS_LOG = true;
+        try {
+            FreeStyleProject p = j.createFreeStyleProject("p");
+            p.getBuildersList().add(new TestBuilder() {
+                @Override public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                    for (int i = 0; i < 50000; i++) {
+                        listener.getLogger().println("line " + i);
+                    }
+                    return true;
+                }
+            });
+            FreeStyleBuild b = j.buildAndAssertSuccess(p);
+            assertFalse(new File(b.getRootDir(), "log").exists());
+            File gz = new File(b.getRootDir(), "log.gz");
+            assertTrue(gz.isFile());
+            String log = b.getLog();
+            assertThat(gz.length() * 5, lessThan((long) log.length()));
+            j.assertLogContains("line 49999", b);
+            JenkinsRule.WebClient wc = j.createWebClient();
+            String text = wc.goTo("job/p/1/consoleText", "text/plain").getWebResponse().getContentAsString();
+            assertThat(text, containsString("\nline 0\nline 1\n"));
+            assertThat(text, endsWith("\nline 49999\nFinished: SUCCESS\n"));
+            assertEquals("line 49999\nFinished: SUCCESS\n", wc.goTo("job/p/1/consoleText?tail=2", "text/plain").getWebResponse().getContentAsString());
+            String[] lines = log.split("\n");
+            assertEquals(lines[30000] + "\n", wc.goTo("job/p/1/consoleText?start=30001&end=30001", "text/plain").getWebResponse().getContentAsString());
+            assertEquals("Finished: SUCCESS", b.getLog(2).get(1));
+            StringWriter w = new StringWriter();
+            assertEquals(log.length(), b.getLogText().writeLogTo(0, w));
+            assertEquals(log, w.toString());
+        } finally {
+            Run.COMPRESS_LOG = false;
+        }
+    }
+
+    @Test public void consoleSearch() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        p.getBuildersList().add(new TestBuilder() {
+            @Override public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                for (int i = 1; i <= 1000; i++) {
+                    listener.getLogger().println(i % 100 == 0 ? "ERROR " + i : "line " + i);
+                }
+                listener.getLogger().println("see " + ModelHyperlinkNote.encodeTo(build.getParent()));
+                return true;
+            }
+        });
+        j.buildAndAssertSuccess(p);
+        JenkinsRule.WebClient wc = j.createWebClient();
+        String[] lines = wc.goTo("job/p/1/consoleText", "text/plain").getWebResponse().getContentAsString().split("\n");
+        int first = Arrays.asList(lines).indexOf("ERROR 100") + 1;
+        assertEquals(first + ":ERROR 100\n" + (first + 100) + ":ERROR 200\n[stopped after 2 matches]\n",
+                wc.goTo("job/p/1/consoleSearch?q=ERROR&max=2", "text/plain").getWebResponse().getContentAsString());
+        assertEquals((first - 1) + "-line 99\n" + first + ":ERROR 100\n" + (first + 1) + "-line 101\n[stopped after 1 matches]\n",
+                wc.goTo("job/p/1/consoleSearch?q=ERR.R%20%5Cd&regex=true&context=1&max=1", "text/plain").getWebResponse().getContentAsString());
+        assertThat(wc.goTo("job/p/1/consoleSearch?q=see", "text/plain").getWebResponse().getContentAsString(), endsWith(":see p\n"));
+        wc.assertFails("job/p/1/consoleSearch?q=(&regex=true", HttpURLConnection.HTTP_BAD_REQUEST);
+    }
+
 }
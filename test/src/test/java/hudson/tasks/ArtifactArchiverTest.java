@@ -25,6 +25,7 @@
 package hudson.tasks;
 
 import hudson.AbortException;
+import hudson.ExtensionList;
 import hudson.FilePath;
 import hudson.Functions;
 import hudson.Launcher;
@@ -39,6 +40,8 @@ import static hudson.tasks.LogRotatorTest.build;
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -47,8 +50,11 @@ import hudson.model.Run;
 import hudson.remoting.VirtualChannel;
 import hudson.slaves.DumbSlave;
 import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.ArtifactStore;
+import jenkins.model.BuildDirectoryRemover;
 import jenkins.model.StandardArtifactManager;
 import jenkins.util.VirtualFile;
+import org.apache.commons.io.FileUtils;
 import org.hamcrest.Matchers;
 import org.jenkinsci.plugins.structs.describable.DescribableModel;
 
@@ -86,6 +92,80 @@ public class ArtifactArchiverTest {
         }
     }
 
+    @Test
+    public void deduplicate() throws Exception {
+        StandardArtifactManager.DEDUPLICATE = true;
+        try {
+            assumeTrue(ArtifactStore.get().isSupported());
+            FreeStyleProject project = j.createFreeStyleProject();
+            project.getBuildersList().add(new CreateArtifact());
+            project.getPublishersList().add(new ArtifactArchiver("f"));
+            FreeStyleBuild b1 = j.buildAndAssertSuccess(project);
+            FreeStyleBuild b2 = j.buildAndAssertSuccess(project);
+            // transferred all the same, since the agent is not trusted to report digests
+            j.assertLogNotContains("already archived", b2);
+            File f1 = new File(b1.getArtifactsDir(), "f");
+            File f2 = new File(b2.getArtifactsDir(), "f");
+            assertTrue(Files.isSameFile(f1.toPath(), f2.toPath()));
+            String md5 = Util.getDigestOf(f1);
+            assertNotNull(ArtifactStore.get().lookup(md5));
+            b1.delete();
+            ExtensionList.lookupSingleton(BuildDirectoryRemover.class).waitForPending();
+            assertEquals("content", FileUtils.readFileToString(f2, StandardCharsets.UTF_8));
+            assertNotNull(ArtifactStore.get().lookup(md5));
+            b2.deleteArtifacts();
+            assertNull(ArtifactStore.get().lookup(md5));
+        } finally {
+            StandardArtifactManager.DEDUPLICATE = false;
+        }
+    }
+
+    @Test
+    public void deduplicateArchivingAgain() throws Exception {
+        StandardArtifactManager.DEDUPLICATE = true;
+        try {
+            assumeTrue(ArtifactStore.get().isSupported());
+            FreeStyleProject project = j.createFreeStyleProject();
+            project.getBuildersList().add(new CreateArtifact());
+            project.getPublishersList().add(new ArtifactArchiver("f"));
+            FreeStyleBuild b1 = j.buildAndAssertSuccess(project);
+            String md5 = Util.getDigestOf(new File(b1.getArtifactsDir(), "f"));
+            // archives the same content as b1, then other content under the same name
+            project.getBuildersList().add(new TestBuilder() {
+                public boolean perform(AbstractBuild<?,?> build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
+                    build.pickArtifactManager().archive(build.getWorkspace(), launcher, listener, Collections.singletonMap("f", "f"));
+                    build.getWorkspace().child("f").write("changed", "UTF-8");
+                    return true;
+                }
+            });
+            FreeStyleBuild b2 = j.buildAndAssertSuccess(project);
+            assertEquals("content", FileUtils.readFileToString(new File(b1.getArtifactsDir(), "f"), StandardCharsets.UTF_8));
+            assertEquals("changed", FileUtils.readFileToString(new File(b2.getArtifactsDir(), "f"), StandardCharsets.UTF_8));
+            assertEquals("content", FileUtils.readFileToString(ArtifactStore.get().lookup(md5), StandardCharsets.UTF_8));
+        } finally {
+            StandardArtifactManager.DEDUPLICATE = false;
+        }
+    }
+
+    @Test
+    public void deduplicateTrustingAgents() throws Exception {
+        StandardArtifactManager.DEDUPLICATE = true;
+        StandardArtifactManager.TRUST_AGENT_DIGESTS = true;
+        try {
+            assumeTrue(ArtifactStore.get().isSupported());
+            FreeStyleProject project = j.createFreeStyleProject();
+            project.getBuildersList().add(new CreateArtifact());
+            project.getPublishersList().add(new ArtifactArchiver("f"));
+            FreeStyleBuild b1 = j.buildAndAssertSuccess(project);
+            FreeStyleBuild b2 = j.buildAndAssertSuccess(project);
+            j.assertLogContains("1 of 1 artifacts were already archived", b2);
+            assertTrue(Files.isSameFile(new File(b1.getArtifactsDir(), "f").toPath(), new File(b2.getArtifactsDir(), "f").toPath()));
+        } finally {
+            StandardArtifactManager.DEDUPLICATE = false;
+            StandardArtifactManager.TRUST_AGENT_DIGESTS = false;
+        }
+    }
+
     @Test
     @Issue("JENKINS-3227")
     public void testEmptyDirectories() throws Exception {
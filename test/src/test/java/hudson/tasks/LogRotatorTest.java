@@ -41,13 +41,17 @@ import hudson.model.Run;
 import hudson.model.queue.QueueTaskFuture;
 import hudson.tasks.ArtifactArchiverTest.CreateArtifact;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import jenkins.model.lazy.BuildIndex;
+import org.apache.commons.io.FileUtils;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -148,6 +152,27 @@ public class LogRotatorTest {
         assertTrue(project.getBuildByNumber(8).getHasArtifacts());
     }
     
+    @Test
+    public void unloadableBuildsAreNotKept() throws Exception {
+        BuildIndex.ENABLED = true;
+        try {
+            FreeStyleProject project = j.createFreeStyleProject("p");
+            assertEquals(Result.SUCCESS, build(project)); // #1
+            assertEquals(Result.SUCCESS, build(project)); // #2
+            assertEquals(Result.SUCCESS, build(project)); // #3
+            // still in the build index, but cannot be loaded
+            FileUtils.write(new File(project.getBuildByNumber(3).getRootDir(), "build.xml"), "garbage", StandardCharsets.UTF_8);
+            j.jenkins.reload();
+            project = j.jenkins.getItemByFullName("p", FreeStyleProject.class);
+            project.setLogRotator(new LogRotator(-1, 2, -1, -1));
+            assertEquals(Result.SUCCESS, build(project)); // #4
+            assertNotNull(project.getBuildByNumber(2));
+            assertEquals(null, project.getBuildByNumber(1));
+        } finally {
+            BuildIndex.ENABLED = false;
+        }
+    }
+
     @Test
     @Issue("JENKINS-27836")
     public void artifactsRetainedWhileBuilding() throws Exception {
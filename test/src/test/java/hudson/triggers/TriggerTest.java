@@ -26,16 +26,27 @@ package hudson.triggers;
 
 import antlr.ANTLRException;
 import hudson.Extension;
+import hudson.model.FreeStyleProject;
 import hudson.model.Item;
+import jenkins.model.ParameterizedJobMixIn;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 import org.kohsuke.stapler.DataBoundConstructor;
 
 import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class TriggerTest {
 
@@ -50,11 +61,99 @@ public class TriggerTest {
         Trigger.checkTriggers(cal);
     }
 
+    @Test
+    public void scheduleOnlyReturnsDueTriggers() throws Exception {
+        FreeStyleProject p = jenkinsRule.createFreeStyleProject();
+        MockTrigger t = new MockTrigger("30 3 * * *");
+        p.addTrigger(t);
+        t.start(p, true);
+        Calendar cal = new GregorianCalendar();
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 3);
+        cal.set(Calendar.MINUTE, 29);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        assertTrue(dueFor(p, cal).isEmpty());
+        cal.add(Calendar.MINUTE, 1);
+        List<Trigger<?>> due = dueFor(p, cal);
+        assertEquals(1, due.size());
+        assertSame(t, due.get(0));
+        cal.add(Calendar.MINUTE, 1);
+        assertTrue(dueFor(p, cal).isEmpty());
+
+        // replaced triggers are dropped, new ones picked up
+        MockTrigger t2 = new MockTrigger("31 3 * * *");
+        p.removeTrigger(MockTrigger.DESCRIPTOR);
+        p.addTrigger(t2);
+        t2.start(p, true);
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.MINUTE, 30);
+        assertTrue(dueFor(p, cal).isEmpty());
+        cal.add(Calendar.MINUTE, 1);
+        due = dueFor(p, cal);
+        assertEquals(1, due.size());
+        assertSame(t2, due.get(0));
+    }
+
+    @Test
+    public void scheduleTriggersNotCallingSuperStart() throws Exception {
+        long rescanPeriod = CronSchedule.RESCAN_PERIOD;
+        CronSchedule.RESCAN_PERIOD = TimeUnit.DAYS.toMillis(365);
+        try {
+            // done with the periodic rescan
+            CronSchedule.INSTANCE.rescanSoon();
+            CronSchedule.INSTANCE.due(new GregorianCalendar());
+            String tagname = NotStartedTrigger.class.getName().replace("$", "_-");
+            FreeStyleProject p = (FreeStyleProject) jenkinsRule.getInstance().createProjectFromXML("p", new ByteArrayInputStream(("<project>\n  <builders/>\n  <publishers/>\n  <buildWrappers/>\n"
+                    + "<triggers>\n <" + tagname + ">\n  <spec>30 4 * * *</spec>\n </" + tagname + ">\n</triggers>\n</project>").getBytes()));
+            Trigger<?> t = p.getTrigger(NotStartedTrigger.class);
+            Calendar cal = new GregorianCalendar();
+            cal.add(Calendar.DAY_OF_MONTH, 3);
+            cal.set(Calendar.HOUR_OF_DAY, 4);
+            cal.set(Calendar.MINUTE, 30);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MILLISECOND, 0);
+            assertTrue(dueFor(p, cal).contains(t));
+        } finally {
+            CronSchedule.RESCAN_PERIOD = rescanPeriod;
+            CronSchedule.INSTANCE.rescanSoon();
+        }
+    }
+
+    private static List<Trigger<?>> dueFor(Item job, Calendar cal) {
+        List<Trigger<?>> r = new ArrayList<>();
+        for (Map.Entry<ParameterizedJobMixIn.ParameterizedJob<?, ?>, Trigger<?>> e : CronSchedule.INSTANCE.due(cal)) {
+            if (e.getKey() == job) {
+                r.add(e.getValue());
+            }
+        }
+        return r;
+    }
+
     private String triggersSection() {
         String tagname = MockTrigger.class.getName().replace("$", "_-");
         return "<triggers> \n <" + tagname + ">\n </" + tagname + ">\n  </triggers>\n";
     }
 
+    public static class NotStartedTrigger extends Trigger<Item> {
+        @DataBoundConstructor
+        public NotStartedTrigger(String spec) throws ANTLRException {
+            super(spec);
+        }
+
+        @Override
+        public void start(Item project, boolean newInstance) {
+            // does not register with CronSchedule
+        }
+
+        @TestExtension("scheduleTriggersNotCallingSuperStart")
+        public static class DescriptorImpl extends TriggerDescriptor {
+            @Override public boolean isApplicable(Item item) {
+                return true;
+            }
+        }
+    }
+
     public static class MockTrigger extends Trigger<Item> {
         @Extension
         public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
@@ -0,0 +1,155 @@
+package jenkins.fingerprints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.Fingerprint;
+import java.io.File;
+import java.io.RandomAccessFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LogFingerprintStorageTest {
+
+    @Rule public JenkinsRule j = new JenkinsRule();
+
+    private boolean enabled;
+
+    @Before
+    public void enable() {
+        enabled = LogFingerprintStorage.ENABLED;
+        LogFingerprintStorage.ENABLED = true;
+    }
+
+    @After
+    public void restore() {
+        LogFingerprintStorage.ENABLED = enabled;
+        LogFingerprintStorage.FINALIZE_MIGRATION = false;
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        assertTrue(FingerprintStorage.get() instanceof LogFingerprintStorage);
+        String id = Util.getDigestOf("one");
+        Fingerprint fp = j.jenkins.getFingerprintMap().getOrCreate(null, "one.jar", id);
+        fp.add("a/b", 3);
+        fp.add("a/b", 4);
+        fp.add("c", 10);
+
+        // a fresh instance has to read it all back from the file
+        Fingerprint loaded = new LogFingerprintStorage().load(id);
+        assertNotNull(loaded);
+        assertEquals("one.jar", loaded.getFileName());
+        assertEquals(fp.getTimestamp(), loaded.getTimestamp());
+        assertEquals(fp.getRangeSet("a/b"), loaded.getRangeSet("a/b"));
+        assertTrue(loaded.getRangeSet("c").includes(10));
+        assertFalse(Fingerprint.getFingerprintFile(id).exists());
+
+        LogFingerprintStorage storage = ExtensionList.lookupSingleton(LogFingerprintStorage.class);
+        storage.delete(id);
+        assertNull(storage.load(id));
+        assertNull(new LogFingerprintStorage().load(id));
+    }
+
+    @Test
+    public void migratesXmlFiles() throws Exception {
+        String id = Util.getDigestOf("legacy");
+        Fingerprint fp = j.jenkins.getFingerprintMap().getOrCreate(null, "legacy.jar", id);
+        File xml = Fingerprint.getFingerprintFile(id);
+        fp.save(xml);
+        LogFingerprintStorage storage = ExtensionList.lookupSingleton(LogFingerprintStorage.class);
+        storage.delete(id); // which also deletes the XML file
+        fp.save(xml);
+        assertTrue(xml.exists());
+
+        Fingerprint loaded = storage.load(id);
+        assertNotNull(loaded);
+        assertEquals("legacy.jar", loaded.getFileName());
+        storage.save(loaded);
+        assertNotNull(new LogFingerprintStorage().load(id));
+        // kept until the migration is finalized, in case the log is turned off again
+        assertTrue(xml.exists());
+        LogFingerprintStorage.ENABLED = false;
+        assertNotNull(FingerprintStorage.get().load(id));
+        LogFingerprintStorage.ENABLED = true;
+
+        LogFingerprintStorage.FINALIZE_MIGRATION = true;
+        storage.save(loaded);
+        assertFalse(xml.exists());
+        assertNotNull(new LogFingerprintStorage().load(id));
+    }
+
+    @Test
+    public void dropsIncompleteRecords() throws Exception {
+        String id = Util.getDigestOf("torn");
+        j.jenkins.getFingerprintMap().getOrCreate(null, "torn.jar", id);
+        File log = new File(FileFingerprintStorage.getRootDir(), LogFingerprintStorage.FILE_NAME);
+        long good = log.length();
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.seek(good);
+            raf.writeInt(1000);
+            raf.writeInt(0);
+            raf.write(new byte[10]);
+        }
+        assertNotNull(new LogFingerprintStorage().load(id));
+        assertEquals(good, log.length());
+    }
+
+    @Test
+    public void compacts() throws Exception {
+        long threshold = LogFingerprintStorage.COMPACTION_THRESHOLD;
+        LogFingerprintStorage.COMPACTION_THRESHOLD = 0;
+        try {
+            String id = Util.getDigestOf("busy");
+            Fingerprint fp = j.jenkins.getFingerprintMap().getOrCreate(null, "busy.jar", id);
+            for (int i = 1; i <= 100; i++) {
+                fp.add("job", i);
+            }
+            LogFingerprintStorage storage = ExtensionList.lookupSingleton(LogFingerprintStorage.class);
+            File log = new File(FileFingerprintStorage.getRootDir(), LogFingerprintStorage.FILE_NAME);
+            // saving does not compact, so every save is still in the log
+            long allRecords = log.length();
+            storage.compactIfNeeded();
+            long oneRecord = log.length();
+            assertTrue(oneRecord < allRecords);
+            fp.save();
+            assertEquals(2 * oneRecord, log.length());
+            storage.compactIfNeeded();
+            assertEquals(oneRecord, log.length());
+            Fingerprint loaded = new LogFingerprintStorage().load(id);
+            assertNotNull(loaded);
+            assertTrue(loaded.getRangeSet("job").includes(100));
+        } finally {
+            LogFingerprintStorage.COMPACTION_THRESHOLD = threshold;
+        }
+    }
+
+    @Test
+    public void batch() throws Exception {
+        File log = new File(FileFingerprintStorage.getRootDir(), LogFingerprintStorage.FILE_NAME);
+        String[] ids = new String[50];
+        try (Fingerprint.Batch batch = Fingerprint.batch()) {
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = Util.getDigestOf("batch" + i);
+                j.jenkins.getFingerprintMap().getOrCreate(null, i + ".jar", ids[i]).add("job", 1);
+            }
+            try (Fingerprint.Batch nested = Fingerprint.batch()) {
+                j.jenkins.getFingerprintMap().getOrCreate(null, "0.jar", ids[0]).add("job", 2);
+            }
+            assertFalse(log.exists() && log.length() > 0);
+        }
+        LogFingerprintStorage storage = new LogFingerprintStorage();
+        assertEquals(ids.length, storage.getIds().size());
+        Fingerprint first = storage.load(ids[0]);
+        assertNotNull(first);
+        assertTrue(first.getRangeSet("job").includes(2));
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2020, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jenkins.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.ExtensionList;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class BuildDirectoryRemoverTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Test
+    public void removesInBackground() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        File dir = b.getRootDir();
+        File buildsDir = dir.getParentFile();
+        b.delete();
+        assertFalse(dir.exists());
+        assertNull(p.getBuildByNumber(1));
+
+        BuildDirectoryRemover remover = ExtensionList.lookupSingleton(BuildDirectoryRemover.class);
+        remover.waitForPending();
+        assertEquals(0, remover.getPending());
+        assertEquals(1, remover.getDirectoriesRemoved());
+        assertTrue(remover.getFilesRemoved() > 0);
+        String[] tombstones = buildsDir.list((d, name) -> name.startsWith("."));
+        assertEquals(0, tombstones == null ? 0 : tombstones.length);
+        assertFalse(new File(j.jenkins.getRootDir(), BuildDirectoryRemover.JOURNAL).exists());
+    }
+
+    @Test
+    public void resumesAfterRestart() throws Exception {
+        File tombstone = new File(j.jenkins.getRootDir(), "jobs/p/builds/.1~left");
+        assertTrue(new File(tombstone, "archive").mkdirs());
+        Files.write(new File(tombstone, "build.xml").toPath(), "<build/>".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(j.jenkins.getRootDir(), BuildDirectoryRemover.JOURNAL).toPath(),
+                Collections.singleton(tombstone.getAbsolutePath()), StandardCharsets.UTF_8);
+
+        BuildDirectoryRemover remover = ExtensionList.lookupSingleton(BuildDirectoryRemover.class);
+        remover.recover();
+        remover.waitForPending();
+        assertFalse(tombstone.exists());
+        assertFalse(new File(j.jenkins.getRootDir(), BuildDirectoryRemover.JOURNAL).exists());
+    }
+
+    @Test
+    public void followsRenamedJobs() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject("p");
+        // as if queued under the old name
+        assertTrue(new File(p.getBuildDir(), ".1~moved/archive").mkdirs());
+        p.renameTo("q");
+        File tombstone = new File(p.getBuildDir(), ".1~moved");
+        assertTrue(tombstone.getPath().contains("q"));
+
+        ExtensionList.lookupSingleton(BuildDirectoryRemover.class).waitForPending();
+        assertFalse(tombstone.exists());
+    }
+
+    @Test
+    public void stopsWithJenkins() throws Exception {
+        int rate = BuildDirectoryRemover.FILES_PER_SECOND;
+        BuildDirectoryRemover.FILES_PER_SECOND = 1;
+        try {
+            File tombstone = new File(j.jenkins.getRootDir(), "jobs/p/builds/.1~slow");
+            assertTrue(tombstone.mkdirs());
+            for (int i = 0; i < 20; i++) {
+                Files.write(new File(tombstone, "f" + i).toPath(), new byte[0]);
+            }
+            BuildDirectoryRemover.remove(tombstone, Collections.emptySet());
+
+            BuildDirectoryRemover remover = ExtensionList.lookupSingleton(BuildDirectoryRemover.class);
+            remover.shutDown();
+            assertTrue("left for the next start", tombstone.exists());
+            assertTrue(new File(j.jenkins.getRootDir(), BuildDirectoryRemover.JOURNAL).exists());
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                assertFalse(t.getName(), t.getName().startsWith("BuildDirectoryRemover"));
+            }
+        } finally {
+            BuildDirectoryRemover.FILES_PER_SECOND = rate;
+        }
+    }
+}
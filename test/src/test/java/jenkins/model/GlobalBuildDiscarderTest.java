@@ -2,13 +2,19 @@ package jenkins.model;
 
 import hudson.ExtensionList;
 import hudson.model.FreeStyleProject;
+import hudson.model.Job;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.tasks.LogRotator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
 
 public class GlobalBuildDiscarderTest {
     @Rule
@@ -106,4 +112,49 @@ public class GlobalBuildDiscarderTest {
             }
         }
     }
+
+    @Test
+    public void onlyChangedJobs() throws Exception {
+        FreeStyleProject p1 = j.createFreeStyleProject("p1");
+        FreeStyleProject p2 = j.createFreeStyleProject("p2");
+        RecordingStrategy strategy = new RecordingStrategy();
+        GlobalBuildDiscarderConfiguration.get().getConfiguredBuildDiscarders().add(strategy);
+        BackgroundGlobalBuildDiscarder discarder = ExtensionList.lookupSingleton(BackgroundGlobalBuildDiscarder.class);
+
+        discarder.execute(TaskListener.NULL);
+        Collections.sort(strategy.jobs);
+        Assert.assertEquals("first run processes all jobs", Arrays.asList("p1", "p2"), strategy.jobs);
+
+        strategy.jobs.clear();
+        discarder.execute(TaskListener.NULL);
+        Assert.assertEquals("nothing changed", Collections.emptyList(), strategy.jobs);
+
+        j.buildAndAssertSuccess(p2);
+        strategy.jobs.clear(); // also offered by GlobalBuildDiscarderListener
+        discarder.execute(TaskListener.NULL);
+        Assert.assertEquals("only the job with a new build", Collections.singletonList("p2"), strategy.jobs);
+
+        strategy.jobs.clear();
+        p1.setDescription("changed");
+        discarder.execute(TaskListener.NULL);
+        Assert.assertEquals("only the reconfigured job", Collections.singletonList("p1"), strategy.jobs);
+    }
+
+    public static class RecordingStrategy extends GlobalBuildDiscarderStrategy {
+        final List<String> jobs = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public boolean isApplicable(Job<?, ?> job) {
+            return true;
+        }
+
+        @Override
+        public void apply(Job<? extends Job, ? extends Run> job) {
+            jobs.add(job.getFullName());
+        }
+
+        @TestExtension("onlyChangedJobs")
+        public static class DescriptorImpl extends GlobalBuildDiscarderStrategyDescriptor {
+        }
+    }
 }